@@ -0,0 +1,65 @@
+package code.bench;
+
+import code.LecteurCsv;
+import code.MatriceDonnees;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the loading of a CSV file (code.LecteurCsv) written from a synthetic data set.
+ * The file is read from the page cache after the first iteration, so the parsing is measured
+ * rather than the disk.
+ * Run with: java -jar benchmarks/target/benchmarks.jar BancLecture [-p nbLignes=1000000 ...]
+ *
+ * @author Fab.16
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class BancLecture {
+
+  /** Number of components of each row. */
+  @Param({"4", "64"})
+  public int dimension;
+
+  /** Number of rows of the file. */
+  @Param({"1000", "100000"})
+  public int nbLignes;
+
+  private Path fichier;
+
+  @Setup(Level.Trial)
+  public void preparer() throws IOException {
+    this.fichier = Files.createTempFile("som-banc-", ".csv");
+    Generateur.ecrireCsv(Generateur.donnees(this.nbLignes, this.dimension, 16L), this.fichier);
+  }
+
+  @TearDown(Level.Trial)
+  public void terminer() throws IOException {
+    Files.deleteIfExists(this.fichier);
+  }
+
+  /** Reading and parsing of the whole file. */
+  @Benchmark
+  public MatriceDonnees lire() throws IOException {
+    return new LecteurCsv().lire(this.fichier.toString());
+  }
+}
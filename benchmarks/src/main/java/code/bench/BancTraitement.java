@@ -0,0 +1,139 @@
+package code.bench;
+
+import code.MatriceDonnees;
+import code.Neuron;
+import code.Planning;
+import code.Topologie;
+import code.Traitement;
+import code.Weight;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the steps of code.Traitement on a synthetic data set, for every combination
+ * of the side of the (square) map, the dimension of the rows and their number.
+ * Run with: java -jar benchmarks/target/benchmarks.jar BancTraitement [-p cote=50 -p dimension=16 ...]
+ *
+ * @author Fab.16
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class BancTraitement {
+
+  /** Number of rows and of columns of the map. */
+  @Param({"10", "30"})
+  public int cote;
+
+  /** Number of components of each row. */
+  @Param({"4", "64"})
+  public int dimension;
+
+  /** Number of rows of the data set. */
+  @Param({"1000", "20000"})
+  public int nbLignes;
+
+  private Traitement traitement;
+
+  /** Raw rows, as given to normalisation. */
+  private ArrayList<Weight> liste;
+
+  /** Normalized row compared with the map. */
+  private double[] donnee;
+
+  /** Node around which the submatrix is taken. */
+  private Neuron centre;
+
+  private PrintStream sortie;
+
+  @Setup(Level.Trial)
+  public void preparer() throws IOException {
+    // Traitement reports its progress on the standard output
+    this.sortie = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    final MatriceDonnees donnees = Generateur.donnees(this.nbLignes, this.dimension, 16L);
+    this.traitement = new Traitement(donnees);
+    this.traitement.setGraine(16L);
+    this.traitement.setTopologie(Topologie.rectangulaire(this.cote, this.cote));
+    this.traitement.calculeVecteurMoyen();
+    this.traitement.creerIntervale(0.5, 0.5);
+    this.traitement.genereMatrice();
+    this.traitement.setPlanning(Planning.epoques(Planning.Type.LINEAIRE, 0.5, 0.01, 1));
+    this.liste = MatriceDonnees.versListe(donnees);
+    this.donnee = new double[this.dimension];
+    this.traitement.getNormees().copierLigne(0, this.donnee);
+    this.traitement.calculeDistanceEucliedienne(this.donnee);
+    this.centre = this.traitement.getMatrice()[this.cote / 2][this.cote / 2];
+  }
+
+  @TearDown(Level.Trial)
+  public void terminer() {
+    System.setOut(this.sortie);
+  }
+
+  /** Ecart between one row and every node. */
+  @Benchmark
+  public double[] calculeDistanceEucliedienne() {
+    this.traitement.calculeDistanceEucliedienne(this.donnee);
+    return this.traitement.getCodebook().getPoids();
+  }
+
+  /** Search of the nodes at the smallest distance, on the distances of one row. */
+  @Benchmark
+  public ArrayList<Neuron> plusPetit() {
+    this.traitement.plusPetit(this.traitement.getMatrice());
+    return this.traitement.getListeNoeud();
+  }
+
+  /** Legacy neighbourhood of a node: submatrix of radius 1, then merged back. */
+  @Benchmark
+  public Neuron[][] calculeSousMatriceFusionnerMatrice() {
+    this.traitement.calculeSousMatrice(this.centre, this.traitement.getMatrice(), 1);
+    this.traitement.fusionnerMatrice();
+    return this.traitement.getMatrice();
+  }
+
+  /** One epoch of the online training, rows in random order. */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public double[] rapprochement() {
+    this.traitement.rapprochement(1);
+    return this.traitement.getCodebook().getPoids();
+  }
+
+  /** Normalization of the raw rows. */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public ArrayList<Weight> normalisation() {
+    final ArrayList<Weight> resultat = new ArrayList<Weight>(this.liste.size());
+    this.traitement.normalisation(this.liste, resultat);
+    return resultat;
+  }
+
+  /** Labelling of every node with its closest row. */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public Neuron[][] distanceEuclidienneInverse() {
+    this.traitement.distanceEuclidienneInverse();
+    return this.traitement.getMatrice();
+  }
+}
@@ -0,0 +1,88 @@
+package code.bench;
+
+import code.MatriceDonnees;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic data sets of the benchmarks: gaussian clusters around random centers, one label
+ * per cluster, drawn from a seed so that every run measures the same rows.
+ *
+ * @author Fab.16
+ */
+final class Generateur {
+
+  /** Number of clusters, hence of labels. */
+  static final int NB_CLASSES = 3;
+
+  /** Standard deviation of the rows around the center of their cluster. */
+  private static final double ECART_TYPE = 0.3;
+
+  private Generateur() {
+  }
+
+  /**
+   * Draws a data set.
+   *
+   * @param nbLignes the number of rows
+   * @param dimension the number of components of each row
+   * @param graine the seed
+   * @return the rows, not normalized
+   * @throws IOException if the rows do not fit in memory
+   */
+  static MatriceDonnees donnees(final int nbLignes, final int dimension, final long graine) throws IOException {
+    final SplittableRandom aleatoire = new SplittableRandom(graine);
+    final double[][] centres = new double[NB_CLASSES][dimension];
+    for (final double[] centre : centres) {
+      for (int j = 0; j < dimension; ++j) {
+        centre[j] = 1.0 + 4.0 * aleatoire.nextDouble();
+      }
+    }
+    final MatriceDonnees donnees = new MatriceDonnees(dimension, nbLignes);
+    for (int k = 0; k < NB_CLASSES; ++k) {
+      donnees.indiceLabel("classe-" + k);
+    }
+    for (int i = 0; i < nbLignes; ++i) {
+      final int classe = aleatoire.nextInt(NB_CLASSES);
+      final int offset = donnees.ajouterLigne(classe);
+      for (int j = 0; j < dimension; ++j) {
+        donnees.getValeurs()[offset + j] = centres[classe][j] + ECART_TYPE * gaussien(aleatoire);
+      }
+    }
+    return donnees;
+  }
+
+  /**
+   * Writes a data set as a CSV file, the label in the last column, as read by code.LecteurCsv.
+   *
+   * @param donnees the rows
+   * @param fichier the file to write
+   * @throws IOException if the file cannot be written
+   */
+  static void ecrireCsv(final MatriceDonnees donnees, final Path fichier) throws IOException {
+    final double[] ligne = new double[donnees.getDimension()];
+    try (BufferedWriter sortie = Files.newBufferedWriter(fichier, StandardCharsets.UTF_8)) {
+      for (int i = 0; i < donnees.getLignes(); ++i) {
+        donnees.copierLigne(i, ligne);
+        for (final double v : ligne) {
+          // four decimals, as in the data sets of the project
+          sortie.write(String.valueOf(Math.round(v * 1e4) / 1e4));
+          sortie.write(',');
+        }
+        sortie.write(donnees.getLabel(i));
+        sortie.write('\n');
+      }
+    }
+  }
+
+  /**
+   * Standard normal draw (Box-Muller).
+   */
+  private static double gaussien(final SplittableRandom aleatoire) {
+    return Math.sqrt(-2.0 * Math.log(1.0 - aleatoire.nextDouble())) * Math.cos(2.0 * Math.PI * aleatoire.nextDouble());
+  }
+}
@@ -0,0 +1,295 @@
+package code;
+
+import java.util.Arrays;
+
+/**
+ * KD-tree over the rows of a data set, answering nearest row queries.
+ * The tree only holds a permutation of the row indices, reordered so that each subtree is
+ * contiguous, and split at the median of the axis with the largest spread until at most FEUILLE
+ * rows remain. The rows themselves stay in the data set: a code.MatriceDonnees is read in place
+ * and any other data set, such as a code.DonneesBinaires larger than the heap, through copierLigne.
+ * A query descends towards its own side of each split first and skips the other side
+ * when the axis gap alone already exceeds the best ecart found.
+ * The gap bounds the Euclidean and Manhattan ecarts only; the cosine metric is not supported.
+ * The tree is immutable once built and can be queried by several threads.
+ *
+ * @author Fab.16
+ */
+public class ArbreKd {
+
+  /** Maximum number of rows in a leaf. */
+  private static final int FEUILLE = 8;
+
+  /** Largest array the virtual machines allocate. */
+  private static final int TAILLE_MAX = Integer.MAX_VALUE - 8;
+
+  /** Number of components of each row. */
+  private final int dimension;
+
+  /** Metric of the queries. */
+  private final Metrique metrique;
+
+  /** Kernel of the metric. */
+  private final Metrique.Noyau noyau;
+
+  /** Data set of the rows. */
+  private final Donnees donnees;
+
+  /** Values of the rows when the data set is a code.MatriceDonnees, null otherwise. */
+  private final double[] valeurs;
+
+  /** Index in the data set of each row, in the order of the tree. */
+  private final int[] lignes;
+
+  /** Split axis of each internal node, in heap order (root at 1, children at 2i and 2i + 1). */
+  private final int[] axes;
+
+  /** Split value of each internal node, in heap order. */
+  private final double[] seuils;
+
+  /**
+   * Builds the tree over every row of a data set.
+   *
+   * @param donnees the data set
+   * @param metrique the metric of the queries, Euclidean or Manhattan
+   * @throws IllegalArgumentException if the metric is the cosine, or if the data set has more
+   *         rows than an array can index
+   */
+  public ArbreKd(final Donnees donnees, final Metrique metrique) {
+    if (metrique == Metrique.COSINUS) {
+      throw new IllegalArgumentException("métrique non supportée par l'arbre : " + metrique);
+    }
+    this.dimension = donnees.getDimension();
+    this.metrique = metrique;
+    this.noyau = metrique.noyau();
+    this.donnees = donnees;
+    this.valeurs = donnees instanceof MatriceDonnees ? ((MatriceDonnees)donnees).getValeurs() : null;
+    final int n = donnees.getLignes();
+    if (n > TAILLE_MAX) {
+      throw new IllegalArgumentException(n + " lignes ne tiennent pas dans l'index de l'arbre (" + TAILLE_MAX + " au plus)");
+    }
+    this.lignes = new int[n];
+    for (int i = 0; i < n; ++i) {
+      this.lignes[i] = i;
+    }
+    int noeuds = 1;
+    while ((long)noeuds * FEUILLE < n) {
+      noeuds <<= 1;
+    }
+    this.axes = new int[2 * noeuds];
+    this.seuils = new double[2 * noeuds];
+    this.construire(new Construction(this.dimension, n), 1, 0, n);
+  }
+
+  /**
+   * Returns the number of rows of the tree.
+   *
+   * @return the number of rows
+   */
+  public int getTaille() {
+    return this.lignes.length;
+  }
+
+  /**
+   * Returns the metric of the queries.
+   *
+   * @return the metric
+   */
+  public Metrique getMetrique() {
+    return this.metrique;
+  }
+
+  /**
+   * Returns the row closest to a vector. On a tie, the row with the smallest index wins,
+   * as with a sequential scan.
+   *
+   * @param source the array holding the vector
+   * @param debut the offset of the vector in the array
+   * @return the index of the closest row in the data set, or -1 if the tree is empty
+   */
+  public int plusProche(final double[] source, final int debut) {
+    final Recherche recherche = new Recherche(source, debut, this.valeurs != null ? null : new double[this.dimension]);
+    this.chercher(recherche, 1, 0, this.lignes.length);
+    return recherche.ligne;
+  }
+
+  /**
+   * Splits the rows of [debut, fin[ at the median of their widest axis.
+   * Each row of the range is read once to find the axis, then the values of that axis are
+   * copied into cles, which is reordered with lignes.
+   */
+  private void construire(final Construction construction, final int noeud, final int debut, final int fin) {
+    if (fin - debut <= FEUILLE) {
+      return;
+    }
+    final double[] min = construction.min;
+    final double[] max = construction.max;
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    for (int i = debut; i < fin; ++i) {
+      final double[] ligne = this.ligne(this.lignes[i], construction.ligne);
+      final int offset = this.offset(this.lignes[i]);
+      for (int j = 0; j < this.dimension; ++j) {
+        min[j] = Math.min(min[j], ligne[offset + j]);
+        max[j] = Math.max(max[j], ligne[offset + j]);
+      }
+    }
+    int axe = 0;
+    double etendueMax = -1.0;
+    for (int j = 0; j < this.dimension; ++j) {
+      if (max[j] - min[j] > etendueMax) {
+        etendueMax = max[j] - min[j];
+        axe = j;
+      }
+    }
+    final double[] cles = construction.cles;
+    for (int i = debut; i < fin; ++i) {
+      cles[i] = this.ligne(this.lignes[i], construction.ligne)[this.offset(this.lignes[i]) + axe];
+    }
+    final int milieu = (debut + fin) >>> 1;
+    this.selectionner(cles, debut, fin - 1, milieu);
+    this.axes[noeud] = axe;
+    this.seuils[noeud] = cles[milieu];
+    this.construire(construction, 2 * noeud, debut, milieu);
+    this.construire(construction, 2 * noeud + 1, milieu, fin);
+  }
+
+  /**
+   * Reorders cles[gauche..droite], and lignes with it, so that the k-th key is at position k,
+   * with no greater key before it and no smaller key after it (quickselect).
+   */
+  private void selectionner(final double[] cles, int gauche, int droite, final int k) {
+    while (gauche < droite) {
+      final double pivot = cles[(gauche + droite) >>> 1];
+      int i = gauche;
+      int j = droite;
+      while (i <= j) {
+        while (cles[i] < pivot) {
+          ++i;
+        }
+        while (cles[j] > pivot) {
+          --j;
+        }
+        if (i <= j) {
+          final int tmp = this.lignes[i];
+          this.lignes[i] = this.lignes[j];
+          this.lignes[j] = tmp;
+          final double cle = cles[i];
+          cles[i] = cles[j];
+          cles[j] = cle;
+          ++i;
+          --j;
+        }
+      }
+      if (k <= j) {
+        droite = j;
+      }
+      else if (k >= i) {
+        gauche = i;
+      }
+      else {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Searches the subtree holding the rows of [debut, fin[.
+   */
+  private void chercher(final Recherche recherche, final int noeud, final int debut, final int fin) {
+    if (fin - debut <= FEUILLE) {
+      for (int i = debut; i < fin; ++i) {
+        final double[] ligne = this.ligne(this.lignes[i], recherche.tampon);
+        final double ecart = this.noyau.ecart(ligne, this.offset(this.lignes[i]), recherche.source, recherche.debut, this.dimension);
+        if (ecart < recherche.ecart || (ecart == recherche.ecart && this.lignes[i] < recherche.ligne)) {
+          recherche.ecart = ecart;
+          recherche.ligne = this.lignes[i];
+        }
+      }
+      return;
+    }
+    final int milieu = (debut + fin) >>> 1;
+    final double ecartAxe = recherche.source[recherche.debut + this.axes[noeud]] - this.seuils[noeud];
+    final double borne = this.metrique == Metrique.EUCLIDIENNE ? ecartAxe * ecartAxe : Math.abs(ecartAxe);
+    if (ecartAxe < 0.0) {
+      this.chercher(recherche, 2 * noeud, debut, milieu);
+      if (borne <= recherche.ecart) {
+        this.chercher(recherche, 2 * noeud + 1, milieu, fin);
+      }
+    }
+    else {
+      this.chercher(recherche, 2 * noeud + 1, milieu, fin);
+      if (borne <= recherche.ecart) {
+        this.chercher(recherche, 2 * noeud, debut, milieu);
+      }
+    }
+  }
+
+  /**
+   * Returns the array holding a row: the values of the code.MatriceDonnees, or the buffer
+   * filled by copierLigne. The row starts at offset(ligne) in that array.
+   */
+  private double[] ligne(final int ligne, final double[] tampon) {
+    if (this.valeurs != null) {
+      return this.valeurs;
+    }
+    this.donnees.copierLigne(ligne, tampon);
+    return tampon;
+  }
+
+  /**
+   * Offset of a row in the array returned by ligne.
+   */
+  private int offset(final int ligne) {
+    return this.valeurs != null ? ligne * this.dimension : 0;
+  }
+
+  /**
+   * Work arrays of the construction.
+   */
+  private static final class Construction {
+
+    /** Buffer of one row. */
+    private final double[] ligne;
+
+    /** Smallest and largest value of each axis over a range of rows. */
+    private final double[] min;
+
+    private final double[] max;
+
+    /** Value of the split axis of each row, in the order of lignes. */
+    private final double[] cles;
+
+    Construction(final int dimension, final int n) {
+      this.ligne = new double[dimension];
+      this.min = new double[dimension];
+      this.max = new double[dimension];
+      this.cles = new double[n];
+    }
+  }
+
+  /**
+   * State of one query.
+   */
+  private static final class Recherche {
+
+    private final double[] source;
+
+    private final int debut;
+
+    /** Buffer of one row when the rows are read through copierLigne, null otherwise. */
+    private final double[] tampon;
+
+    /** Best ecart found so far. */
+    private double ecart = Double.POSITIVE_INFINITY;
+
+    /** Index in the data set of the best row so far. */
+    private int ligne = -1;
+
+    Recherche(final double[] source, final int debut, final double[] tampon) {
+      this.source = source;
+      this.debut = debut;
+      this.tampon = tampon;
+    }
+  }
+}
@@ -0,0 +1,326 @@
+package code;
+
+/**
+ * Flat storage of the reference vectors of every node of the SOM grid.
+ * All the vectors live in a single row-major array of size lignes * colonnes * dimension,
+ * so a scan of the map reads memory sequentially instead of chasing one array per node.
+ * Node (x, y) starts at offset (x * colonnes + y) * dimension.
+ * The vectors are compared with a code.Metrique, Euclidean by default, and the nodes are
+ * laid out on a code.Topologie, rectangular without wrapping by default.
+ *
+ * @author Fab.16
+ */
+public class Codebook {
+
+  /** Largest array the virtual machines allocate. */
+  private static final int TAILLE_MAX = Integer.MAX_VALUE - 8;
+
+  /** Number of rows of the grid. */
+  private final int lignes;
+
+  /** Number of columns of the grid. */
+  private final int colonnes;
+
+  /** Number of components of each reference vector. */
+  private final int dimension;
+
+  /** Reference vectors of all the nodes, stored one after the other. */
+  private final double[] poids;
+
+  /** Metric comparing the vectors. */
+  private final Metrique metrique;
+
+  /** Kernel of the metric. */
+  private final Metrique.Noyau noyau;
+
+  /** Shape of the grid. */
+  private final Topologie topologie;
+
+  /**
+   * Constructs an empty codebook (all components set to 0) compared with the Euclidean distance.
+   *
+   * @param lignes the number of rows of the grid
+   * @param colonnes the number of columns of the grid
+   * @param dimension the number of components of each reference vector
+   */
+  public Codebook(final int lignes, final int colonnes, final int dimension) {
+    this(lignes, colonnes, dimension, Metrique.EUCLIDIENNE);
+  }
+
+  /**
+   * Constructs an empty codebook (all components set to 0).
+   *
+   * @param lignes the number of rows of the grid
+   * @param colonnes the number of columns of the grid
+   * @param dimension the number of components of each reference vector
+   * @param metrique the metric comparing the vectors
+   */
+  public Codebook(final int lignes, final int colonnes, final int dimension, final Metrique metrique) {
+    this(Topologie.rectangulaire(lignes, colonnes), dimension, metrique);
+  }
+
+  /**
+   * Constructs an empty codebook (all components set to 0) on a grid of any shape.
+   *
+   * @param topologie the shape of the grid
+   * @param dimension the number of components of each reference vector
+   * @param metrique the metric comparing the vectors
+   * @throws IllegalArgumentException if the vectors of all the nodes do not fit in one array
+   */
+  public Codebook(final Topologie topologie, final int dimension, final Metrique metrique) {
+    this.lignes = topologie.getLignes();
+    this.colonnes = topologie.getColonnes();
+    this.dimension = dimension;
+    final long taille = (long)this.lignes * this.colonnes * dimension;
+    if (dimension < 0) {
+      throw new IllegalArgumentException("dimension invalide : " + dimension);
+    }
+    if (taille > TAILLE_MAX) {
+      throw new IllegalArgumentException("codebook trop grand : " + this.lignes + " x " + this.colonnes + " noeuds de dimension " + dimension
+          + ", soit " + taille + " composantes pour " + TAILLE_MAX + " au plus dans un tableau");
+    }
+    this.poids = new double[(int)taille];
+    this.metrique = metrique;
+    this.noyau = metrique.noyau();
+    this.topologie = topologie;
+  }
+
+  /**
+   * Returns the number of rows of the grid.
+   *
+   * @return the number of rows
+   */
+  public int getLignes() {
+    return this.lignes;
+  }
+
+  /**
+   * Returns the number of columns of the grid.
+   *
+   * @return the number of columns
+   */
+  public int getColonnes() {
+    return this.colonnes;
+  }
+
+  /**
+   * Returns the shape of the grid.
+   *
+   * @return the topology
+   */
+  public Topologie getTopologie() {
+    return this.topologie;
+  }
+
+  /**
+   * Returns the number of components of each reference vector.
+   *
+   * @return the dimension
+   */
+  public int getDimension() {
+    return this.dimension;
+  }
+
+  /**
+   * Returns the metric comparing the vectors.
+   *
+   * @return the metric
+   */
+  public Metrique getMetrique() {
+    return this.metrique;
+  }
+
+  /**
+   * Returns the number of nodes of the grid.
+   *
+   * @return lignes * colonnes
+   */
+  public int getTaille() {
+    return this.lignes * this.colonnes;
+  }
+
+  /**
+   * Returns the backing array holding every reference vector.
+   * The array is shared, not copied.
+   *
+   * @return the flat array of weights
+   */
+  public double[] getPoids() {
+    return this.poids;
+  }
+
+  /**
+   * Returns the index of the node at the given coordinates.
+   *
+   * @param x the row of the node
+   * @param y the column of the node
+   * @return the node index, between 0 and getTaille() - 1
+   */
+  public int indice(final int x, final int y) {
+    return x * this.colonnes + y;
+  }
+
+  /**
+   * Copies a vector into the given node.
+   *
+   * @param noeud the node index
+   * @param valeurs the components to copy (at least dimension values)
+   */
+  public void setVecteur(final int noeud, final double[] valeurs) {
+    System.arraycopy(valeurs, 0, this.poids, noeud * this.dimension, this.dimension);
+  }
+
+  /**
+   * Returns a read-only view of the reference vector of the given node.
+   *
+   * @param noeud the node index
+   * @return a code.Weight reading its components from this codebook
+   */
+  public Weight vue(final int noeud) {
+    return Weight.vue(this.poids, noeud * this.dimension, this.dimension);
+  }
+
+  /**
+   * Computes the distance of the metric between the reference vector of a node and a data vector.
+   *
+   * @param noeud the node index
+   * @param donnee the data vector
+   * @return the distance
+   */
+  public double distance(final int noeud, final double[] donnee) {
+    return this.metrique.distance(this.ecart(noeud, donnee));
+  }
+
+  /**
+   * Computes the ecart of the metric between the reference vector of a node and a data vector:
+   * a value giving the same order as distance(), without its last step (the square root of
+   * the Euclidean distance).
+   *
+   * @param noeud the node index
+   * @param donnee the data vector
+   * @return the ecart
+   */
+  public double ecart(final int noeud, final double[] donnee) {
+    return this.noyau.ecart(this.poids, noeud * this.dimension, donnee, 0, this.dimension);
+  }
+
+  /**
+   * Computes the squared Euclidean distance between the reference vector of a node and a data vector,
+   * whatever the metric of the codebook.
+   *
+   * @param noeud the node index
+   * @param donnee the data vector
+   * @return the squared Euclidean distance
+   */
+  public double distanceCarree(final int noeud, final double[] donnee) {
+    return Metrique.EUCLIDIENNE.noyau().ecart(this.poids, noeud * this.dimension, donnee, 0, this.dimension);
+  }
+
+  /**
+   * Computes the ecart between a data vector and every node of the map.
+   * Metrique.distance converts an ecart to the distance.
+   *
+   * @param donnee the data vector
+   * @param ecarts the array receiving one ecart per node (at least getTaille() values)
+   */
+  public void distances(final double[] donnee, final double[] ecarts) {
+    final int taille = this.getTaille();
+    for (int noeud = 0; noeud < taille; ++noeud) {
+      ecarts[noeud] = this.ecart(noeud, donnee);
+    }
+  }
+
+  /**
+   * Returns the node closest to a data vector. On a tie, the first node in row-major order wins.
+   *
+   * @param donnee the data vector
+   * @return the index of the best matching unit
+   */
+  public int plusProche(final double[] donnee) {
+    final int taille = this.getTaille();
+    int meilleur = 0;
+    double min = Double.POSITIVE_INFINITY;
+    for (int noeud = 0; noeud < taille; ++noeud) {
+      final double ecart = this.ecart(noeud, donnee);
+      if (ecart < min) {
+        min = ecart;
+        meilleur = noeud;
+      }
+    }
+    return meilleur;
+  }
+
+  /**
+   * Moves every node of the square window of the given radius around (x, y) towards a data vector.
+   * Only the nodes of the window, clipped to the grid, are visited. On a hexagonal or toroidal
+   * grid the window is the set of nodes at most `rayon` steps away (see Topologie.bulle).
+   *
+   * @param x the row of the center of the window (the BMU)
+   * @param y the column of the center of the window
+   * @param rayon the radius of the window
+   * @param donnee the data vector
+   * @param alpha the learning rate
+   * @return the number of nodes moved
+   */
+  public int rapprocherVoisinage(final int x, final int y, final int rayon, final double[] donnee, final double alpha) {
+    if (!this.topologie.isRectangulaireSimple()) {
+      return this.rapprocherVoisinage(x, y, this.topologie.bulle(rayon), donnee, alpha);
+    }
+    final int xMin = Math.max(0, x - rayon);
+    final int xMax = Math.min(this.lignes - 1, x + rayon);
+    final int yMin = Math.max(0, y - rayon);
+    final int yMax = Math.min(this.colonnes - 1, y + rayon);
+    for (int i = xMin; i <= xMax; ++i) {
+      for (int k = yMin; k <= yMax; ++k) {
+        this.rapprocher(this.indice(i, k), donnee, alpha);
+      }
+    }
+    return (xMax - xMin + 1) * (yMax - yMin + 1);
+  }
+
+  /**
+   * Moves the nodes around (x, y) towards a data vector, each with the learning rate
+   * scaled by the weight the neighbourhood table gives to its offset from (x, y).
+   * Only the offsets of the table with a non-zero weight are visited, those falling outside
+   * the grid being skipped, or wrapped on a toroidal grid.
+   *
+   * @param x the row of the BMU
+   * @param y the column of the BMU
+   * @param table the weights of the neighbourhood function for the current radius, built for the topology of the codebook
+   * @param donnee the data vector
+   * @param alpha the learning rate
+   * @return the number of nodes moved
+   */
+  public int rapprocherVoisinage(final int x, final int y, final Voisinage.Table table, final double[] donnee, final double alpha) {
+    final Topologie topologie = this.topologie;
+    final int parite = topologie.parite(x);
+    final int[] dxs = table.getDecalagesX(parite);
+    final int[] dys = table.getDecalagesY(parite);
+    final double[] hs = table.getPoids(parite);
+    int nombre = 0;
+    for (int i = 0; i < hs.length; ++i) {
+      final int noeud = topologie.noeud(x + dxs[i], y + dys[i]);
+      if (noeud >= 0) {
+        this.rapprocher(noeud, donnee, alpha * hs[i]);
+        ++nombre;
+      }
+    }
+    return nombre;
+  }
+
+  /**
+   * Moves the reference vector of a node towards a data vector.
+   * Each component becomes w + alpha * (donnee - w).
+   *
+   * @param noeud the node index
+   * @param donnee the data vector
+   * @param alpha the learning rate
+   */
+  public void rapprocher(final int noeud, final double[] donnee, final double alpha) {
+    final double[] poids = this.poids;
+    final int debut = noeud * this.dimension;
+    for (int j = 0; j < this.dimension; ++j) {
+      poids[debut + j] += alpha * (donnee[j] - poids[debut + j]);
+    }
+  }
+}
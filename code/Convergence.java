@@ -0,0 +1,226 @@
+package code;
+
+import java.util.Arrays;
+
+/**
+ * Early stopping of a training on the quantization error.
+ * The training reports, for each row presented, the distance to its BMU and whether the
+ * second best node is a grid neighbour of the BMU. At the end of each epoch the mean distance
+ * (quantization error) and the share of rows whose two best nodes are not neighbours
+ * (topographic error) are recorded, and the training stops once the quantization error has not
+ * improved by more than the tolerance during patience epochs in a row.
+ * The errors are measured on the map as it is when each row is presented, so they cost no
+ * extra pass over the data.
+ *
+ * @author Fab.16
+ */
+public class Convergence {
+
+  /** Smallest relative decrease of the quantization error counted as an improvement. */
+  private final double tolerance;
+
+  /** Number of epochs without improvement before stopping. */
+  private final int patience;
+
+  /** Sum of the BMU distances of the current epoch. */
+  private double somme;
+
+  /** Number of topographic errors of the current epoch. */
+  private long erreurs;
+
+  /** Number of rows presented during the current epoch. */
+  private long nombre;
+
+  /** Best quantization error so far. */
+  private double meilleure = Double.POSITIVE_INFINITY;
+
+  /** Number of epochs since the last improvement. */
+  private int sansProgres;
+
+  /** Quantization error of each epoch. */
+  private double[] quantification = new double[16];
+
+  /** Topographic error of each epoch. */
+  private double[] topographie = new double[16];
+
+  /** Number of epochs recorded. */
+  private int nbEpoques;
+
+  /**
+   * Constructs an early stopping rule.
+   *
+   * @param tolerance the smallest relative decrease of the quantization error counted as an improvement
+   * @param patience the number of epochs without improvement before stopping, at least 1
+   */
+  public Convergence(final double tolerance, final int patience) {
+    if (tolerance < 0.0 || patience < 1) {
+      throw new IllegalArgumentException("critère d'arrêt invalide : " + tolerance + ", " + patience);
+    }
+    this.tolerance = tolerance;
+    this.patience = patience;
+  }
+
+  /**
+   * Forgets the recorded epochs, before a new training.
+   */
+  public void reinitialiser() {
+    this.somme = 0.0;
+    this.erreurs = 0;
+    this.nombre = 0;
+    this.meilleure = Double.POSITIVE_INFINITY;
+    this.sansProgres = 0;
+    this.nbEpoques = 0;
+  }
+
+  /**
+   * Records a row from the ecarts of every node to it (see Codebook.distances).
+   *
+   * @param ecarts the ecart of each node to the row, indexed like the codebook
+   * @param bmu the index of the BMU of the row
+   * @param codebook the codebook, giving the metric and the width of the grid
+   */
+  public void mesurer(final double[] ecarts, final int bmu, final Codebook codebook) {
+    this.ajouter(codebook.getMetrique().distance(ecarts[bmu]), erreurTopographique(ecarts, bmu, codebook.getTopologie()));
+  }
+
+  /**
+   * Records a row.
+   *
+   * @param distance the distance between the row and its BMU
+   * @param erreurTopographique true when the second best node is not a neighbour of the BMU
+   */
+  public void ajouter(final double distance, final boolean erreurTopographique) {
+    this.somme += distance;
+    if (erreurTopographique) {
+      ++this.erreurs;
+    }
+    ++this.nombre;
+  }
+
+  /**
+   * Records several rows at once, for a training accumulating its own sums per thread.
+   *
+   * @param sommeDistances the sum of the distances between the rows and their BMU
+   * @param erreursTopographiques the number of rows whose two best nodes are not neighbours
+   * @param nombreLignes the number of rows
+   */
+  public void ajouter(final double sommeDistances, final long erreursTopographiques, final long nombreLignes) {
+    this.somme += sommeDistances;
+    this.erreurs += erreursTopographiques;
+    this.nombre += nombreLignes;
+  }
+
+  /**
+   * Closes the current epoch and tells whether the training should stop.
+   *
+   * @return true when the quantization error has not improved during patience epochs
+   */
+  public boolean finEpoque() {
+    if (this.nombre == 0) {
+      return false;
+    }
+    final double qe = this.somme / this.nombre;
+    final double te = (double)this.erreurs / this.nombre;
+    if (this.nbEpoques == this.quantification.length) {
+      this.quantification = Arrays.copyOf(this.quantification, 2 * this.nbEpoques);
+      this.topographie = Arrays.copyOf(this.topographie, 2 * this.nbEpoques);
+    }
+    this.quantification[this.nbEpoques] = qe;
+    this.topographie[this.nbEpoques] = te;
+    ++this.nbEpoques;
+    this.somme = 0.0;
+    this.erreurs = 0;
+    this.nombre = 0;
+    if (this.nbEpoques == 1 || this.meilleure - qe > this.tolerance * this.meilleure) {
+      this.meilleure = qe;
+      this.sansProgres = 0;
+    }
+    else {
+      ++this.sansProgres;
+    }
+    return this.sansProgres >= this.patience;
+  }
+
+  /**
+   * Returns the number of epochs recorded.
+   *
+   * @return the number of epochs
+   */
+  public int getNbEpoques() {
+    return this.nbEpoques;
+  }
+
+  /**
+   * Returns the quantization error of the last epoch.
+   *
+   * @return the mean distance between the rows and their BMU, or NaN before the first epoch
+   */
+  public double getErreurQuantification() {
+    return this.nbEpoques == 0 ? Double.NaN : this.quantification[this.nbEpoques - 1];
+  }
+
+  /**
+   * Returns the topographic error of the last epoch.
+   *
+   * @return the share of rows whose two best nodes are not neighbours, or NaN before the first epoch
+   */
+  public double getErreurTopographique() {
+    return this.nbEpoques == 0 ? Double.NaN : this.topographie[this.nbEpoques - 1];
+  }
+
+  /**
+   * Returns the quantization error of every epoch.
+   *
+   * @return a copy of the errors, one per epoch
+   */
+  public double[] getHistoriqueQuantification() {
+    return Arrays.copyOf(this.quantification, this.nbEpoques);
+  }
+
+  /**
+   * Returns the topographic error of every epoch.
+   *
+   * @return a copy of the errors, one per epoch
+   */
+  public double[] getHistoriqueTopographie() {
+    return Arrays.copyOf(this.topographie, this.nbEpoques);
+  }
+
+  /**
+   * Tells whether the second best node of a row is not a grid neighbour of its BMU
+   * (see Topologie.voisins); on a tie with the BMU, the other node reaching the minimum is
+   * taken as the second best.
+   *
+   * @param distances the distance (or ecart) of each node to the row, indexed like the codebook
+   * @param bmu the index of the BMU
+   * @param topologie the shape of the grid
+   * @return true for a topographic error
+   */
+  public static boolean erreurTopographique(final double[] distances, final int bmu, final Topologie topologie) {
+    int second = -1;
+    double min = Double.POSITIVE_INFINITY;
+    for (int noeud = 0; noeud < distances.length; ++noeud) {
+      if (noeud != bmu && distances[noeud] < min) {
+        min = distances[noeud];
+        second = noeud;
+      }
+    }
+    return second >= 0 && !topologie.voisins(bmu, second);
+  }
+
+  /**
+   * Returns the first node at the smallest distance, as Codebook.plusProche does.
+   *
+   * @param distances the distance (or ecart) of each node, indexed like the codebook
+   * @return the index of the BMU
+   */
+  static int indiceMinimum(final double[] distances) {
+    int meilleur = 0;
+    for (int noeud = 1; noeud < distances.length; ++noeud) {
+      if (distances[noeud] < distances[meilleur]) {
+        meilleur = noeud;
+      }
+    }
+    return meilleur;
+  }
+}
@@ -0,0 +1,67 @@
+package code;
+
+import java.util.List;
+
+/**
+ * Read access to a data set: a number of rows of the same dimension, each with a label.
+ * The training reads the rows through this interface, so that the data can be held on the
+ * heap (code.MatriceDonnees) or in a memory-mapped file (code.DonneesBinaires).
+ *
+ * @author Fab.16
+ */
+public interface Donnees {
+
+  /**
+   * Returns the number of rows.
+   *
+   * @return the number of rows
+   */
+  int getLignes();
+
+  /**
+   * Returns the number of components of each row.
+   *
+   * @return the dimension
+   */
+  int getDimension();
+
+  /**
+   * Copies a row into the given array.
+   *
+   * @param ligne the row
+   * @param dest the destination, at least getDimension() values
+   */
+  void copierLigne(int ligne, double[] dest);
+
+  /**
+   * Returns the index in the dictionary of the label of a row.
+   *
+   * @param ligne the row
+   * @return the label index
+   */
+  int getIndiceLabel(int ligne);
+
+  /**
+   * Returns the distinct labels of the data set.
+   *
+   * @return the label dictionary
+   */
+  List<String> getDictionnaire();
+
+  /**
+   * Tells whether the rows are already normalized (unit Euclidean norm).
+   *
+   * @return true if the rows are normalized
+   */
+  boolean isNormalisees();
+
+  /**
+   * Returns the label of a row.
+   *
+   * @param ligne the row
+   * @return the label
+   */
+  default String getLabel(final int ligne) {
+    return this.getDictionnaire().get(this.getIndiceLabel(ligne));
+  }
+}
@@ -0,0 +1,460 @@
+package code;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Data set stored in a binary file and read through memory mapping.
+ * The rows are never copied onto the heap: each access reads the mapped pages, so opening
+ * a file is immediate and a data set larger than the heap can be used for training.
+ *
+ * The file is little-endian:
+ * <pre>
+ *   int    magic ("SOMD")
+ *   int    version
+ *   int    size of a value in bytes (8 for doubles, 4 for floats)
+ *   int    flags (bit 0: rows normalized)
+ *   long   number of rows
+ *   int    dimension
+ *   int    number of labels
+ *   long   position of the labels in the file
+ *   values of all the rows, row after row
+ *   int    index of the label of each row
+ *   labels, each one as its length and its UTF-8 bytes
+ * </pre>
+ * The labels come last so that a file can be written while the rows are read, the counts being
+ * set at the end (see convertir). The header and the label indices are checked when the file is
+ * opened, so that a damaged file fails there with an IOException rather than during the training.
+ *
+ * @author Fab.16
+ */
+public class DonneesBinaires implements Donnees {
+
+  /** Usual extension of the binary data files. */
+  public static final String EXTENSION = ".somd";
+
+  /** First bytes of a binary data file ("SOMD" in little-endian). */
+  private static final int MAGIC = 0x444D4F53;
+
+  /** Version of the format. */
+  private static final int VERSION = 2;
+
+  /** Size of the fields before the values. */
+  private static final int ENTETE = 40;
+
+  /** Size of the write buffer. */
+  private static final int TAILLE_TAMPON = 1 << 20;
+
+  /** Flag set when the rows are normalized. */
+  private static final int NORMALISEES = 1;
+
+  /** Maximum size of one mapping; larger files are mapped in several segments. */
+  private static final long TAILLE_SEGMENT = 1L << 30;
+
+  /** Number of rows. */
+  private final int lignes;
+
+  /** Number of components of each row. */
+  private final int dimension;
+
+  /** Whether the rows are normalized. */
+  private final boolean normalisees;
+
+  /** Distinct labels. */
+  private final List<String> dictionnaire;
+
+  /** Number of rows held by each segment of values. */
+  private final int lignesParSegment;
+
+  /** Values as doubles, one buffer per segment, or null when stored as floats. */
+  private final DoubleBuffer[] doubles;
+
+  /** Values as floats, one buffer per segment, or null when stored as doubles. */
+  private final FloatBuffer[] flottants;
+
+  /** Label index of each row. */
+  private final IntBuffer labels;
+
+  /**
+   * Maps a binary data file.
+   *
+   * @param nomFichier the name of the file
+   * @throws IOException if the file cannot be read or is not a binary data file
+   */
+  public DonneesBinaires(final String nomFichier) throws IOException {
+    try (FileChannel canal = FileChannel.open(Paths.get(nomFichier), StandardOpenOption.READ)) {
+      final ByteBuffer debut = canal.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(canal.size(), TAILLE_SEGMENT));
+      debut.order(ByteOrder.LITTLE_ENDIAN);
+      if (debut.remaining() < ENTETE || debut.getInt() != MAGIC) {
+        throw new IOException(nomFichier + " n'est pas un fichier de données binaire");
+      }
+      final int version = debut.getInt();
+      if (version != VERSION) {
+        throw new IOException("version de fichier non supportée : " + version);
+      }
+      final int taille = debut.getInt();
+      if (taille != Double.BYTES && taille != Float.BYTES) {
+        throw new IOException("taille de valeur invalide : " + taille);
+      }
+      this.normalisees = (debut.getInt() & NORMALISEES) != 0;
+      final long nbLignes = debut.getLong();
+      if (nbLignes < 0 || nbLignes > Integer.MAX_VALUE) {
+        throw new IOException(nomFichier + " : nombre de lignes invalide : " + nbLignes);
+      }
+      this.lignes = (int)nbLignes;
+      this.dimension = debut.getInt();
+      if (this.dimension <= 0) {
+        throw new IOException(nomFichier + " : dimension invalide : " + this.dimension);
+      }
+      final int nbLabels = debut.getInt();
+      if (nbLabels < 0) {
+        throw new IOException(nomFichier + " : nombre de labels invalide : " + nbLabels);
+      }
+      final long debutDictionnaire = debut.getLong();
+      final long tailleLigne = (long)this.dimension * taille;
+      final long debutLabels = ENTETE + this.lignes * tailleLigne;
+      if (debutDictionnaire < debutLabels + 4L * this.lignes || debutDictionnaire > canal.size()) {
+        throw new IOException(nomFichier + " est tronqué");
+      }
+      final ByteBuffer fin = canal.map(FileChannel.MapMode.READ_ONLY, debutDictionnaire, canal.size() - debutDictionnaire);
+      this.dictionnaire = lireDictionnaire(fin.order(ByteOrder.LITTLE_ENDIAN), nbLabels, nomFichier);
+      this.lignesParSegment = (int)Math.max(1, TAILLE_SEGMENT / Math.max(1, tailleLigne));
+      final int nbSegments = Math.max(1, (this.lignes + this.lignesParSegment - 1) / this.lignesParSegment);
+      this.doubles = taille == Double.BYTES ? new DoubleBuffer[nbSegments] : null;
+      this.flottants = taille == Float.BYTES ? new FloatBuffer[nbSegments] : null;
+      for (int s = 0; s < nbSegments; ++s) {
+        final long premiere = (long)s * this.lignesParSegment;
+        final long nombre = Math.min(this.lignesParSegment, this.lignes - premiere);
+        final ByteBuffer segment = canal.map(FileChannel.MapMode.READ_ONLY, ENTETE + premiere * tailleLigne, nombre * tailleLigne);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        if (this.doubles != null) {
+          this.doubles[s] = segment.asDoubleBuffer();
+        }
+        else {
+          this.flottants[s] = segment.asFloatBuffer();
+        }
+      }
+      final MappedByteBuffer labels = canal.map(FileChannel.MapMode.READ_ONLY, debutLabels, 4L * this.lignes);
+      labels.order(ByteOrder.LITTLE_ENDIAN);
+      this.labels = labels.asIntBuffer();
+      for (int i = 0; i < this.lignes; ++i) {
+        final int indice = this.labels.get(i);
+        if (indice < 0 || indice >= nbLabels) {
+          throw new IOException(nomFichier + " : label invalide à la ligne " + (i + 1) + " : " + indice);
+        }
+      }
+    }
+  }
+
+  @Override
+  public int getLignes() {
+    return this.lignes;
+  }
+
+  @Override
+  public int getDimension() {
+    return this.dimension;
+  }
+
+  @Override
+  public boolean isNormalisees() {
+    return this.normalisees;
+  }
+
+  @Override
+  public List<String> getDictionnaire() {
+    return this.dictionnaire;
+  }
+
+  /**
+   * Tells whether the values are stored as floats.
+   *
+   * @return true for floats, false for doubles
+   */
+  public boolean isFlottants() {
+    return this.flottants != null;
+  }
+
+  @Override
+  public void copierLigne(final int ligne, final double[] dest) {
+    final int segment = ligne / this.lignesParSegment;
+    final int debut = (ligne - segment * this.lignesParSegment) * this.dimension;
+    if (this.doubles != null) {
+      this.doubles[segment].get(debut, dest, 0, this.dimension);
+    }
+    else {
+      final FloatBuffer valeurs = this.flottants[segment];
+      for (int j = 0; j < this.dimension; ++j) {
+        dest[j] = valeurs.get(debut + j);
+      }
+    }
+  }
+
+  @Override
+  public int getIndiceLabel(final int ligne) {
+    return this.labels.get(ligne);
+  }
+
+  /**
+   * Reads the labels of the dictionary.
+   */
+  private static List<String> lireDictionnaire(final ByteBuffer tampon, final int nbLabels, final String nomFichier) throws IOException {
+    final List<String> dictionnaire = new ArrayList<String>(Math.min(nbLabels, tampon.remaining() / Integer.BYTES));
+    for (int i = 0; i < nbLabels; ++i) {
+      final int longueur = tampon.remaining() < Integer.BYTES ? -1 : tampon.getInt();
+      if (longueur < 0 || longueur > tampon.remaining()) {
+        throw new IOException(nomFichier + " est tronqué");
+      }
+      final byte[] octets = new byte[longueur];
+      tampon.get(octets);
+      dictionnaire.add(new String(octets, StandardCharsets.UTF_8));
+    }
+    return Collections.unmodifiableList(dictionnaire);
+  }
+
+  /**
+   * Writes a data set in the binary format.
+   * The file is written to a temporary name then renamed, so that a reader never sees
+   * a partial file.
+   *
+   * @param source the data set
+   * @param nomFichier the name of the file to create
+   * @param flottants true to store the values as floats, false for doubles
+   * @throws IOException if the file cannot be written
+   */
+  public static void ecrire(final Donnees source, final String nomFichier, final boolean flottants) throws IOException {
+    try (Ecriture ecriture = new Ecriture(nomFichier, source.getDimension(), flottants)) {
+      final double[] ligne = new double[source.getDimension()];
+      for (int i = 0; i < source.getLignes(); ++i) {
+        source.copierLigne(i, ligne);
+        ecriture.ligne(ligne, 0, source.getIndiceLabel(i));
+      }
+      ecriture.terminer(source.getDictionnaire(), source.isNormalisees());
+    }
+  }
+
+  /**
+   * Converts a CSV data file to the binary format, normalizing the rows, without holding the
+   * data set in memory: the rows are read block by block (see LecteurCsv.Flux), normalized and
+   * written, and the number of rows and the labels are set once the last block is written.
+   *
+   * @param csv the name of the CSV file, the last column being the label
+   * @param nomFichier the name of the file to create
+   * @param flottants true to store the values as floats, false for doubles
+   * @param memoireMax the number of bytes a block of rows may use
+   * @return the number of rows written
+   * @throws IOException if a file cannot be read or written, or the CSV file has a malformed row
+   */
+  public static long convertir(final String csv, final String nomFichier, final boolean flottants, final long memoireMax) throws IOException {
+    try (LecteurCsv.Flux flux = new LecteurCsv().ouvrir(csv, memoireMax, 0)) {
+      if (flux.lireBloc() == 0) {
+        throw new IOException(csv + " ne contient aucune ligne de données");
+      }
+      final MatriceDonnees bloc = flux.getBloc();
+      try (Ecriture ecriture = new Ecriture(nomFichier, bloc.getDimension(), flottants)) {
+        do {
+          bloc.normaliserLignes();
+          for (int i = 0; i < bloc.getLignes(); ++i) {
+            ecriture.ligne(bloc.getValeurs(), i * bloc.getDimension(), bloc.getIndiceLabel(i));
+          }
+        } while (flux.lireBloc() > 0);
+        // the dictionary of the block is the one of the whole file
+        ecriture.terminer(bloc.getDictionnaire(), true);
+        return ecriture.nbLignes;
+      }
+    }
+  }
+
+  /**
+   * Writing of a binary data file row after row, with constant memory.
+   * The values go to a temporary file after a blank header, the label indices to a second
+   * temporary file; terminer appends the indices and the labels, fills the header and renames
+   * the file. Closing it before terminer removes the temporary files.
+   */
+  private static final class Ecriture implements Closeable {
+
+    private final Path fichier;
+
+    private final Path temporaire;
+
+    private final Path temporaireLabels;
+
+    private final FileChannel canal;
+
+    private final FileChannel canalLabels;
+
+    private final ByteBuffer tampon;
+
+    private final ByteBuffer tamponLabels = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final int dimension;
+
+    private final boolean flottants;
+
+    private long nbLignes;
+
+    private boolean termine;
+
+    Ecriture(final String nomFichier, final int dimension, final boolean flottants) throws IOException {
+      this.fichier = Paths.get(nomFichier);
+      this.temporaire = this.fichier.resolveSibling(this.fichier.getFileName() + ".tmp");
+      this.temporaireLabels = this.fichier.resolveSibling(this.fichier.getFileName() + ".labels.tmp");
+      this.dimension = dimension;
+      this.flottants = flottants;
+      // a whole row always fits after a flush
+      final long tailleLigne = (long)dimension * (flottants ? Float.BYTES : Double.BYTES);
+      if (tailleLigne + 8 > Integer.MAX_VALUE) {
+        throw new IOException("lignes trop grandes : " + tailleLigne + " octets");
+      }
+      this.tampon = ByteBuffer.allocateDirect((int)Math.max(TAILLE_TAMPON, tailleLigne + 8)).order(ByteOrder.LITTLE_ENDIAN);
+      this.canal = FileChannel.open(this.temporaire, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      FileChannel canalLabels = null;
+      try {
+        canalLabels = FileChannel.open(this.temporaireLabels, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+      }
+      finally {
+        if (canalLabels == null) {
+          this.canal.close();
+          Files.deleteIfExists(this.temporaire);
+        }
+      }
+      this.canalLabels = canalLabels;
+      // the header is written by terminer
+      this.tampon.put(new byte[ENTETE]);
+    }
+
+    /**
+     * Writes a row.
+     */
+    void ligne(final double[] valeurs, final int debut, final int indiceLabel) throws IOException {
+      if (this.tampon.remaining() < this.dimension * (this.flottants ? Float.BYTES : Double.BYTES)) {
+        vider(this.canal, this.tampon);
+      }
+      for (int j = debut; j < debut + this.dimension; ++j) {
+        if (this.flottants) {
+          this.tampon.putFloat((float)valeurs[j]);
+        }
+        else {
+          this.tampon.putDouble(valeurs[j]);
+        }
+      }
+      if (this.tamponLabels.remaining() < Integer.BYTES) {
+        vider(this.canalLabels, this.tamponLabels);
+      }
+      this.tamponLabels.putInt(indiceLabel);
+      ++this.nbLignes;
+    }
+
+    /**
+     * Appends the label indices and the labels, writes the header and renames the file.
+     */
+    void terminer(final List<String> dictionnaire, final boolean normalisees) throws IOException {
+      vider(this.canal, this.tampon);
+      vider(this.canalLabels, this.tamponLabels);
+      long copies = 0;
+      final long tailleLabels = this.canalLabels.size();
+      while (copies < tailleLabels) {
+        copies += this.canalLabels.transferTo(copies, tailleLabels - copies, this.canal);
+      }
+      final long debutDictionnaire = this.canal.position();
+      for (final String label : dictionnaire) {
+        final byte[] octets = label.getBytes(StandardCharsets.UTF_8);
+        if (this.tampon.remaining() < 4 + octets.length) {
+          vider(this.canal, this.tampon);
+        }
+        this.tampon.putInt(octets.length);
+        if (this.tampon.remaining() < octets.length) {
+          // a label larger than the buffer
+          vider(this.canal, this.tampon);
+          final ByteBuffer grand = ByteBuffer.wrap(octets);
+          while (grand.hasRemaining()) {
+            this.canal.write(grand);
+          }
+        }
+        else {
+          this.tampon.put(octets);
+        }
+      }
+      vider(this.canal, this.tampon);
+      this.tampon.putInt(MAGIC);
+      this.tampon.putInt(VERSION);
+      this.tampon.putInt(this.flottants ? Float.BYTES : Double.BYTES);
+      this.tampon.putInt(normalisees ? NORMALISEES : 0);
+      this.tampon.putLong(this.nbLignes);
+      this.tampon.putInt(this.dimension);
+      this.tampon.putInt(dictionnaire.size());
+      this.tampon.putLong(debutDictionnaire);
+      this.tampon.flip();
+      long position = 0;
+      while (this.tampon.hasRemaining()) {
+        position += this.canal.write(this.tampon, position);
+      }
+      this.tampon.clear();
+      this.canal.force(true);
+      this.canal.close();
+      Files.move(this.temporaire, this.fichier, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      this.termine = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        this.canal.close();
+        this.canalLabels.close();
+      }
+      finally {
+        Files.deleteIfExists(this.temporaireLabels);
+        if (!this.termine) {
+          Files.deleteIfExists(this.temporaire);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the content of the buffer to the channel and clears it.
+   */
+  private static void vider(final FileChannel canal, final ByteBuffer tampon) throws IOException {
+    tampon.flip();
+    while (tampon.hasRemaining()) {
+      canal.write(tampon);
+    }
+    tampon.clear();
+  }
+
+  /**
+   * Converts a CSV data file to the binary format, normalizing the rows so that the training
+   * can skip both the parsing and the normalization. The file is read by blocks of at most
+   * 64 MiB and a quarter of the heap (see convertir), so it may be larger than the heap.
+   * Usage: java code.DonneesBinaires fichier.csv fichier.somd [float]
+   *
+   * @param args the CSV file, the binary file, and optionally "float" to store floats
+   * @throws IOException if a file cannot be read or written
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 2) {
+      System.out.println("usage : java code.DonneesBinaires fichier.csv fichier" + EXTENSION + " [float]");
+      return;
+    }
+    final boolean flottants = args.length > 2 && args[2].equals("float");
+    final long lignes = convertir(args[0], args[1], flottants, Math.min(1L << 26, Runtime.getRuntime().maxMemory() / 4));
+    System.out.println(lignes + " lignes écrites dans " + args[1]);
+  }
+}
@@ -0,0 +1,235 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Batch training of the SOM.
+ * Each epoch, every data vector is assigned to its best matching unit, and each node
+ * accumulates the vectors falling in its neighbourhood. The reference vector of a node is
+ * then replaced by the weighted mean of the accumulated vectors, in a single pass.
+ * The data is split into one slice per thread; each slice has its own accumulation buffers,
+ * summed once per epoch, so the threads never write to shared memory.
+ *
+ * @author Fab.16
+ */
+public class EntrainementBatch {
+
+  /** Codebook being trained. */
+  private final Codebook codebook;
+
+  /** Number of threads used for the accumulation. */
+  private final int nbThreads;
+
+  /** Early stopping rule, or null to run every epoch. */
+  private Convergence convergence;
+
+  /**
+   * Constructs a batch training on the given codebook.
+   *
+   * @param codebook the codebook to train
+   * @param nbThreads the number of threads, at least 1
+   */
+  public EntrainementBatch(final Codebook codebook, final int nbThreads) {
+    this.codebook = codebook;
+    this.nbThreads = nbThreads;
+  }
+
+  /**
+   * Sets the early stopping rule. The errors of an epoch are measured while its vectors are
+   * assigned, that is on the map of the previous epoch.
+   *
+   * @param convergence the rule, or null to run every epoch
+   */
+  public void setConvergence(final Convergence convergence) {
+    this.convergence = convergence;
+  }
+
+  /**
+   * Trains the codebook on the given data.
+   * The neighbourhood is a square window around the BMU (the nodes a few steps away on a
+   * hexagonal grid) whose radius decreases linearly from rayonInitial at the first epoch to 1
+   * at the last one.
+   *
+   * @param donnees the (normalized) data vectors
+   * @param nbEpoques the number of epochs
+   * @param rayonInitial the radius of the neighbourhood at the first epoch
+   */
+  public void entrainer(final Donnees donnees, final int nbEpoques, final int rayonInitial) {
+    this.entrainer(donnees, nbEpoques, Voisinage.bulle(rayonInitial, 1.0));
+  }
+
+  /**
+   * Trains the codebook on the given data with the given neighbourhood function.
+   * Each vector contributes to a node with the weight of the function for their grid distance;
+   * nodes whose total weight is not positive keep their vector.
+   *
+   * @param donnees the (normalized) data vectors
+   * @param nbEpoques the number of epochs
+   * @param voisinage the neighbourhood function and its radius decrease
+   */
+  public void entrainer(final Donnees donnees, final int nbEpoques, final Voisinage voisinage) {
+    final int nbTranches = Math.max(1, Math.min(this.nbThreads, donnees.getLignes()));
+    final List<Tranche> tranches = new ArrayList<Tranche>(nbTranches);
+    for (int t = 0; t < nbTranches; ++t) {
+      tranches.add(new Tranche(donnees, t * donnees.getLignes() / nbTranches, (t + 1) * donnees.getLignes() / nbTranches));
+    }
+    final ForkJoinPool pool = new ForkJoinPool(nbTranches);
+    if (this.convergence != null) {
+      this.convergence.reinitialiser();
+    }
+    try {
+      for (int epoque = 0; epoque < nbEpoques; ++epoque) {
+        final Voisinage.Table table = voisinage.table(voisinage.rayon(epoque, nbEpoques), this.codebook.getTopologie());
+        for (final Tranche tranche : tranches) {
+          tranche.table = table;
+        }
+        for (final Future<Tranche> resultat : pool.invokeAll(tranches)) {
+          resultat.get();
+        }
+        this.remplacer(tranches);
+        if (this.convergence != null) {
+          for (final Tranche tranche : tranches) {
+            this.convergence.ajouter(tranche.sommeDistances, tranche.erreursTopographiques, tranche.fin - tranche.debut);
+          }
+          if (this.convergence.finEpoque()) {
+            break;
+          }
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("entrainement interrompu", e);
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException("erreur pendant l'entrainement", e.getCause());
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Sums the buffers of every slice and replaces each reference vector by its weighted mean.
+   * Nodes that received no vector keep their current value.
+   *
+   * @param tranches the slices of the current epoch
+   */
+  private void remplacer(final List<Tranche> tranches) {
+    final Tranche total = tranches.get(0);
+    for (int t = 1; t < tranches.size(); ++t) {
+      final Tranche tranche = tranches.get(t);
+      for (int i = 0; i < total.numerateur.length; ++i) {
+        total.numerateur[i] += tranche.numerateur[i];
+      }
+      for (int i = 0; i < total.denominateur.length; ++i) {
+        total.denominateur[i] += tranche.denominateur[i];
+      }
+    }
+    final double[] poids = this.codebook.getPoids();
+    final int dimension = this.codebook.getDimension();
+    for (int noeud = 0; noeud < total.denominateur.length; ++noeud) {
+      if (total.denominateur[noeud] > 0.0) {
+        final int debut = noeud * dimension;
+        for (int j = 0; j < dimension; ++j) {
+          poids[debut + j] = total.numerateur[debut + j] / total.denominateur[noeud];
+        }
+      }
+    }
+  }
+
+  /**
+   * Slice of the data with its own accumulation buffers.
+   */
+  private final class Tranche implements Callable<Tranche> {
+
+    private final Donnees donnees;
+
+    private final int debut;
+
+    private final int fin;
+
+    /** Sum of the neighbourhood-weighted data vectors, per node and per component. */
+    private final double[] numerateur;
+
+    /** Sum of the neighbourhood weights, per node. */
+    private final double[] denominateur;
+
+    /** Weights of the neighbourhood for the current epoch. */
+    private Voisinage.Table table;
+
+    /** Row being processed. */
+    private final double[] donnee;
+
+    /** Ecart of each node to the row, only filled when the errors are measured. */
+    private final double[] distances;
+
+    /** Sum of the BMU distances of the epoch. */
+    private double sommeDistances;
+
+    /** Number of topographic errors of the epoch. */
+    private long erreursTopographiques;
+
+    Tranche(final Donnees donnees, final int debut, final int fin) {
+      this.donnees = donnees;
+      this.debut = debut;
+      this.fin = fin;
+      this.numerateur = new double[EntrainementBatch.this.codebook.getPoids().length];
+      this.denominateur = new double[EntrainementBatch.this.codebook.getTaille()];
+      this.donnee = new double[donnees.getDimension()];
+      this.distances = EntrainementBatch.this.convergence == null ? null : new double[EntrainementBatch.this.codebook.getTaille()];
+    }
+
+    @Override
+    public Tranche call() {
+      final Codebook codebook = EntrainementBatch.this.codebook;
+      final Topologie topologie = codebook.getTopologie();
+      final int colonnes = codebook.getColonnes();
+      final int dimension = codebook.getDimension();
+      Arrays.fill(this.numerateur, 0.0);
+      Arrays.fill(this.denominateur, 0.0);
+      this.sommeDistances = 0.0;
+      this.erreursTopographiques = 0;
+      for (int i = this.debut; i < this.fin; ++i) {
+        this.donnees.copierLigne(i, this.donnee);
+        final int bmu;
+        if (this.distances == null) {
+          bmu = codebook.plusProche(this.donnee);
+        }
+        else {
+          codebook.distances(this.donnee, this.distances);
+          bmu = Convergence.indiceMinimum(this.distances);
+          this.sommeDistances += codebook.getMetrique().distance(this.distances[bmu]);
+          if (Convergence.erreurTopographique(this.distances, bmu, topologie)) {
+            ++this.erreursTopographiques;
+          }
+        }
+        final int bx = bmu / colonnes;
+        final int by = bmu % colonnes;
+        final int parite = topologie.parite(bx);
+        final int[] dxs = this.table.getDecalagesX(parite);
+        final int[] dys = this.table.getDecalagesY(parite);
+        final double[] hs = this.table.getPoids(parite);
+        for (int v = 0; v < hs.length; ++v) {
+          final int noeud = topologie.noeud(bx + dxs[v], by + dys[v]);
+          if (noeud < 0) {
+            continue;
+          }
+          final double h = hs[v];
+          final int debutNoeud = noeud * dimension;
+          for (int j = 0; j < dimension; ++j) {
+            this.numerateur[debutNoeud + j] += h * this.donnee[j];
+          }
+          this.denominateur[noeud] += h;
+        }
+      }
+      return this;
+    }
+  }
+}
@@ -0,0 +1,328 @@
+package code;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Out-of-core training of the SOM on a CSV file.
+ * Each epoch re-reads the file in blocks of a fixed number of rows, normalizes each block in
+ * place, shuffles it and applies the online update of Traitement.rapprochement to every row.
+ * Only one block is held in memory at a time, so the size of the file is not limited by the heap.
+ * The memory used by the data (read buffer, block and shuffle indices) never exceeds memoireMax.
+ *
+ * @author Fab.16
+ */
+public class EntrainementFlux {
+
+  /** Name of the CSV file. */
+  private final String nomFichier;
+
+  /** Reader configured for the file. */
+  private final LecteurCsv lecteur;
+
+  /** Bytes the data buffers may use. */
+  private final long memoireMax;
+
+  /** Largest number of bytes used by the data buffers so far. */
+  private long memoireObservee;
+
+  /** Number of rows seen by the last pass over the file. */
+  private long lignesLues;
+
+  /** Early stopping rule, or null to run every epoch. */
+  private Convergence convergence;
+
+  /** Source of the order of the rows in each block. */
+  private SplittableRandom aleatoire = new SplittableRandom();
+
+  /**
+   * Constructs a streaming training over a file.
+   *
+   * @param nomFichier the name of the CSV file
+   * @param lecteur the reader, configured for the file (header, label column...)
+   * @param memoireMax the number of bytes the data buffers may use
+   */
+  public EntrainementFlux(final String nomFichier, final LecteurCsv lecteur, final long memoireMax) {
+    this.nomFichier = nomFichier;
+    this.lecteur = lecteur;
+    this.memoireMax = memoireMax;
+  }
+
+  /**
+   * Returns the bound on the memory used by the data buffers.
+   *
+   * @return the bound in bytes
+   */
+  public long getMemoireMax() {
+    return this.memoireMax;
+  }
+
+  /**
+   * Returns the largest number of bytes actually used by the data buffers so far.
+   * It only exceeds getMemoireMax() when a line is longer than the read buffer.
+   *
+   * @return the memory used in bytes
+   */
+  public long getMemoireObservee() {
+    return this.memoireObservee;
+  }
+
+  /**
+   * Returns the number of rows seen by the last pass over the file.
+   *
+   * @return the number of rows
+   */
+  public long getLignesLues() {
+    return this.lignesLues;
+  }
+
+  /**
+   * Seeds the order of the rows, so that a training on the same file can be replayed.
+   *
+   * @param graine the seed
+   */
+  public void setGraine(final long graine) {
+    this.aleatoire = new SplittableRandom(graine);
+  }
+
+  /**
+   * Sets the early stopping rule of the training.
+   *
+   * @param convergence the rule, or null to run every epoch
+   */
+  public void setConvergence(final Convergence convergence) {
+    this.convergence = convergence;
+  }
+
+  /**
+   * Computes the mean of the normalized rows in one pass over the file,
+   * as Traitement.calculeVecteurMoyen does.
+   *
+   * @return the mean vector
+   * @throws IOException if the file cannot be read
+   */
+  public double[] vecteurMoyen() throws IOException {
+    double[] somme = null;
+    long lignes = 0;
+    try (LecteurCsv.Flux flux = this.ouvrir()) {
+      while (flux.lireBloc() > 0) {
+        final MatriceDonnees bloc = flux.getBloc();
+        bloc.normaliserLignes();
+        if (somme == null) {
+          somme = new double[bloc.getDimension()];
+        }
+        final double[] valeurs = bloc.getValeurs();
+        for (int i = 0; i < bloc.getLignes() * bloc.getDimension(); ++i) {
+          somme[i % somme.length] += valeurs[i];
+        }
+        lignes += bloc.getLignes();
+        this.mesurer(flux);
+      }
+    }
+    if (somme == null) {
+      throw new IOException("aucune donnée dans le fichier " + this.nomFichier);
+    }
+    for (int j = 0; j < somme.length; ++j) {
+      somme[j] /= lignes;
+    }
+    this.lignesLues = lignes;
+    return somme;
+  }
+
+  /**
+   * Trains the codebook, reading the whole file once per epoch.
+   * The learning rate decreases linearly from alphaInitial to alphaInitial / 100 and the
+   * radius of the square neighbourhood from rayonInitial to 1.
+   *
+   * @param codebook the codebook to train
+   * @param nbEpoques the number of passes over the file
+   * @param alphaInitial the learning rate of the first epoch
+   * @param rayonInitial the radius of the first epoch
+   * @throws IOException if the file cannot be read
+   */
+  public void entrainer(final Codebook codebook, final int nbEpoques, final double alphaInitial, final int rayonInitial) throws IOException {
+    this.entrainer(codebook, nbEpoques, alphaInitial, Voisinage.bulle(rayonInitial, 1.0));
+  }
+
+  /**
+   * Trains the codebook with the given neighbourhood function, reading the whole file once per epoch.
+   * The learning rate decreases linearly from alphaInitial to alphaInitial / 100.
+   *
+   * @param codebook the codebook to train
+   * @param nbEpoques the number of passes over the file
+   * @param alphaInitial the learning rate of the first epoch
+   * @param voisinage the neighbourhood function and its radius decrease
+   * @throws IOException if the file cannot be read
+   */
+  public void entrainer(final Codebook codebook, final int nbEpoques, final double alphaInitial, final Voisinage voisinage) throws IOException {
+    this.entrainer(codebook, Planning.epoques(Planning.Type.LINEAIRE, alphaInitial, alphaInitial / 100.0, nbEpoques), voisinage);
+  }
+
+  /**
+   * Trains the codebook following a schedule, reading the whole file once per epoch.
+   * The schedule needs the number of rows: when no pass has counted them yet, vecteurMoyen()
+   * is run first. A schedule given in updates stops in the middle of its last pass, and the
+   * early stopping rule (setConvergence) may end the training before the schedule.
+   *
+   * @param codebook the codebook to train
+   * @param planning the number of epochs or updates and the learning rate decrease
+   * @param voisinage the neighbourhood function and its radius decrease
+   * @throws IOException if the file cannot be read
+   */
+  public void entrainer(final Codebook codebook, final Planning planning, final Voisinage voisinage) throws IOException {
+    if (this.lignesLues == 0) {
+      this.vecteurMoyen();
+    }
+    final int nbDonnees = (int)Math.min(Integer.MAX_VALUE, this.lignesLues);
+    final int nbEpoques = planning.nbEpoques(nbDonnees);
+    final long nbMisesAJour = planning.nbMisesAJour(nbDonnees);
+    final int colonnes = codebook.getColonnes();
+    final double[] donnee = new double[codebook.getDimension()];
+    final double[] distances = this.convergence == null ? null : new double[codebook.getTaille()];
+    if (this.convergence != null) {
+      this.convergence.reinitialiser();
+    }
+    int[] ordre = new int[0];
+    long miseAJour = 0;
+    for (int epoque = 0; epoque < nbEpoques && miseAJour < nbMisesAJour; ++epoque) {
+      final Voisinage.Table table = voisinage.table(voisinage.rayon(epoque, nbEpoques), codebook.getTopologie());
+      long vues = 0;
+      try (LecteurCsv.Flux flux = this.ouvrir()) {
+        int nombre;
+        while (miseAJour < nbMisesAJour && (nombre = flux.lireBloc()) > 0) {
+          final MatriceDonnees bloc = flux.getBloc();
+          bloc.normaliserLignes();
+          if (ordre.length < bloc.getCapacite()) {
+            ordre = new int[bloc.getCapacite()];
+          }
+          this.melanger(ordre, nombre);
+          for (int k = 0; k < nombre && miseAJour < nbMisesAJour; ++k, ++miseAJour) {
+            bloc.copierLigne(ordre[k], donnee);
+            final int bmu;
+            if (distances == null) {
+              bmu = codebook.plusProche(donnee);
+            }
+            else {
+              codebook.distances(donnee, distances);
+              bmu = Convergence.indiceMinimum(distances);
+              this.convergence.mesurer(distances, bmu, codebook);
+            }
+            codebook.rapprocherVoisinage(bmu / colonnes, bmu % colonnes, table, donnee, planning.alpha(epoque, nbEpoques, miseAJour, nbMisesAJour));
+          }
+          vues += nombre;
+          this.mesurer(flux);
+          this.memoireObservee = Math.max(this.memoireObservee, flux.getMemoire() + (long)Integer.BYTES * ordre.length);
+        }
+      }
+      if (miseAJour < nbMisesAJour) {
+        this.lignesLues = vues;
+      }
+      if (this.convergence != null && this.convergence.finEpoque()) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Assigns to each node the label of the closest row of the file, in one pass,
+   * as Traitement.distanceEuclidienneInverse does.
+   *
+   * @param codebook the trained codebook
+   * @return the label of each node, indexed like the codebook
+   * @throws IOException if the file cannot be read
+   */
+  public String[] etiqueter(final Codebook codebook) throws IOException {
+    final String[] etiquettes = new String[codebook.getTaille()];
+    final double[] meilleures = new double[codebook.getTaille()];
+    Arrays.fill(meilleures, Double.POSITIVE_INFINITY);
+    final double[] donnee = new double[codebook.getDimension()];
+    try (LecteurCsv.Flux flux = this.ouvrir()) {
+      while (flux.lireBloc() > 0) {
+        final MatriceDonnees bloc = flux.getBloc();
+        bloc.normaliserLignes();
+        for (int i = 0; i < bloc.getLignes(); ++i) {
+          bloc.copierLigne(i, donnee);
+          for (int noeud = 0; noeud < etiquettes.length; ++noeud) {
+            final double ecart = codebook.ecart(noeud, donnee);
+            if (ecart < meilleures[noeud]) {
+              meilleures[noeud] = ecart;
+              etiquettes[noeud] = bloc.getLabel(i);
+            }
+          }
+        }
+        this.mesurer(flux);
+      }
+    }
+    return etiquettes;
+  }
+
+  /**
+   * Opens the file with the memory bound, keeping room for the shuffle indices.
+   */
+  private LecteurCsv.Flux ouvrir() throws IOException {
+    return this.lecteur.ouvrir(this.nomFichier, this.memoireMax, Integer.BYTES);
+  }
+
+  /**
+   * Records the memory used by the reader.
+   */
+  private void mesurer(final LecteurCsv.Flux flux) {
+    this.memoireObservee = Math.max(this.memoireObservee, flux.getMemoire());
+  }
+
+  /**
+   * Fills the first n entries of the array with a random permutation of 0..n-1 (Fisher-Yates).
+   */
+  private void melanger(final int[] ordre, final int n) {
+    final SplittableRandom aleatoire = this.aleatoire;
+    for (int i = 0; i < n; ++i) {
+      ordre[i] = i;
+    }
+    for (int i = n - 1; i > 0; --i) {
+      final int j = aleatoire.nextInt(i + 1);
+      final int tmp = ordre[i];
+      ordre[i] = ordre[j];
+      ordre[j] = tmp;
+    }
+  }
+
+  /**
+   * Trains a map on a CSV file without loading it, and prints the labels of the nodes.
+   * Usage: java code.EntrainementFlux fichier.csv memoireMo lignes colonnes epoques [graine]
+   *
+   * @param args the file, the memory bound in MiB, the size of the grid, the number of epochs
+   *     and optionally the seed of the initial vectors and of the order of the rows
+   * @throws IOException if the file cannot be read
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 5) {
+      System.out.println("usage : java code.EntrainementFlux fichier.csv memoireMo lignes colonnes epoques [graine]");
+      return;
+    }
+    final EntrainementFlux flux = new EntrainementFlux(args[0], new LecteurCsv(), Long.parseLong(args[1]) << 20);
+    final int lignes = Integer.parseInt(args[2]);
+    final int colonnes = Integer.parseInt(args[3]);
+    final double[] moyenne = flux.vecteurMoyen();
+    final Codebook codebook = new Codebook(lignes, colonnes, moyenne.length);
+    final SplittableRandom aleatoire = args.length > 5 ? new SplittableRandom(Long.parseLong(args[5])) : new SplittableRandom();
+    flux.setGraine(aleatoire.nextLong());
+    final double[] vecteur = new double[moyenne.length];
+    for (int noeud = 0; noeud < codebook.getTaille(); ++noeud) {
+      for (int j = 0; j < vecteur.length; ++j) {
+        vecteur[j] = moyenne[j] + (aleatoire.nextDouble() - 0.5);
+      }
+      codebook.setVecteur(noeud, vecteur);
+    }
+    flux.entrainer(codebook, Integer.parseInt(args[4]), 0.7, Math.max(1, Math.max(lignes, colonnes) / 2));
+    final String[] etiquettes = flux.etiqueter(codebook);
+    for (int x = 0; x < lignes; ++x) {
+      for (int y = 0; y < colonnes; ++y) {
+        System.out.print("[" + etiquettes[codebook.indice(x, y)] + "] \t");
+      }
+      System.out.print("\n");
+    }
+    System.out.println(flux.getLignesLues() + " lignes, mémoire des données : " + flux.getMemoireObservee()
+        + " octets (limite " + flux.getMemoireMax() + ")");
+  }
+}
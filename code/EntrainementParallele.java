@@ -0,0 +1,309 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Parallel online training of the SOM, without locks (Hogwild).
+ * The data is split into one slice per thread. During an epoch each thread presents the rows
+ * of its slice in a random order, searches their BMU and moves the neighbourhood towards them
+ * in the shared codebook, exactly as Traitement.rapprochement does, while the other threads do
+ * the same. The neighbourhood of a BMU is small compared to a large map, so two threads rarely
+ * update the same node at the same time, and when they do one update is partly lost, which the
+ * online training tolerates. The threads only wait for each other at the end of each epoch.
+ *
+ * With striped locks, the rows of the grid are grouped in bands of `hauteurBande` rows, each
+ * with its own lock; an update holds the locks of the bands its neighbourhood covers, taken in
+ * increasing order. No update is lost, at the cost of some contention; the order of the updates
+ * between threads, hence the result, still depends on the scheduling.
+ *
+ * Each slice draws its order from its own stream, split from the seed in the order of the
+ * slices, so the threads share no generator and the rows each thread presents are the same for
+ * a given seed and number of threads. With a single thread the result is bit-reproducible.
+ *
+ * @author Fab.16
+ */
+public class EntrainementParallele {
+
+  /** Codebook being trained. */
+  private final Codebook codebook;
+
+  /** Number of threads. */
+  private final int nbThreads;
+
+  /** Lock of each band of rows of the grid, or null without locks. */
+  private ReentrantLock[] verrous;
+
+  /** Number of rows of the grid per band. */
+  private int hauteurBande;
+
+  /** Early stopping rule, or null to run every epoch. */
+  private Convergence convergence;
+
+  /** Seed of the order in which each thread presents its rows. */
+  private long graine;
+
+  /**
+   * Constructs a parallel online training on the given codebook.
+   *
+   * @param codebook the codebook to train
+   * @param nbThreads the number of threads, at least 1
+   */
+  public EntrainementParallele(final Codebook codebook, final int nbThreads) {
+    if (nbThreads < 1) {
+      throw new IllegalArgumentException("nombre de threads invalide : " + nbThreads);
+    }
+    this.codebook = codebook;
+    this.nbThreads = nbThreads;
+  }
+
+  /**
+   * Protects the updates with one lock per band of rows of the grid.
+   *
+   * @param hauteurBande the number of rows of the grid per band, at least 1; 0 to remove the locks
+   */
+  public void setVerrous(final int hauteurBande) {
+    if (hauteurBande < 0) {
+      throw new IllegalArgumentException("hauteur de bande invalide : " + hauteurBande);
+    }
+    this.hauteurBande = hauteurBande;
+    if (hauteurBande == 0) {
+      this.verrous = null;
+      return;
+    }
+    this.verrous = new ReentrantLock[(this.codebook.getLignes() + hauteurBande - 1) / hauteurBande];
+    for (int i = 0; i < this.verrous.length; ++i) {
+      this.verrous[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Sets the early stopping rule.
+   *
+   * @param convergence the rule, or null to run every epoch
+   */
+  public void setConvergence(final Convergence convergence) {
+    this.convergence = convergence;
+  }
+
+  /**
+   * Sets the seed of the order in which the rows are presented.
+   *
+   * @param graine the seed
+   */
+  public void setGraine(final long graine) {
+    this.graine = graine;
+  }
+
+  /**
+   * Trains the codebook on the given data.
+   * The number of epochs and the learning rate follow the schedule; the progress of the
+   * updates is estimated as if the threads advanced at the same pace. Without a neighbourhood
+   * function, the square window of the schedule is used (Planning.rayon).
+   *
+   * @param donnees the (normalized) data vectors
+   * @param planning the number of epochs or updates and the learning rate decrease
+   * @param voisinage the neighbourhood function and its radius decrease, or null
+   */
+  public void entrainer(final Donnees donnees, final Planning planning, final Voisinage voisinage) {
+    final int nbDonnees = donnees.getLignes();
+    final int nbEpoques = planning.nbEpoques(nbDonnees);
+    final long nbMisesAJour = planning.nbMisesAJour(nbDonnees);
+    final int nbTranches = Math.max(1, Math.min(this.nbThreads, nbDonnees));
+    final SplittableRandom aleatoire = new SplittableRandom(this.graine);
+    final List<Tranche> tranches = new ArrayList<Tranche>(nbTranches);
+    for (int t = 0; t < nbTranches; ++t) {
+      tranches.add(new Tranche(donnees, t * nbDonnees / nbTranches, (t + 1) * nbDonnees / nbTranches, t, nbTranches, aleatoire.split()));
+    }
+    if (this.convergence != null) {
+      this.convergence.reinitialiser();
+    }
+    final ForkJoinPool pool = new ForkJoinPool(nbTranches);
+    try {
+      for (int epoque = 0; epoque < nbEpoques && (long)epoque * nbDonnees < nbMisesAJour; ++epoque) {
+        final Voisinage.Table table = voisinage == null ? null : voisinage.table(voisinage.rayon(epoque, nbEpoques), this.codebook.getTopologie());
+        final long restantes = Math.min(nbDonnees, nbMisesAJour - (long)epoque * nbDonnees);
+        for (int t = 0; t < nbTranches; ++t) {
+          final Tranche tranche = tranches.get(t);
+          tranche.quota = (int)Math.min(tranche.ordre.length, (t + 1) * restantes / nbTranches - t * restantes / nbTranches);
+          tranche.epoque = epoque;
+          tranche.nbEpoques = nbEpoques;
+          tranche.planning = planning;
+          tranche.nbMisesAJour = nbMisesAJour;
+          tranche.debutEpoque = (long)epoque * nbDonnees;
+          tranche.table = table;
+          tranche.rayon = planning.rayon(epoque, nbEpoques);
+        }
+        for (final Future<Tranche> resultat : pool.invokeAll(tranches)) {
+          resultat.get();
+        }
+        if (this.convergence != null) {
+          for (final Tranche tranche : tranches) {
+            this.convergence.ajouter(tranche.sommeDistances, tranche.erreursTopographiques, tranche.presentees);
+          }
+          if (this.convergence.finEpoque()) {
+            break;
+          }
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("entrainement interrompu", e);
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException("erreur pendant l'entrainement", e.getCause());
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Slice of the data presented by one thread.
+   */
+  private final class Tranche implements Callable<Tranche> {
+
+    private final Donnees donnees;
+
+    /** Rank of the slice. */
+    private final int rang;
+
+    /** Number of slices, used to estimate the progress of all the threads. */
+    private final int nbTranches;
+
+    /** Order of the rows of the slice. */
+    private final int[] ordre;
+
+    private final SplittableRandom aleatoire;
+
+    /** Row being processed. */
+    private final double[] donnee;
+
+    /** Ecart of each node to the row, only filled when the errors are measured. */
+    private final double[] distances;
+
+    private int epoque;
+
+    private int nbEpoques;
+
+    private Planning planning;
+
+    private long nbMisesAJour;
+
+    /** Number of rows of the slice to present during the epoch. */
+    private int quota;
+
+    /** Number of updates done by all the threads before the epoch. */
+    private long debutEpoque;
+
+    /** Weights of the neighbourhood for the current epoch, or null for the square window. */
+    private Voisinage.Table table;
+
+    /** Radius of the square window for the current epoch. */
+    private int rayon;
+
+    /** Sum of the BMU distances of the epoch. */
+    private double sommeDistances;
+
+    /** Number of topographic errors of the epoch. */
+    private long erreursTopographiques;
+
+    /** Number of rows presented during the epoch. */
+    private long presentees;
+
+    Tranche(final Donnees donnees, final int debut, final int fin, final int rang, final int nbTranches, final SplittableRandom aleatoire) {
+      this.donnees = donnees;
+      this.rang = rang;
+      this.nbTranches = nbTranches;
+      this.aleatoire = aleatoire;
+      this.ordre = new int[fin - debut];
+      for (int i = 0; i < this.ordre.length; ++i) {
+        this.ordre[i] = debut + i;
+      }
+      this.donnee = new double[donnees.getDimension()];
+      this.distances = EntrainementParallele.this.convergence == null ? null : new double[EntrainementParallele.this.codebook.getTaille()];
+    }
+
+    @Override
+    public Tranche call() {
+      final Codebook codebook = EntrainementParallele.this.codebook;
+      final int colonnes = codebook.getColonnes();
+      for (int i = this.ordre.length - 1; i > 0; --i) {
+        final int j = this.aleatoire.nextInt(i + 1);
+        final int tmp = this.ordre[i];
+        this.ordre[i] = this.ordre[j];
+        this.ordre[j] = tmp;
+      }
+      this.sommeDistances = 0.0;
+      this.erreursTopographiques = 0;
+      this.presentees = 0;
+      for (int k = 0; k < this.quota; ++k) {
+        final long miseAJour = Math.min(this.nbMisesAJour - 1, this.debutEpoque + (long)k * this.nbTranches + this.rang);
+        this.donnees.copierLigne(this.ordre[k], this.donnee);
+        final int bmu;
+        if (this.distances == null) {
+          bmu = codebook.plusProche(this.donnee);
+        }
+        else {
+          codebook.distances(this.donnee, this.distances);
+          bmu = Convergence.indiceMinimum(this.distances);
+          this.sommeDistances += codebook.getMetrique().distance(this.distances[bmu]);
+          if (Convergence.erreurTopographique(this.distances, bmu, codebook.getTopologie())) {
+            ++this.erreursTopographiques;
+          }
+        }
+        ++this.presentees;
+        this.rapprocher(codebook, bmu / colonnes, bmu % colonnes, this.planning.alpha(this.epoque, this.nbEpoques, miseAJour, this.nbMisesAJour));
+      }
+      return this;
+    }
+
+    /**
+     * Moves the neighbourhood of (x, y) towards the current row, holding the locks of the
+     * bands it covers when the updates are protected.
+     */
+    private void rapprocher(final Codebook codebook, final int x, final int y, final double alpha) {
+      final ReentrantLock[] verrous = EntrainementParallele.this.verrous;
+      if (verrous == null) {
+        this.appliquer(codebook, x, y, alpha);
+        return;
+      }
+      final int portee = this.table == null ? this.rayon : this.table.getPortee();
+      final int hauteur = EntrainementParallele.this.hauteurBande;
+      int premiere = Math.max(0, x - portee) / hauteur;
+      int derniere = Math.min(codebook.getLignes() - 1, x + portee) / hauteur;
+      if (codebook.getTopologie().isTorique() && (x - portee < 0 || x + portee >= codebook.getLignes())) {
+        // the neighbourhood wraps to the other edge: take every band, still in increasing order
+        premiere = 0;
+        derniere = verrous.length - 1;
+      }
+      for (int b = premiere; b <= derniere; ++b) {
+        verrous[b].lock();
+      }
+      try {
+        this.appliquer(codebook, x, y, alpha);
+      }
+      finally {
+        for (int b = derniere; b >= premiere; --b) {
+          verrous[b].unlock();
+        }
+      }
+    }
+
+    private void appliquer(final Codebook codebook, final int x, final int y, final double alpha) {
+      if (this.table == null) {
+        codebook.rapprocherVoisinage(x, y, this.rayon, this.donnee, alpha);
+      }
+      else {
+        codebook.rapprocherVoisinage(x, y, this.table, this.donnee, alpha);
+      }
+    }
+  }
+}
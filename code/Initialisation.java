@@ -0,0 +1,304 @@
+package code;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Initial reference vectors of the map computed from the data, so that the training starts
+ * from a map already spread along the data instead of a random box around the mean.
+ * The mean and the covariance of the rows are accumulated in a single pass (Welford), without
+ * holding the rows, and give the two first principal components by power iteration.
+ *
+ * The linear initialisation places the nodes on a regular grid of the plane of the two
+ * components, the longer side of the map along the first one, spanning one standard deviation
+ * on each side of the mean. The sample initialisation draws the nodes among the rows with the
+ * k-means++ rule (each row is drawn with a probability proportional to its ecart to the nodes
+ * already drawn), on a sample of at most ECHANTILLON rows per node and ECHANTILLON_MAX rows in
+ * all; above NOEUDS_KMEANS nodes it takes the rows of a uniform sample instead. It then orders
+ * them on the grid by their coordinates on the two components so that close nodes hold close
+ * vectors.
+ *
+ * @author Fab.16
+ */
+public class Initialisation {
+
+  /** Largest number of rows sampled per node by the sample initialisation. */
+  private static final int ECHANTILLON = 20;
+
+  /** Largest number of rows sampled for the k-means++ draws, whatever the size of the map. */
+  private static final int ECHANTILLON_MAX = 16384;
+
+  /** Largest number of nodes drawn with the k-means++ rule; larger maps take a uniform sample. */
+  private static final int NOEUDS_KMEANS = 2048;
+
+  /** Largest number of power iterations per component. */
+  private static final int ITERATIONS = 200;
+
+  /** Data set the vectors are drawn from. */
+  private final Donnees donnees;
+
+  /** Mean of the rows. */
+  private final double[] moyenne;
+
+  /** Two first principal components, as unit vectors. */
+  private final double[][] composantes = new double[2][];
+
+  /** Variance of the rows along each component. */
+  private final double[] valeursPropres = new double[2];
+
+  /**
+   * Computes the mean, the covariance and the two first principal components of a data set.
+   *
+   * @param donnees the (normalized) data vectors, at least one row
+   */
+  public Initialisation(final Donnees donnees) {
+    if (donnees.getLignes() == 0) {
+      throw new IllegalArgumentException("aucune donnée pour l'initialisation");
+    }
+    this.donnees = donnees;
+    final int dimension = donnees.getDimension();
+    this.moyenne = new double[dimension];
+    final double[] covariance = new double[dimension * dimension];
+    final double[] ligne = new double[dimension];
+    final double[] ecart = new double[dimension];
+    for (int n = 1; n <= donnees.getLignes(); ++n) {
+      donnees.copierLigne(n - 1, ligne);
+      for (int i = 0; i < dimension; ++i) {
+        ecart[i] = ligne[i] - this.moyenne[i];
+        this.moyenne[i] += ecart[i] / n;
+      }
+      for (int i = 0; i < dimension; ++i) {
+        for (int j = 0; j < dimension; ++j) {
+          covariance[i * dimension + j] += ecart[i] * (ligne[j] - this.moyenne[j]);
+        }
+      }
+    }
+    for (int i = 0; i < covariance.length; ++i) {
+      covariance[i] /= donnees.getLignes();
+    }
+    for (int c = 0; c < 2; ++c) {
+      this.composantes[c] = new double[dimension];
+      this.valeursPropres[c] = composante(covariance, dimension, this.composantes[c]);
+      // deflation, so that the next iteration finds the next component
+      for (int i = 0; i < dimension; ++i) {
+        for (int j = 0; j < dimension; ++j) {
+          covariance[i * dimension + j] -= this.valeursPropres[c] * this.composantes[c][i] * this.composantes[c][j];
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the mean of the rows.
+   *
+   * @return the mean vector
+   */
+  public double[] getMoyenne() {
+    return this.moyenne.clone();
+  }
+
+  /**
+   * Returns one of the two first principal components.
+   *
+   * @param rang 0 for the first component, 1 for the second
+   * @return the unit vector of the component
+   */
+  public double[] getComposante(final int rang) {
+    return this.composantes[rang].clone();
+  }
+
+  /**
+   * Returns the variance of the rows along one of the two first principal components.
+   *
+   * @param rang 0 for the first component, 1 for the second
+   * @return the eigenvalue of the covariance
+   */
+  public double getValeurPropre(final int rang) {
+    return this.valeursPropres[rang];
+  }
+
+  /**
+   * Computes the linear initialisation of a grid.
+   *
+   * @param lignes the number of rows of the grid
+   * @param colonnes the number of columns of the grid
+   * @return the vectors of the nodes, node x * colonnes + y at offset (x * colonnes + y) * dimension
+   */
+  public double[] lineaire(final int lignes, final int colonnes) {
+    final int dimension = this.moyenne.length;
+    final double[] poids = new double[lignes * colonnes * dimension];
+    final double etendue1 = Math.sqrt(this.valeursPropres[0]);
+    final double etendue2 = Math.sqrt(this.valeursPropres[1]);
+    for (int x = 0; x < lignes; ++x) {
+      for (int y = 0; y < colonnes; ++y) {
+        final double u = position(x, lignes);
+        final double v = position(y, colonnes);
+        // the longer side of the grid follows the first component
+        final double a = lignes >= colonnes ? u : v;
+        final double b = lignes >= colonnes ? v : u;
+        final int debut = (x * colonnes + y) * dimension;
+        for (int j = 0; j < dimension; ++j) {
+          poids[debut + j] = this.moyenne[j] + a * etendue1 * this.composantes[0][j] + b * etendue2 * this.composantes[1][j];
+        }
+      }
+    }
+    return poids;
+  }
+
+  /**
+   * Computes the sample initialisation of a grid.
+   * The k-means++ draws compare each sampled row with each node, that is at most
+   * NOEUDS_KMEANS * ECHANTILLON_MAX ecarts (about 3.4e7) of the dimension, whatever the size of
+   * the map and of the data set. Above NOEUDS_KMEANS nodes, where that product would grow with
+   * the square of the map (2e11 ecarts for 1e5 nodes), the nodes are the rows of a uniform sample,
+   * which only reads one row per node.
+   *
+   * @param lignes the number of rows of the grid
+   * @param colonnes the number of columns of the grid
+   * @param metrique the metric giving the ecart of the k-means++ rule
+   * @param aleatoire the generator of the sample and of the draws
+   * @return the vectors of the nodes, node x * colonnes + y at offset (x * colonnes + y) * dimension
+   */
+  public double[] echantillons(final int lignes, final int colonnes, final Metrique metrique, final SplittableRandom aleatoire) {
+    final int dimension = this.moyenne.length;
+    final int taille = lignes * colonnes;
+    final int n = this.donnees.getLignes();
+    final boolean kmeans = taille <= NOEUDS_KMEANS;
+    // selection sampling: one ordered pass over the rows
+    final int m = kmeans ? (int)Math.min(n, Math.min((long)taille * ECHANTILLON, ECHANTILLON_MAX)) : Math.min(n, taille);
+    final double[] echantillon = new double[m * dimension];
+    final double[] ligne = new double[dimension];
+    int pris = 0;
+    for (int i = 0; i < n && pris < m; ++i) {
+      if (aleatoire.nextInt(n - i) < m - pris) {
+        this.donnees.copierLigne(i, ligne);
+        System.arraycopy(ligne, 0, echantillon, pris * dimension, dimension);
+        ++pris;
+      }
+    }
+    final double[] centres = new double[taille * dimension];
+    if (!kmeans) {
+      // uniform sample: one row per node, some repeated when the rows are fewer than the nodes
+      for (int c = 0; c < taille; ++c) {
+        System.arraycopy(echantillon, (c < m ? c : aleatoire.nextInt(m)) * dimension, centres, c * dimension, dimension);
+      }
+      return this.ordonner(centres, lignes, colonnes);
+    }
+    // k-means++ draws
+    final Metrique.Noyau noyau = metrique.noyau();
+    final double[] ecarts = new double[m];
+    Arrays.fill(ecarts, Double.POSITIVE_INFINITY);
+    int choisi = aleatoire.nextInt(m);
+    for (int c = 0; c < taille; ++c) {
+      System.arraycopy(echantillon, choisi * dimension, centres, c * dimension, dimension);
+      double total = 0.0;
+      for (int i = 0; i < m; ++i) {
+        ecarts[i] = Math.min(ecarts[i], noyau.ecart(echantillon, i * dimension, centres, c * dimension, dimension));
+        total += ecarts[i];
+      }
+      if (total > 0.0) {
+        double tirage = aleatoire.nextDouble() * total;
+        choisi = m - 1;
+        for (int i = 0; i < m; ++i) {
+          tirage -= ecarts[i];
+          if (tirage < 0.0) {
+            choisi = i;
+            break;
+          }
+        }
+      }
+      else {
+        // fewer distinct rows than nodes: repeat some of them
+        choisi = aleatoire.nextInt(m);
+      }
+    }
+    return this.ordonner(centres, lignes, colonnes);
+  }
+
+  /**
+   * Places unordered vectors on the grid: sorted on the first component along the longer side
+   * of the grid, then on the second component within each line across it.
+   */
+  private double[] ordonner(final double[] centres, final int lignes, final int colonnes) {
+    final int dimension = this.moyenne.length;
+    final int taille = lignes * colonnes;
+    final double[][] coordonnees = new double[2][taille];
+    final Integer[] ordre = new Integer[taille];
+    for (int c = 0; c < taille; ++c) {
+      ordre[c] = c;
+      for (int k = 0; k < 2; ++k) {
+        double produit = 0.0;
+        for (int j = 0; j < dimension; ++j) {
+          produit += (centres[c * dimension + j] - this.moyenne[j]) * this.composantes[k][j];
+        }
+        coordonnees[k][c] = produit;
+      }
+    }
+    final int longueur = Math.max(lignes, colonnes);
+    final int largeur = Math.min(lignes, colonnes);
+    Arrays.sort(ordre, (a, b) -> Double.compare(coordonnees[0][a], coordonnees[0][b]));
+    for (int i = 0; i < longueur; ++i) {
+      Arrays.sort(ordre, i * largeur, (i + 1) * largeur, (a, b) -> Double.compare(coordonnees[1][a], coordonnees[1][b]));
+    }
+    final double[] poids = new double[taille * dimension];
+    for (int i = 0; i < longueur; ++i) {
+      for (int k = 0; k < largeur; ++k) {
+        final int noeud = lignes >= colonnes ? i * colonnes + k : k * colonnes + i;
+        System.arraycopy(centres, ordre[i * largeur + k] * dimension, poids, noeud * dimension, dimension);
+      }
+    }
+    return poids;
+  }
+
+  /**
+   * Position of an index of a side of the grid, from -1 to 1.
+   */
+  private static double position(final int i, final int n) {
+    return n <= 1 ? 0.0 : 2.0 * i / (n - 1) - 1.0;
+  }
+
+  /**
+   * Finds the dominant eigenvector of a covariance matrix by power iteration.
+   *
+   * @param covariance the symmetric matrix, row-major
+   * @param dimension its size
+   * @param vecteur receives the unit eigenvector (a unit vector of the first axis if the matrix is null)
+   * @return the eigenvalue
+   */
+  private static double composante(final double[] covariance, final int dimension, final double[] vecteur) {
+    // fixed, non-degenerate start so that the result does not depend on a seed
+    for (int i = 0; i < dimension; ++i) {
+      vecteur[i] = 1.0 + 0.01 * i;
+    }
+    final double[] produit = new double[dimension];
+    double valeur = 0.0;
+    for (int t = 0; t < ITERATIONS; ++t) {
+      double norme = 0.0;
+      for (int i = 0; i < dimension; ++i) {
+        double somme = 0.0;
+        for (int j = 0; j < dimension; ++j) {
+          somme += covariance[i * dimension + j] * vecteur[j];
+        }
+        produit[i] = somme;
+        norme += somme * somme;
+      }
+      norme = Math.sqrt(norme);
+      if (norme == 0.0) {
+        Arrays.fill(vecteur, 0.0);
+        vecteur[0] = 1.0;
+        return 0.0;
+      }
+      double changement = 0.0;
+      for (int i = 0; i < dimension; ++i) {
+        final double v = produit[i] / norme;
+        changement = Math.max(changement, Math.abs(v - vecteur[i]));
+        vecteur[i] = v;
+      }
+      valeur = norme;
+      if (changement < 1e-12) {
+        break;
+      }
+    }
+    return valeur;
+  }
+}
@@ -11,8 +11,8 @@ public class Lancement {
     System.out.println("Lecture des données du fichier...");
     //t.lectureIntervale(t.getDatas());
 
-    System.out.println("Lecture aléatoire des données du fichier...");
-    t.lectureIntervaleAleatoire(t.getDatas());
+    //System.out.println("Lecture aléatoire des données du fichier...");
+    //t.lectureIntervaleAleatoire(t.getDatas());
 
     System.out.println("\nLecture des données normalisées...");
     //t.lectureIntervale(t.getNormeDatas());
@@ -30,10 +30,20 @@ public class Lancement {
 
     t.genereMatrice();
 
-    System.out.println("Veuillez saisir votre mode de lecture : 0 pour normal, 1 pour aléatoire");
+    System.out.println("Veuillez saisir votre mode de lecture : 0 pour normal, 1 pour aléatoire, 2 pour batch, 3 pour parallèle");
     int aleatoire = Integer.parseInt(sc.nextLine());
 
-    t.rapprochement(aleatoire);
+    if (aleatoire == 2) {
+      t.setNbThreads(Runtime.getRuntime().availableProcessors());
+      t.rapprochementBatch(50);
+    }
+    else if (aleatoire == 3) {
+      t.setNbThreads(Runtime.getRuntime().availableProcessors());
+      t.rapprochementParallele(0);
+    }
+    else {
+      t.rapprochement(aleatoire);
+    }
     //t.afficheMatrice(t.getMatrice());
     System.out.println("Rapprochement terminé.\n");
     //t.afficherNoeud();
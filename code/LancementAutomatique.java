@@ -0,0 +1,594 @@
+package code;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless counterpart of code.Lancement: the trainings are described by a properties file
+ * and by --cle=valeur arguments instead of questions on the standard input, several of them
+ * run at the same time in one JVM, and a JSON summary of the timings and errors of each one is
+ * written at the end. Each data file is read and normalized once, then shared by the trainings
+ * that use it, which only read it.
+ *
+ * Keys (a key prefixed by the name of a training, as in "grande.epoques", applies to that
+ * training only; "{tache}" in a value is replaced by the name of the training):
+ *   taches          names of the trainings, separated by commas (one training "carte" by default)
+ *   paralleles      number of trainings run at the same time (number of processors by default)
+ *   fichier         CSV or DonneesBinaires.EXTENSION data file
+ *   lignes colonnes size of the map (the legacy size derived from the data by default)
+ *   maille torique  lattice (RECTANGULAIRE, HEXAGONALE) and wrapping of the map
+ *   metrique        EUCLIDIENNE, MANHATTAN or COSINUS
+ *   initialisation  ALEATOIRE (between borneSupp and borneInf around the mean, 0.5 by default), PCA or ECHANTILLONS
+ *   mode            0 ordered, 1 random order, 2 batch, 3 parallel, as in code.Lancement (1 by default)
+ *   planning        HISTORIQUE (default), LINEAIRE, EXPONENTIELLE or INVERSE, with alphaInitial, alphaFinal, epoques
+ *   voisinage       neighbourhood function (Voisinage.Forme), with rayonInitial, rayonFinal, decroissance
+ *   threads bande   threads of the BMU search and of modes 2 and 3, rows per lock of mode 3
+ *   egalite graine  tie policy (ALEATOIRE by default, or PREMIER) and seed of the random choices
+ *   sortie          checkpoint file written at the end of the training (see Traitement.sauvegarder)
+ *   telemetrie      true to publish the epochs of the training as an MBean (see code.Telemetrie)
+ *   resume          file of the JSON summary (standard output by default)
+ *
+ * @author Fab.16
+ */
+public class LancementAutomatique {
+
+  /** Name of the training when none is given. */
+  private static final String TACHE_PAR_DEFAUT = "carte";
+
+  /** Settings of the trainings. */
+  private final Properties proprietes;
+
+  /**
+   * Constructs a runner.
+   *
+   * @param proprietes the settings of the trainings
+   */
+  public LancementAutomatique(final Properties proprietes) {
+    this.proprietes = proprietes;
+  }
+
+  /**
+   * Returns the names of the trainings.
+   *
+   * @return the names, in the order given
+   */
+  public List<String> getTaches() {
+    final ArrayList<String> taches = new ArrayList<String>();
+    for (final String tache : this.proprietes.getProperty("taches", TACHE_PAR_DEFAUT).split(",")) {
+      if (!tache.isBlank() && !taches.contains(tache.trim())) {
+        taches.add(tache.trim());
+      }
+    }
+    return taches;
+  }
+
+  /**
+   * Runs every training, several at the same time, and returns their summary.
+   * A training that fails is reported in the summary and does not stop the others.
+   *
+   * @return the summary
+   */
+  public Resume executer() {
+    final long debut = System.nanoTime();
+    final List<String> taches = this.getTaches();
+    final Resume resume = new Resume();
+    // each file once, shared by the trainings
+    final Map<String, Donnees> donnees = new LinkedHashMap<String, Donnees>();
+    for (final String tache : taches) {
+      final String fichier = this.valeur(tache, "fichier", null);
+      if (fichier == null || donnees.containsKey(fichier)) {
+        continue;
+      }
+      final long debutLecture = System.nanoTime();
+      try {
+        final Donnees lues = fichier.endsWith(DonneesBinaires.EXTENSION) ? new DonneesBinaires(fichier) : new LecteurCsv().lire(fichier);
+        final Donnees normees = lues.isNormalisees() ? lues : MatriceDonnees.normaliser(lues);
+        donnees.put(fichier, normees);
+        resume.fichiers.append(resume.fichiers.length() == 0 ? "" : ",").append("{\"fichier\":").append(chaine(fichier))
+            .append(",\"lignes\":").append(normees.getLignes()).append(",\"dimension\":").append(normees.getDimension())
+            .append(",\"lectureMs\":").append(millisecondes(System.nanoTime() - debutLecture)).append('}');
+      }
+      catch (IOException | RuntimeException e) {
+        donnees.put(fichier, null);
+        resume.fichiers.append(resume.fichiers.length() == 0 ? "" : ",").append("{\"fichier\":").append(chaine(fichier))
+            .append(",\"erreur\":").append(chaine(message(e))).append('}');
+      }
+    }
+    final int paralleles = Math.max(1, Math.min(taches.size(),
+        entier("paralleles", this.proprietes.getProperty("paralleles"), Runtime.getRuntime().availableProcessors())));
+    final ExecutorService executeur = Executors.newFixedThreadPool(paralleles);
+    final List<Future<Resultat>> futurs = new ArrayList<Future<Resultat>>();
+    for (final String tache : taches) {
+      futurs.add(executeur.submit(() -> this.executer(tache, donnees)));
+    }
+    try {
+      for (int i = 0; i < taches.size(); ++i) {
+        resume.resultats.add(futurs.get(i).get());
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("exécution interrompue", e);
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException("erreur pendant l'exécution", e.getCause());
+    }
+    finally {
+      executeur.shutdown();
+    }
+    resume.paralleles = paralleles;
+    resume.duree = System.nanoTime() - debut;
+    return resume;
+  }
+
+  /**
+   * Runs one training.
+   */
+  private Resultat executer(final String tache, final Map<String, Donnees> donnees) {
+    final Resultat resultat = new Resultat(tache);
+    Telemetrie telemetrie = null;
+    long debut = System.nanoTime();
+    try {
+      final String fichier = this.valeur(tache, "fichier", null);
+      if (fichier == null) {
+        throw new IllegalArgumentException("fichier de données absent");
+      }
+      final Donnees normees = donnees.get(fichier);
+      if (normees == null) {
+        throw new IllegalArgumentException("fichier de données illisible : " + fichier);
+      }
+      final Traitement traitement = new Traitement(normees);
+      final String graine = this.valeur(tache, "graine", null);
+      if (graine != null) {
+        traitement.setGraine(entierLong("graine", graine));
+      }
+      resultat.graine = traitement.getGraine();
+      traitement.setMetrique(enumeration(Metrique.class, "metrique", this.valeur(tache, "metrique", "EUCLIDIENNE")));
+      final String lignes = this.valeur(tache, "lignes", null);
+      final String colonnes = this.valeur(tache, "colonnes", null);
+      if (lignes != null || colonnes != null) {
+        traitement.setTopologie(new Topologie(entier("lignes", lignes, 0), entier("colonnes", colonnes, 0),
+            enumeration(Topologie.Maille.class, "maille", this.valeur(tache, "maille", "RECTANGULAIRE")),
+            Boolean.parseBoolean(this.valeur(tache, "torique", "false"))));
+      }
+      final int threads = entier("threads", this.valeur(tache, "threads", null), 1);
+      traitement.setNbThreads(threads);
+      traitement.setEgalite(enumeration(SelectionBmu.Egalite.class, "egalite", this.valeur(tache, "egalite", "ALEATOIRE")));
+      final Planning.Type type = enumeration(Planning.Type.class, "planning", this.valeur(tache, "planning", "HISTORIQUE"));
+      final String epoques = this.valeur(tache, "epoques", null);
+      if (type != Planning.Type.HISTORIQUE) {
+        traitement.setPlanning(Planning.epoques(type, reel("alphaInitial", this.valeur(tache, "alphaInitial", "0.5")),
+            reel("alphaFinal", this.valeur(tache, "alphaFinal", "0.01")), entier("epoques", epoques, 0)));
+      }
+      if (Boolean.parseBoolean(this.valeur(tache, "telemetrie", "false"))) {
+        telemetrie = new Telemetrie();
+        telemetrie.enregistrer(tache);
+        traitement.setSuivi(telemetrie);
+      }
+
+      traitement.calculeVecteurMoyen();
+      switch (this.valeur(tache, "initialisation", "ALEATOIRE").toUpperCase(Locale.ROOT)) {
+        case "ALEATOIRE":
+          traitement.creerIntervale(reel("borneSupp", this.valeur(tache, "borneSupp", "0.5")), reel("borneInf", this.valeur(tache, "borneInf", "0.5")));
+          break;
+        case "PCA":
+          traitement.creerIntervalePca();
+          break;
+        case "ECHANTILLONS":
+          traitement.creerIntervaleEchantillons();
+          break;
+        default:
+          throw new IllegalArgumentException("valeur invalide pour initialisation : " + this.valeur(tache, "initialisation", null));
+      }
+      traitement.genereMatrice();
+      final Codebook codebook = traitement.getCodebook();
+      resultat.topologie = codebook.getTopologie().toString();
+      final String forme = this.valeur(tache, "voisinage", null);
+      if (forme != null) {
+        traitement.setVoisinage(new Voisinage(enumeration(Voisinage.Forme.class, "voisinage", forme),
+            enumeration(Voisinage.Decroissance.class, "decroissance", this.valeur(tache, "decroissance", "EXPONENTIELLE")),
+            reel("rayonInitial", this.valeur(tache, "rayonInitial", String.valueOf(Math.max(1, Math.max(codebook.getLignes(), codebook.getColonnes()) / 2)))),
+            reel("rayonFinal", this.valeur(tache, "rayonFinal", "1"))));
+      }
+      long fin = System.nanoTime();
+      resultat.initialisation = fin - debut;
+
+      debut = fin;
+      final int mode = entier("mode", this.valeur(tache, "mode", null), 1);
+      if (mode == 2) {
+        traitement.rapprochementBatch(entier("epoques", epoques, 50));
+      }
+      else if (mode == 3) {
+        traitement.rapprochementParallele(entier("bande", this.valeur(tache, "bande", null), 0));
+      }
+      else if (mode == 0 || mode == 1) {
+        traitement.rapprochement(mode);
+      }
+      else {
+        throw new IllegalArgumentException("valeur invalide pour mode : " + mode);
+      }
+      fin = System.nanoTime();
+      resultat.entrainement = fin - debut;
+
+      debut = fin;
+      traitement.distanceEuclidienneInverse();
+      fin = System.nanoTime();
+      resultat.etiquetage = fin - debut;
+
+      debut = fin;
+      this.evaluer(traitement, resultat);
+      fin = System.nanoTime();
+      resultat.evaluation = fin - debut;
+
+      final String sortie = this.valeur(tache, "sortie", null);
+      if (sortie != null) {
+        traitement.sauvegarder(sortie);
+        resultat.sortie = sortie;
+      }
+      resultat.ok = true;
+    }
+    catch (IOException | RuntimeException e) {
+      resultat.erreur = message(e);
+    }
+    finally {
+      if (telemetrie != null) {
+        telemetrie.desenregistrer();
+      }
+    }
+    return resultat;
+  }
+
+  /**
+   * Measures the quantization error, the topographic error and the share of rows whose label
+   * is the one of their BMU, on every row of the data.
+   */
+  private void evaluer(final Traitement traitement, final Resultat resultat) {
+    final Codebook codebook = traitement.getCodebook();
+    final Donnees normees = traitement.getNormees();
+    final Modele modele = traitement.modele();
+    final double[] donnee = new double[normees.getDimension()];
+    final double[] distances = new double[codebook.getTaille()];
+    double somme = 0.0;
+    long erreurs = 0;
+    long correctes = 0;
+    for (int i = 0; i < normees.getLignes(); ++i) {
+      normees.copierLigne(i, donnee);
+      codebook.distances(donnee, distances);
+      final int bmu = Convergence.indiceMinimum(distances);
+      somme += codebook.getMetrique().distance(distances[bmu]);
+      if (Convergence.erreurTopographique(distances, bmu, codebook.getTopologie())) {
+        ++erreurs;
+      }
+      if (modele.getEtiquette(bmu).equals(normees.getLabel(i))) {
+        ++correctes;
+      }
+    }
+    final int n = Math.max(1, normees.getLignes());
+    resultat.erreurQuantification = somme / n;
+    resultat.erreurTopographique = (double)erreurs / n;
+    resultat.exactitude = (double)correctes / n;
+  }
+
+  /**
+   * Value of a key for a training: its own value, or the common one, or the default.
+   */
+  private String valeur(final String tache, final String cle, final String defaut) {
+    String v = this.proprietes.getProperty(tache + "." + cle);
+    if (v == null) {
+      v = this.proprietes.getProperty(cle, defaut);
+    }
+    return v == null ? null : v.trim().replace("{tache}", tache);
+  }
+
+  private static int entier(final String cle, final String valeur, final int defaut) {
+    if (valeur == null) {
+      return defaut;
+    }
+    try {
+      return Integer.parseInt(valeur.trim());
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException("valeur invalide pour " + cle + " : " + valeur);
+    }
+  }
+
+  private static long entierLong(final String cle, final String valeur) {
+    try {
+      return Long.parseLong(valeur.trim());
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException("valeur invalide pour " + cle + " : " + valeur);
+    }
+  }
+
+  private static double reel(final String cle, final String valeur) {
+    try {
+      return Double.parseDouble(valeur.trim());
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException("valeur invalide pour " + cle + " : " + valeur);
+    }
+  }
+
+  private static <E extends Enum<E>> E enumeration(final Class<E> classe, final String cle, final String valeur) {
+    try {
+      return Enum.valueOf(classe, valeur.trim().toUpperCase(Locale.ROOT));
+    }
+    catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("valeur invalide pour " + cle + " : " + valeur);
+    }
+  }
+
+  private static String message(final Exception e) {
+    return e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+  }
+
+  private static long millisecondes(final long nanos) {
+    return Math.round(nanos / 1e6);
+  }
+
+  /**
+   * Quotes a string for JSON.
+   */
+  private static String chaine(final String s) {
+    final StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+    for (int i = 0; i < s.length(); ++i) {
+      final char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      }
+      else if (c < ' ') {
+        sb.append(String.format("\\u%04x", (int)c));
+      }
+      else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  private static String nombre(final double v) {
+    return Double.isFinite(v) ? String.valueOf(v) : "null";
+  }
+
+  /**
+   * Outcome of one training.
+   */
+  public static final class Resultat {
+
+    private final String tache;
+
+    private boolean ok;
+
+    /** Message of the error that stopped the training, or null. */
+    private String erreur;
+
+    private long graine;
+
+    private String topologie;
+
+    /** Durations in nanoseconds. */
+    private long initialisation;
+
+    private long entrainement;
+
+    private long etiquetage;
+
+    private long evaluation;
+
+    private double erreurQuantification = Double.NaN;
+
+    private double erreurTopographique = Double.NaN;
+
+    private double exactitude = Double.NaN;
+
+    /** Checkpoint written, or null. */
+    private String sortie;
+
+    private Resultat(final String tache) {
+      this.tache = tache;
+    }
+
+    /**
+     * Returns the name of the training.
+     *
+     * @return the name
+     */
+    public String getTache() {
+      return this.tache;
+    }
+
+    /**
+     * Tells whether the training ended without error.
+     *
+     * @return true on success
+     */
+    public boolean isOk() {
+      return this.ok;
+    }
+
+    /**
+     * Returns the error that stopped the training.
+     *
+     * @return the message, or null on success
+     */
+    public String getErreur() {
+      return this.erreur;
+    }
+
+    private String json() {
+      final StringBuilder sb = new StringBuilder("{\"tache\":").append(chaine(this.tache))
+          .append(",\"statut\":").append(this.ok ? "\"ok\"" : "\"erreur\"");
+      if (this.erreur != null) {
+        sb.append(",\"erreur\":").append(chaine(this.erreur));
+      }
+      sb.append(",\"graine\":").append(this.graine);
+      if (this.topologie != null) {
+        sb.append(",\"topologie\":").append(chaine(this.topologie));
+      }
+      sb.append(",\"initialisationMs\":").append(millisecondes(this.initialisation))
+          .append(",\"entrainementMs\":").append(millisecondes(this.entrainement))
+          .append(",\"etiquetageMs\":").append(millisecondes(this.etiquetage))
+          .append(",\"evaluationMs\":").append(millisecondes(this.evaluation))
+          .append(",\"erreurQuantification\":").append(nombre(this.erreurQuantification))
+          .append(",\"erreurTopographique\":").append(nombre(this.erreurTopographique))
+          .append(",\"exactitude\":").append(nombre(this.exactitude));
+      if (this.sortie != null) {
+        sb.append(",\"sortie\":").append(chaine(this.sortie));
+      }
+      return sb.append('}').toString();
+    }
+  }
+
+  /**
+   * Summary of a run: the data files read and the outcome of each training.
+   */
+  public static final class Resume {
+
+    /** JSON objects of the files read, separated by commas. */
+    private final StringBuilder fichiers = new StringBuilder();
+
+    private final List<Resultat> resultats = new ArrayList<Resultat>();
+
+    private int paralleles;
+
+    /** Duration of the whole run in nanoseconds. */
+    private long duree;
+
+    /**
+     * Returns the outcome of each training.
+     *
+     * @return the outcomes, in the order of the trainings
+     */
+    public List<Resultat> getResultats() {
+      return this.resultats;
+    }
+
+    /**
+     * Tells whether every training ended without error.
+     *
+     * @return true on success of all of them
+     */
+    public boolean isOk() {
+      for (final Resultat resultat : this.resultats) {
+        if (!resultat.ok) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Returns the summary as JSON.
+     *
+     * @return the JSON document
+     */
+    public String json() {
+      final StringBuilder sb = new StringBuilder("{\"fichiers\":[").append(this.fichiers).append("],\"paralleles\":").append(this.paralleles)
+          .append(",\"dureeMs\":").append(millisecondes(this.duree)).append(",\"taches\":[");
+      for (int i = 0; i < this.resultats.size(); ++i) {
+        sb.append(i == 0 ? "\n  " : ",\n  ").append(this.resultats.get(i).json());
+      }
+      return sb.append("\n]}\n").toString();
+    }
+  }
+
+  /**
+   * Reads the settings: the properties file given by --config, then the --cle=valeur arguments,
+   * which take precedence.
+   *
+   * @param args the arguments
+   * @return the settings
+   * @throws IOException if the properties file cannot be read
+   */
+  static Properties lireArguments(final String[] args) throws IOException {
+    final Properties proprietes = new Properties();
+    final Properties arguments = new Properties();
+    for (int i = 0; i < args.length; ++i) {
+      final String arg = args[i];
+      if (!arg.startsWith("--")) {
+        throw new IllegalArgumentException("argument invalide : " + arg);
+      }
+      final int egal = arg.indexOf('=');
+      final String cle = egal < 0 ? arg.substring(2) : arg.substring(2, egal);
+      String valeur;
+      if (egal >= 0) {
+        valeur = arg.substring(egal + 1);
+      }
+      else if (i + 1 < args.length) {
+        valeur = args[++i];
+      }
+      else {
+        throw new IllegalArgumentException("valeur absente pour " + arg);
+      }
+      if (cle.equals("config")) {
+        try (Reader lecteur = new InputStreamReader(new FileInputStream(valeur), StandardCharsets.UTF_8)) {
+          proprietes.load(lecteur);
+        }
+      }
+      else {
+        arguments.setProperty(cle, valeur);
+      }
+    }
+    proprietes.putAll(arguments);
+    return proprietes;
+  }
+
+  /**
+   * Runs the trainings described by the arguments and writes the JSON summary.
+   * Usage: java code.LancementAutomatique [--config fichier.properties] [--cle=valeur ...]
+   * The progress messages of the trainings go to the error output, so that the standard output
+   * only holds the summary. The exit status is 1 if a training failed, 2 on invalid arguments.
+   *
+   * @param args the properties file and the settings
+   * @throws IOException if the properties file or the summary cannot be read or written
+   */
+  public static void main(final String[] args) throws IOException {
+    final Properties proprietes;
+    try {
+      proprietes = lireArguments(args);
+    }
+    catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println("usage : java code.LancementAutomatique [--config fichier.properties] [--cle=valeur ...]");
+      System.exit(2);
+      return;
+    }
+    final PrintStream sortie = System.out;
+    System.setOut(System.err);
+    final Resume resume;
+    try {
+      resume = new LancementAutomatique(proprietes).executer();
+    }
+    finally {
+      System.setOut(sortie);
+    }
+    final String fichier = proprietes.getProperty("resume");
+    if (fichier == null) {
+      sortie.print(resume.json());
+      sortie.flush();
+    }
+    else {
+      Files.write(Paths.get(fichier), resume.json().getBytes(StandardCharsets.UTF_8));
+    }
+    if (!resume.isOk()) {
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,505 @@
+package code;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Streaming reader of CSV data files.
+ * The bytes are parsed directly from a reusable buffer: no String is created per line or per
+ * field, numbers are decoded in place and labels are matched against the dictionary of the
+ * code.MatriceDonnees receiving the rows. Malformed rows are reported with their line number.
+ *
+ * @author Fab.16
+ */
+public class LecteurCsv {
+
+  /** Value of colonneLabel meaning that the file has no label column. */
+  public static final int SANS_LABEL = -2;
+
+  /** Value of colonneLabel meaning that the label is the last column. */
+  public static final int DERNIERE_COLONNE = -1;
+
+  /** Size of the read buffer. */
+  private static final int TAILLE_TAMPON = 1 << 16;
+
+  /** Powers of ten exactly representable as doubles, used by the fast number path. */
+  private static final double[] PUISSANCES = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  /** Field separator. */
+  private byte separateur = ',';
+
+  /** Whether the first line is a header to skip. */
+  private boolean entete;
+
+  /** Index of the label column, DERNIERE_COLONNE or SANS_LABEL. */
+  private int colonneLabel = DERNIERE_COLONNE;
+
+  /** Whether malformed rows are skipped (and reported in getErreurs()) instead of stopping the reading. */
+  private boolean ignorerErreurs;
+
+  /** Messages describing the malformed rows met by the last reading. */
+  private final ArrayList<String> erreurs = new ArrayList<String>();
+
+  /**
+   * Sets the field separator (',' by default).
+   *
+   * @param separateur the separator, an ASCII character
+   */
+  public void setSeparateur(final char separateur) {
+    this.separateur = (byte)separateur;
+  }
+
+  /**
+   * Sets whether the first line is a header to skip (false by default).
+   *
+   * @param entete true to skip the first line
+   */
+  public void setEntete(final boolean entete) {
+    this.entete = entete;
+  }
+
+  /**
+   * Sets the column holding the label (the last one by default).
+   *
+   * @param colonneLabel the index of the column, DERNIERE_COLONNE or SANS_LABEL
+   */
+  public void setColonneLabel(final int colonneLabel) {
+    this.colonneLabel = colonneLabel;
+  }
+
+  /**
+   * Sets whether malformed rows are skipped instead of stopping the reading (false by default).
+   *
+   * @param ignorerErreurs true to skip malformed rows
+   */
+  public void setIgnorerErreurs(final boolean ignorerErreurs) {
+    this.ignorerErreurs = ignorerErreurs;
+  }
+
+  /**
+   * Returns the messages describing the malformed rows met by the last reading.
+   *
+   * @return one message per malformed row, starting with its line number
+   */
+  public ArrayList<String> getErreurs() {
+    return this.erreurs;
+  }
+
+  /**
+   * Reads a CSV file.
+   *
+   * @param nomFichier the name of the file
+   * @return the rows of the file
+   * @throws IOException if the file cannot be read, or contains a malformed row while
+   *                     errors are not ignored
+   */
+  public MatriceDonnees lire(final String nomFichier) throws IOException {
+    try (InputStream st = new FileInputStream(nomFichier)) {
+      return this.lire(st);
+    }
+  }
+
+  /**
+   * Reads CSV data from a stream. The stream is not closed.
+   *
+   * @param st the stream
+   * @return the rows read
+   * @throws IOException if the stream cannot be read, or contains a malformed row while
+   *                     errors are not ignored
+   */
+  public MatriceDonnees lire(final InputStream st) throws IOException {
+    final Flux flux = new Flux(st, 0, 0);
+    flux.lireBloc();
+    if (flux.getBloc() == null) {
+      throw new IOException("aucune donnée dans le fichier");
+    }
+    return flux.getBloc();
+  }
+
+  /**
+   * Opens a CSV file to read it block by block, with a bounded memory.
+   *
+   * @param nomFichier the name of the file
+   * @param memoireMax the number of bytes the read buffer and the block may use
+   * @param octetsParLigne additional bytes the caller needs per row of the block
+   * @return the open reader, to close after use
+   * @throws IOException if the file cannot be opened
+   * @see Flux
+   */
+  public Flux ouvrir(final String nomFichier, final long memoireMax, final int octetsParLigne) throws IOException {
+    return new Flux(new FileInputStream(nomFichier), memoireMax, octetsParLigne);
+  }
+
+  /**
+   * Reader of a CSV stream block by block.
+   * Each call to lireBloc() replaces the content of the same code.MatriceDonnees by the next rows,
+   * so the memory used stays constant whatever the size of the file. The label dictionary of the
+   * block is kept from one block to the next.
+   */
+  public final class Flux implements Closeable {
+
+    /** Stream being read. */
+    private final InputStream st;
+
+    /** Bytes the read buffer and the block may use, 0 for no limit. */
+    private final long memoireMax;
+
+    /** Additional bytes the caller needs per row of the block. */
+    private final int octetsParLigne;
+
+    /** Parsing state, holding the block. */
+    private final Analyse analyse = new Analyse();
+
+    /** Read buffer. */
+    private byte[] tampon = new byte[TAILLE_TAMPON];
+
+    /** Start of the unparsed bytes in the buffer. */
+    private int debut;
+
+    /** End of the valid bytes in the buffer. */
+    private int fin;
+
+    /** Number of the last line parsed. */
+    private int numeroLigne;
+
+    /** Whether the end of the stream has been reached. */
+    private boolean finFlux;
+
+    /** Maximum number of rows per block, 0 for no limit; fixed on the first data row. */
+    private int capacite;
+
+    private Flux(final InputStream st, final long memoireMax, final int octetsParLigne) {
+      this.st = st;
+      this.memoireMax = memoireMax;
+      this.octetsParLigne = octetsParLigne;
+      LecteurCsv.this.erreurs.clear();
+    }
+
+    /**
+     * Returns the block filled by the last call to lireBloc().
+     *
+     * @return the block, or null if no data row has been read yet
+     */
+    public MatriceDonnees getBloc() {
+      return this.analyse.matrice;
+    }
+
+    /**
+     * Returns the maximum number of rows of a block.
+     *
+     * @return the capacity, 0 for no limit
+     */
+    public int getCapacite() {
+      return this.capacite;
+    }
+
+    /**
+     * Returns the number of bytes currently used by the read buffer and the block.
+     *
+     * @return the memory used
+     */
+    public long getMemoire() {
+      final MatriceDonnees bloc = this.analyse.matrice;
+      long memoire = this.tampon.length;
+      if (bloc != null) {
+        memoire += (long)bloc.getCapacite() * (Double.BYTES * bloc.getDimension() + Integer.BYTES);
+      }
+      return memoire;
+    }
+
+    /**
+     * Replaces the content of the block by the next rows of the stream.
+     *
+     * @return the number of rows read, 0 at the end of the stream
+     * @throws IOException if the stream cannot be read, or contains a malformed row while
+     *                     errors are not ignored
+     */
+    public int lireBloc() throws IOException {
+      if (this.analyse.matrice != null) {
+        this.analyse.matrice.vider();
+      }
+      while (this.capacite == 0 || this.analyse.matrice.getLignes() < this.capacite) {
+        int eol = -1;
+        for (int i = this.debut; i < this.fin; ++i) {
+          if (this.tampon[i] == '\n') {
+            eol = i;
+            break;
+          }
+        }
+        if (eol < 0) {
+          if (this.finFlux) {
+            if (this.debut < this.fin) {
+              this.ligne(this.fin);
+            }
+            break;
+          }
+          this.remplir();
+          continue;
+        }
+        this.ligne(eol);
+      }
+      return this.analyse.matrice == null ? 0 : this.analyse.matrice.getLignes();
+    }
+
+    /**
+     * Parses the line ending at the given position and moves past it.
+     */
+    private void ligne(final int eol) throws IOException {
+      final boolean premiere = this.analyse.matrice == null;
+      this.analyse.ligne(this.tampon, this.debut, eol, ++this.numeroLigne);
+      this.debut = Math.min(eol + 1, this.fin);
+      if (premiere && this.analyse.matrice != null && this.memoireMax > 0) {
+        final long parLigne = Double.BYTES * (long)this.analyse.dimension + Integer.BYTES + this.octetsParLigne;
+        final long capacite = (this.memoireMax - TAILLE_TAMPON) / parLigne;
+        if (capacite < 1) {
+          throw new IOException("mémoire insuffisante : " + this.memoireMax + " octets pour des lignes de " + parLigne + " octets");
+        }
+        // at most the rows of one array (see MatriceDonnees.reserver)
+        this.capacite = (int)Math.min((Integer.MAX_VALUE - 8) / Math.max(1, this.analyse.dimension), capacite);
+        this.analyse.matrice.reserver(this.capacite);
+      }
+    }
+
+    /**
+     * Keeps the incomplete line at the start of the buffer, enlarging it for very long lines,
+     * and reads more bytes after it.
+     */
+    private void remplir() throws IOException {
+      final int reste = this.fin - this.debut;
+      if (reste == this.tampon.length) {
+        this.tampon = Arrays.copyOf(this.tampon, 2 * this.tampon.length);
+      }
+      else {
+        System.arraycopy(this.tampon, this.debut, this.tampon, 0, reste);
+      }
+      this.debut = 0;
+      this.fin = reste;
+      final int lus = this.st.read(this.tampon, this.fin, this.tampon.length - this.fin);
+      if (lus < 0) {
+        this.finFlux = true;
+      }
+      else {
+        this.fin += lus;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.st.close();
+    }
+  }
+
+  /**
+   * State of the parsing of one file.
+   */
+  private final class Analyse {
+
+    /** Matrix receiving the rows, created on the first data row. */
+    private MatriceDonnees matrice;
+
+    /** Number of numerical columns, fixed by the first data row. */
+    private int dimension = -1;
+
+    /** Index of the label column, resolved on the first data row. */
+    private int label = -1;
+
+    /** Bytes of the labels of the dictionary, to match labels without creating Strings. */
+    private final ArrayList<byte[]> octetsLabels = new ArrayList<byte[]>();
+
+    /** Index of the last label matched, tried first for the next row. */
+    private int dernierLabel = -1;
+
+    /**
+     * Parses one line, without its line feed.
+     */
+    void ligne(final byte[] t, final int debut, int fin, final int numero) throws IOException {
+      if (fin > debut && t[fin - 1] == '\r') {
+        --fin;
+      }
+      if (fin == debut || (numero == 1 && LecteurCsv.this.entete)) {
+        return;
+      }
+      if (this.matrice == null) {
+        this.initialiser(t, debut, fin);
+      }
+      final byte sep = LecteurCsv.this.separateur;
+      final int offset = this.matrice.ajouterLigne(0);
+      final double[] valeurs = this.matrice.getValeurs();
+      int colonne = 0;
+      int j = 0;
+      int champ = debut;
+      for (int i = debut; i <= fin; ++i) {
+        if (i < fin && t[i] != sep) {
+          continue;
+        }
+        if (colonne == this.label) {
+          this.labels(t, champ, i, this.matrice.getLignes() - 1);
+        }
+        else if (j < this.dimension) {
+          final double v = nombre(t, champ, i);
+          if (Double.isNaN(v)) {
+            this.erreur(numero, "valeur invalide en colonne " + (colonne + 1) + " : \""
+                + new String(t, champ, i - champ, StandardCharsets.UTF_8) + "\"");
+            return;
+          }
+          valeurs[offset + j++] = v;
+        }
+        ++colonne;
+        champ = i + 1;
+      }
+      final int attendues = this.dimension + (this.label >= 0 ? 1 : 0);
+      if (colonne != attendues) {
+        this.erreur(numero, colonne + " colonnes au lieu de " + attendues);
+      }
+    }
+
+    /**
+     * Fixes the number of columns and the label column from the first data row.
+     */
+    private void initialiser(final byte[] t, final int debut, final int fin) {
+      int colonnes = 1;
+      for (int i = debut; i < fin; ++i) {
+        if (t[i] == LecteurCsv.this.separateur) {
+          ++colonnes;
+        }
+      }
+      final int choix = LecteurCsv.this.colonneLabel;
+      this.label = choix == DERNIERE_COLONNE ? colonnes - 1 : choix;
+      if (this.label >= colonnes) {
+        this.label = -1;
+      }
+      this.dimension = this.label >= 0 ? colonnes - 1 : colonnes;
+      this.matrice = new MatriceDonnees(this.dimension, 1024);
+      if (this.label < 0) {
+        this.dernierLabel = this.matrice.indiceLabel("");
+        this.octetsLabels.add(new byte[0]);
+      }
+    }
+
+    /**
+     * Sets the label of a row from the bytes of its field.
+     */
+    private void labels(final byte[] t, final int debut, final int fin, final int ligne) {
+      int indice = -1;
+      if (this.dernierLabel >= 0 && egaux(this.octetsLabels.get(this.dernierLabel), t, debut, fin)) {
+        indice = this.dernierLabel;
+      }
+      else {
+        for (int k = 0; k < this.octetsLabels.size(); ++k) {
+          if (egaux(this.octetsLabels.get(k), t, debut, fin)) {
+            indice = k;
+            break;
+          }
+        }
+      }
+      if (indice < 0) {
+        indice = this.matrice.indiceLabel(new String(t, debut, fin - debut, StandardCharsets.UTF_8));
+        this.octetsLabels.add(Arrays.copyOfRange(t, debut, fin));
+      }
+      this.dernierLabel = indice;
+      this.matrice.setIndiceLabel(ligne, indice);
+    }
+
+    /**
+     * Drops the current row and reports it, or stops the reading.
+     */
+    private void erreur(final int numero, final String message) throws IOException {
+      this.matrice.retirerDerniereLigne();
+      final String erreur = "ligne " + numero + " : " + message;
+      if (!LecteurCsv.this.ignorerErreurs) {
+        throw new IOException(erreur);
+      }
+      LecteurCsv.this.erreurs.add(erreur);
+    }
+  }
+
+  /**
+   * Compares stored bytes with a slice of the buffer.
+   */
+  private static boolean egaux(final byte[] a, final byte[] t, final int debut, final int fin) {
+    if (a.length != fin - debut) {
+      return false;
+    }
+    for (int i = 0; i < a.length; ++i) {
+      if (a[i] != t[debut + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decodes a decimal number from a slice of the buffer.
+   * Numbers with at most 15 significant digits and a small exponent are computed exactly
+   * from an integer mantissa and a power of ten; any other form goes through Double.parseDouble.
+   *
+   * @return the value, or NaN if the field is not a number
+   */
+  static double nombre(final byte[] t, int debut, int fin) {
+    while (debut < fin && t[debut] == ' ') {
+      ++debut;
+    }
+    while (fin > debut && t[fin - 1] == ' ') {
+      --fin;
+    }
+    if (debut == fin) {
+      return Double.NaN;
+    }
+    int i = debut;
+    boolean negatif = false;
+    if (t[i] == '-' || t[i] == '+') {
+      negatif = t[i] == '-';
+      ++i;
+    }
+    long mantisse = 0;
+    int chiffres = 0;
+    int decimales = 0;
+    boolean point = false;
+    boolean vide = true;
+    for (; i < fin; ++i) {
+      final byte c = t[i];
+      if (c >= '0' && c <= '9') {
+        vide = false;
+        if (chiffres > 0 || c != '0') {
+          ++chiffres;
+        }
+        mantisse = 10 * mantisse + (c - '0');
+        if (point) {
+          ++decimales;
+        }
+      }
+      else if (c == '.' && !point) {
+        point = true;
+      }
+      else {
+        break;
+      }
+    }
+    // exponents, special values and long mantissas are left to the JDK
+    if (i < fin || vide || chiffres > 15 || decimales >= PUISSANCES.length) {
+      return lent(t, debut, fin);
+    }
+    final double v = (double)mantisse / PUISSANCES[decimales];
+    return negatif ? -v : v;
+  }
+
+  /**
+   * Decodes a number the slow way, for the forms not handled by the fast path.
+   */
+  private static double lent(final byte[] t, final int debut, final int fin) {
+    try {
+      return Double.parseDouble(new String(t, debut, fin - debut, StandardCharsets.ISO_8859_1));
+    }
+    catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+}
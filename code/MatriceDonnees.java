@@ -0,0 +1,319 @@
+package code;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Growable matrix of data vectors stored in a single row-major primitive array.
+ * Each row has a label, stored as an index into a dictionary of distinct labels,
+ * so that a data set costs dimension doubles and one int per row.
+ *
+ * @author Fab.16
+ */
+public class MatriceDonnees implements Donnees {
+
+  /** Largest number of elements of an array. */
+  private static final int TAILLE_MAX = Integer.MAX_VALUE - 8;
+
+  /** Number of components of each row. */
+  private final int dimension;
+
+  /** Components of all the rows, one row after the other. */
+  private double[] valeurs;
+
+  /** Index in the dictionary of the label of each row. */
+  private int[] labels;
+
+  /** Distinct labels, in order of first appearance. */
+  private final ArrayList<String> dictionnaire;
+
+  /** Number of rows. */
+  private int lignes;
+
+  /** Whether the rows have been normalized. */
+  private boolean normalisees;
+
+  /**
+   * Constructs an empty matrix.
+   *
+   * @param dimension the number of components of each row
+   * @param capacite the number of rows to reserve
+   * @throws IllegalArgumentException if the rows do not fit in one array
+   */
+  public MatriceDonnees(final int dimension, final int capacite) {
+    if (capacite > lignesMax(dimension)) {
+      throw new IllegalArgumentException(trop(capacite, dimension));
+    }
+    this.dimension = dimension;
+    this.valeurs = new double[Math.max(1, capacite) * dimension];
+    this.labels = new int[Math.max(1, capacite)];
+    this.dictionnaire = new ArrayList<String>();
+  }
+
+  /**
+   * Returns the number of rows.
+   *
+   * @return the number of rows
+   */
+  @Override
+  public int getLignes() {
+    return this.lignes;
+  }
+
+  /**
+   * Returns the number of components of each row.
+   *
+   * @return the dimension
+   */
+  @Override
+  public int getDimension() {
+    return this.dimension;
+  }
+
+  /**
+   * Returns the backing array of the components. Only the first getLignes() * getDimension()
+   * values are meaningful. The array is shared, not copied.
+   *
+   * @return the flat array of values
+   */
+  public double[] getValeurs() {
+    return this.valeurs;
+  }
+
+  /**
+   * Returns the distinct labels, in order of first appearance.
+   *
+   * @return the label dictionary
+   */
+  @Override
+  public ArrayList<String> getDictionnaire() {
+    return this.dictionnaire;
+  }
+
+  @Override
+  public boolean isNormalisees() {
+    return this.normalisees;
+  }
+
+  /**
+   * Returns one component of a row.
+   *
+   * @param ligne the row
+   * @param j the component
+   * @return the value
+   */
+  public double valeur(final int ligne, final int j) {
+    return this.valeurs[ligne * this.dimension + j];
+  }
+
+  /**
+   * Copies a row into the given array.
+   *
+   * @param ligne the row
+   * @param dest the destination, at least getDimension() values
+   */
+  @Override
+  public void copierLigne(final int ligne, final double[] dest) {
+    System.arraycopy(this.valeurs, ligne * this.dimension, dest, 0, this.dimension);
+  }
+
+  /**
+   * Returns the index in the dictionary of the label of a row.
+   *
+   * @param ligne the row
+   * @return the label index
+   */
+  @Override
+  public int getIndiceLabel(final int ligne) {
+    return this.labels[ligne];
+  }
+
+  /**
+   * Sets the index in the dictionary of the label of a row.
+   *
+   * @param ligne the row
+   * @param indiceLabel the label index
+   */
+  public void setIndiceLabel(final int ligne, final int indiceLabel) {
+    this.labels[ligne] = indiceLabel;
+  }
+
+  /**
+   * Returns the label of a row.
+   *
+   * @param ligne the row
+   * @return the label
+   */
+  @Override
+  public String getLabel(final int ligne) {
+    return this.dictionnaire.get(this.labels[ligne]);
+  }
+
+  /**
+   * Returns the index of a label in the dictionary, adding it if needed.
+   *
+   * @param label the label
+   * @return its index
+   */
+  public int indiceLabel(final String label) {
+    int indice = this.dictionnaire.indexOf(label);
+    if (indice < 0) {
+      indice = this.dictionnaire.size();
+      this.dictionnaire.add(label);
+    }
+    return indice;
+  }
+
+  /**
+   * Reserves a new row at the end of the matrix and returns the offset of its first component
+   * in getValeurs(). The components are then written directly in the array.
+   *
+   * The capacity doubles when it is reached, up to the largest array.
+   *
+   * @param indiceLabel the index of the label of the row in the dictionary
+   * @return the offset of the new row
+   * @throws IOException if the matrix already holds as many rows as one array can
+   */
+  public int ajouterLigne(final int indiceLabel) throws IOException {
+    if (this.lignes == this.labels.length) {
+      final int maximum = lignesMax(this.dimension);
+      if (this.lignes >= maximum) {
+        throw new IOException(trop(this.lignes + 1L, this.dimension));
+      }
+      final int capacite = (int)Math.min(maximum, 2L * this.lignes);
+      this.labels = Arrays.copyOf(this.labels, capacite);
+      this.valeurs = Arrays.copyOf(this.valeurs, capacite * this.dimension);
+    }
+    this.labels[this.lignes] = indiceLabel;
+    return this.dimension * this.lignes++;
+  }
+
+  /**
+   * Returns the number of rows the matrix can hold before growing.
+   *
+   * @return the capacity
+   */
+  public int getCapacite() {
+    return this.labels.length;
+  }
+
+  /**
+   * Sets the capacity of the matrix, keeping the existing rows.
+   *
+   * @param capacite the number of rows to hold, at least getLignes()
+   * @throws IllegalArgumentException if the rows do not fit in one array
+   */
+  public void reserver(final int capacite) {
+    if (capacite > lignesMax(this.dimension)) {
+      throw new IllegalArgumentException(trop(capacite, this.dimension));
+    }
+    this.labels = Arrays.copyOf(this.labels, Math.max(capacite, this.lignes));
+    this.valeurs = Arrays.copyOf(this.valeurs, Math.max(capacite, this.lignes) * this.dimension);
+  }
+
+  /**
+   * Removes every row, keeping the capacity and the label dictionary.
+   */
+  public void vider() {
+    this.lignes = 0;
+    this.normalisees = false;
+  }
+
+  /**
+   * Divides each row by its Euclidean norm, in place.
+   */
+  public void normaliserLignes() {
+    for (int i = 0; i < this.lignes; ++i) {
+      final int offset = i * this.dimension;
+      double norme = 0.0;
+      for (int j = 0; j < this.dimension; ++j) {
+        norme += this.valeurs[offset + j] * this.valeurs[offset + j];
+      }
+      norme = Math.sqrt(norme);
+      for (int j = 0; j < this.dimension; ++j) {
+        this.valeurs[offset + j] /= norme;
+      }
+    }
+    this.normalisees = true;
+  }
+
+  /**
+   * Removes the last row, for instance when it turns out to be malformed.
+   */
+  public void retirerDerniereLigne() {
+    --this.lignes;
+  }
+
+  /**
+   * Builds a normalized copy of a data set: each row is divided by its Euclidean norm,
+   * as done by Traitement.normalisation. The labels are kept.
+   *
+   * @param source the data set to normalize
+   * @return the normalized rows
+   */
+  public static MatriceDonnees normaliser(final Donnees source) {
+    final int dimension = source.getDimension();
+    final MatriceDonnees resultat = new MatriceDonnees(dimension, source.getLignes());
+    resultat.dictionnaire.addAll(source.getDictionnaire());
+    resultat.normalisees = true;
+    final double[] ligne = new double[dimension];
+    for (int i = 0; i < source.getLignes(); ++i) {
+      source.copierLigne(i, ligne);
+      double norme = 0.0;
+      for (int j = 0; j < dimension; ++j) {
+        norme += ligne[j] * ligne[j];
+      }
+      norme = Math.sqrt(norme);
+      // the capacity is the number of rows of the source
+      final int offset = i * dimension;
+      resultat.labels[i] = source.getIndiceLabel(i);
+      for (int j = 0; j < dimension; ++j) {
+        resultat.valeurs[offset + j] = ligne[j] / norme;
+      }
+    }
+    resultat.lignes = source.getLignes();
+    return resultat;
+  }
+
+  /**
+   * Returns the largest number of rows of a dimension held by one array.
+   */
+  private static int lignesMax(final int dimension) {
+    return dimension <= 1 ? TAILLE_MAX : TAILLE_MAX / dimension;
+  }
+
+  /**
+   * Message of a data set too large for one array.
+   */
+  private static String trop(final long lignes, final int dimension) {
+    return lignes + " lignes de dimension " + dimension + " ne tiennent pas dans un tableau (" + lignesMax(dimension)
+        + " au plus) : convertir le fichier au format " + DonneesBinaires.EXTENSION
+        + " (code.DonneesBinaires) ou le lire par blocs avec LecteurCsv.Flux";
+  }
+
+  /**
+   * Builds the list of code.Weight objects matching the rows of a data set.
+   *
+   * @param source the data set
+   * @return one code.Weight per row, with its label
+   */
+  public static ArrayList<Weight> versListe(final Donnees source) {
+    final ArrayList<Weight> liste = new ArrayList<Weight>(source.getLignes());
+    final double[] ligne = new double[source.getDimension()];
+    for (int i = 0; i < source.getLignes(); ++i) {
+      source.copierLigne(i, ligne);
+      liste.add(new Weight(ligne, source.getLabel(i)));
+    }
+    return liste;
+  }
+
+  /**
+   * Builds the list of code.Weight objects matching the rows of this matrix.
+   *
+   * @return one code.Weight per row, with its label
+   */
+  public ArrayList<Weight> versListe() {
+    return versListe(this);
+  }
+}
@@ -0,0 +1,200 @@
+package code;
+
+/**
+ * Measures of one epoch of the online training, gathered for a code.SuiviEntrainement.
+ * Counting the samples, the nodes moved and the BMU distances costs a few additions per
+ * sample; the time of the BMU search and of the update is only read on one sample out of
+ * PERIODE_CHRONO, as System.nanoTime costs about as much as a small update.
+ *
+ * @author Fab.16
+ */
+public final class Mesures {
+
+  /** Samples between two timed samples, a power of two. */
+  static final int PERIODE_CHRONO = 16;
+
+  private final int epoque;
+
+  private final int nbEpoques;
+
+  /** Radius of the neighbourhood during the epoch. */
+  private final double rayon;
+
+  /** Time of the start of the epoch, from System.nanoTime. */
+  private final long debut;
+
+  /** Duration of the epoch in nanoseconds, set when it ends. */
+  private long duree;
+
+  private long echantillons;
+
+  /** Number of timed samples. */
+  private long chronometres;
+
+  /** Time of the BMU search of the timed samples, in nanoseconds. */
+  private long nsRecherche;
+
+  /** Time of the update of the timed samples, in nanoseconds. */
+  private long nsMiseAJour;
+
+  /** Number of nodes moved. */
+  private long voisins;
+
+  /** Sum of the distances of the samples to their BMU. */
+  private double sommeDistances;
+
+  /** Learning rate of the last sample. */
+  private double alpha;
+
+  Mesures(final int epoque, final int nbEpoques, final double rayon) {
+    this.epoque = epoque;
+    this.nbEpoques = nbEpoques;
+    this.rayon = rayon;
+    this.debut = System.nanoTime();
+  }
+
+  /**
+   * Tells whether the next sample is timed.
+   */
+  boolean isChronometre() {
+    return (this.echantillons & (PERIODE_CHRONO - 1)) == 0;
+  }
+
+  /**
+   * Counts a sample.
+   *
+   * @param distance the distance of the sample to its BMU
+   * @param nbVoisins the number of nodes moved
+   * @param alpha the learning rate
+   */
+  void ajouter(final double distance, final int nbVoisins, final double alpha) {
+    ++this.echantillons;
+    this.sommeDistances += distance;
+    this.voisins += nbVoisins;
+    this.alpha = alpha;
+  }
+
+  /**
+   * Counts the times of a timed sample.
+   */
+  void chronometrer(final long nsRecherche, final long nsMiseAJour) {
+    ++this.chronometres;
+    this.nsRecherche += nsRecherche;
+    this.nsMiseAJour += nsMiseAJour;
+  }
+
+  /**
+   * Ends the epoch.
+   */
+  void terminer() {
+    this.duree = System.nanoTime() - this.debut;
+  }
+
+  /**
+   * Returns the index of the epoch.
+   *
+   * @return the epoch, from 0
+   */
+  public int getEpoque() {
+    return this.epoque;
+  }
+
+  /**
+   * Returns the number of epochs of the training.
+   *
+   * @return the number of epochs
+   */
+  public int getNbEpoques() {
+    return this.nbEpoques;
+  }
+
+  /**
+   * Returns the duration of the epoch.
+   *
+   * @return the duration in nanoseconds
+   */
+  public long getDuree() {
+    return this.duree;
+  }
+
+  /**
+   * Returns the number of samples presented during the epoch.
+   *
+   * @return the number of samples
+   */
+  public long getEchantillons() {
+    return this.echantillons;
+  }
+
+  /**
+   * Returns the rate of the samples during the epoch.
+   *
+   * @return the samples per second
+   */
+  public double getEchantillonsParSeconde() {
+    return this.duree == 0 ? 0.0 : this.echantillons * 1e9 / this.duree;
+  }
+
+  /**
+   * Returns the mean time of a BMU search, estimated on the timed samples.
+   *
+   * @return the time in nanoseconds
+   */
+  public double getNsRecherche() {
+    return this.chronometres == 0 ? 0.0 : (double)this.nsRecherche / this.chronometres;
+  }
+
+  /**
+   * Returns the mean time of the update of a neighbourhood, estimated on the timed samples.
+   *
+   * @return the time in nanoseconds
+   */
+  public double getNsMiseAJour() {
+    return this.chronometres == 0 ? 0.0 : (double)this.nsMiseAJour / this.chronometres;
+  }
+
+  /**
+   * Returns the mean number of nodes moved per sample.
+   *
+   * @return the mean size of the neighbourhood
+   */
+  public double getTailleVoisinage() {
+    return this.echantillons == 0 ? 0.0 : (double)this.voisins / this.echantillons;
+  }
+
+  /**
+   * Returns the learning rate at the end of the epoch.
+   *
+   * @return the learning rate
+   */
+  public double getAlpha() {
+    return this.alpha;
+  }
+
+  /**
+   * Returns the radius of the neighbourhood during the epoch.
+   *
+   * @return the radius, in steps of the grid
+   */
+  public double getRayon() {
+    return this.rayon;
+  }
+
+  /**
+   * Returns the quantization error of the epoch: the mean distance of the samples to their BMU,
+   * each measured just before its update.
+   *
+   * @return the quantization error
+   */
+  public double getErreurQuantification() {
+    return this.echantillons == 0 ? 0.0 : this.sommeDistances / this.echantillons;
+  }
+
+  @Override
+  public String toString() {
+    return "époque " + (this.epoque + 1) + "/" + this.nbEpoques + " : " + this.echantillons + " échantillons, "
+        + Math.round(this.getEchantillonsParSeconde()) + " /s, recherche " + Math.round(this.getNsRecherche()) + " ns, mise à jour "
+        + Math.round(this.getNsMiseAJour()) + " ns, " + this.getTailleVoisinage() + " voisins, alpha " + this.alpha + ", rayon "
+        + this.rayon + ", erreur de quantification " + this.getErreurQuantification();
+  }
+}
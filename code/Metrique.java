@@ -0,0 +1,151 @@
+package code;
+
+/**
+ * Distance used to compare the data vectors with the reference vectors of the map.
+ * The search of the BMU only needs the order of the distances, so each metric computes an
+ * "ecart" giving the same order as the distance at a lower cost (no square root for the
+ * Euclidean distance), and converts it to the distance only where the value itself matters.
+ *
+ * The kernels use the Vector API (jdk.incubator.vector) when the module is available at run
+ * time (java --add-modules jdk.incubator.vector) and the processor handles at least two doubles
+ * per vector; otherwise they fall back to scalar loops. The choice is made once, when the class
+ * is loaded, and can be forced to the scalar loops with -Dcode.noyau=scalaire.
+ *
+ * @author Fab.16
+ */
+public enum Metrique {
+
+  /** Euclidean distance; the ecart is the squared distance. */
+  EUCLIDIENNE {
+    @Override
+    public double distance(final double ecart) {
+      return Math.sqrt(ecart);
+    }
+  },
+
+  /** Sum of the absolute differences. */
+  MANHATTAN,
+
+  /** 1 - cos(a, b); 1 when one of the vectors is null. */
+  COSINUS;
+
+  /**
+   * Kernel computing the ecart of a metric between two vectors stored in larger arrays.
+   */
+  public interface Noyau {
+
+    /**
+     * Computes the ecart between a[debutA .. debutA + n[ and b[debutB .. debutB + n[.
+     *
+     * @param a the array holding the first vector
+     * @param debutA the offset of the first vector
+     * @param b the array holding the second vector
+     * @param debutB the offset of the second vector
+     * @param n the dimension
+     * @return the ecart
+     */
+    double ecart(double[] a, int debutA, double[] b, int debutB, int n);
+  }
+
+  /** Kernels selected when the class is loaded, indexed by ordinal. */
+  private static final Noyau[] NOYAUX;
+
+  /** Whether NOYAUX holds the vectorized kernels. */
+  private static final boolean VECTORISE;
+
+  static {
+    Noyau[] noyaux = null;
+    if (!"scalaire".equals(System.getProperty("code.noyau"))) {
+      try {
+        // only reached through reflection, so that this class still loads without the incubator module
+        noyaux = (Noyau[])Class.forName("code.NoyauVectoriel").getDeclaredMethod("noyaux").invoke(null);
+      }
+      catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+        // module not resolved, or vectors too short to pay off: keep the scalar loops
+      }
+    }
+    VECTORISE = noyaux != null;
+    NOYAUX = noyaux != null ? noyaux : new Noyau[] {Metrique::euclidienne, Metrique::manhattan, Metrique::cosinus};
+  }
+
+  /**
+   * Converts an ecart to the distance of the metric.
+   *
+   * @param ecart the value returned by the kernel
+   * @return the distance
+   */
+  public double distance(final double ecart) {
+    return ecart;
+  }
+
+  /**
+   * Returns the kernel of the metric.
+   *
+   * @return the vectorized kernel when available, the scalar one otherwise
+   */
+  public Noyau noyau() {
+    return NOYAUX[this.ordinal()];
+  }
+
+  /**
+   * Tells whether the kernels use the Vector API.
+   *
+   * @return true when the vectorized kernels were selected
+   */
+  public static boolean isVectorise() {
+    return VECTORISE;
+  }
+
+  /**
+   * Scalar kernel of the squared Euclidean distance.
+   */
+  static double euclidienne(final double[] a, final int debutA, final double[] b, final int debutB, final int n) {
+    double somme = 0.0;
+    for (int j = 0; j < n; ++j) {
+      final double diff = a[debutA + j] - b[debutB + j];
+      somme += diff * diff;
+    }
+    return somme;
+  }
+
+  /**
+   * Scalar kernel of the Manhattan distance.
+   */
+  static double manhattan(final double[] a, final int debutA, final double[] b, final int debutB, final int n) {
+    double somme = 0.0;
+    for (int j = 0; j < n; ++j) {
+      somme += Math.abs(a[debutA + j] - b[debutB + j]);
+    }
+    return somme;
+  }
+
+  /**
+   * Scalar kernel of the cosine distance.
+   */
+  static double cosinus(final double[] a, final int debutA, final double[] b, final int debutB, final int n) {
+    double produit = 0.0;
+    double normeA = 0.0;
+    double normeB = 0.0;
+    for (int j = 0; j < n; ++j) {
+      produit += a[debutA + j] * b[debutB + j];
+      normeA += a[debutA + j] * a[debutA + j];
+      normeB += b[debutB + j] * b[debutB + j];
+    }
+    return cosinus(produit, normeA, normeB);
+  }
+
+  /**
+   * Cosine distance from the dot product and the squared norms.
+   *
+   * @param produit the dot product
+   * @param normeA the squared norm of the first vector
+   * @param normeB the squared norm of the second vector
+   * @return 1 - cos(a, b), or 1 when a norm is 0
+   */
+  static double cosinus(final double produit, final double normeA, final double normeB) {
+    if (normeA == 0.0 || normeB == 0.0) {
+      return 1.0;
+    }
+    return 1.0 - produit / Math.sqrt(normeA * normeB);
+  }
+}
@@ -0,0 +1,416 @@
+package code;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Trained map frozen for the mapping of new records: the reference vectors, the shape of the
+ * grid, the metric and the label of each node, copied once and never modified afterwards.
+ * A model can therefore be queried by any number of threads at the same time without locks.
+ * The queries allocate nothing: a single record is answered in a code.Modele.Reponse that each
+ * thread creates once and reuses, a batch of records in primitive arrays given by the caller.
+ *
+ * The map is trained on rows divided by their Euclidean norm (see Traitement.normalisation),
+ * so by default the records are normalized the same way before their BMU is searched. The BMU
+ * is the node at the smallest ecart, the first one in row-major order on a tie, as
+ * Codebook.plusProche.
+ *
+ * @author Fab.16
+ */
+public final class Modele {
+
+  /** Number of records of a batch compared with each node before moving to the next node. */
+  private static final int BLOC = 64;
+
+  /** Bytes of the results kept per record by main. */
+  private static final int OCTETS_RESULTAT = Integer.BYTES + Double.BYTES;
+
+  /** Reference vectors of all the nodes, as in code.Codebook. */
+  private final double[] poids;
+
+  /** Shape of the grid. */
+  private final Topologie topologie;
+
+  /** Number of columns of the grid. */
+  private final int colonnes;
+
+  /** Number of components of each vector. */
+  private final int dimension;
+
+  /** Metric comparing the vectors. */
+  private final Metrique metrique;
+
+  /** Kernel of the metric. */
+  private final Metrique.Noyau noyau;
+
+  /** Index in the dictionary of the label of each node, -1 for none. */
+  private final int[] indicesEtiquettes;
+
+  /** Distinct labels of the nodes. */
+  private final List<String> dictionnaire;
+
+  /** Whether the records are normalized before the search. */
+  private final boolean normaliser;
+
+  /**
+   * Freezes a codebook and the labels of its nodes. The vectors are copied, so the codebook
+   * can go on being trained without changing the model.
+   *
+   * @param codebook the trained codebook
+   * @param etiquettes the label of each node, null or empty for none; or null when no node is labelled
+   * @param normaliser whether the records are divided by their Euclidean norm before the search
+   */
+  public Modele(final Codebook codebook, final String[] etiquettes, final boolean normaliser) {
+    if (etiquettes != null && etiquettes.length != codebook.getTaille()) {
+      throw new IllegalArgumentException(etiquettes.length + " étiquettes pour " + codebook.getTaille() + " noeuds");
+    }
+    this.poids = codebook.getPoids().clone();
+    this.topologie = codebook.getTopologie();
+    this.colonnes = codebook.getColonnes();
+    this.dimension = codebook.getDimension();
+    this.metrique = codebook.getMetrique();
+    this.noyau = this.metrique.noyau();
+    this.normaliser = normaliser;
+    this.indicesEtiquettes = new int[codebook.getTaille()];
+    final ArrayList<String> dictionnaire = new ArrayList<String>();
+    final HashMap<String, Integer> rangs = new HashMap<String, Integer>();
+    for (int noeud = 0; noeud < this.indicesEtiquettes.length; ++noeud) {
+      final String etiquette = etiquettes == null ? null : etiquettes[noeud];
+      if (etiquette == null || etiquette.isEmpty()) {
+        this.indicesEtiquettes[noeud] = -1;
+        continue;
+      }
+      Integer indice = rangs.get(etiquette);
+      if (indice == null) {
+        indice = dictionnaire.size();
+        rangs.put(etiquette, indice);
+        dictionnaire.add(etiquette);
+      }
+      this.indicesEtiquettes[noeud] = indice;
+    }
+    this.dictionnaire = Collections.unmodifiableList(dictionnaire);
+  }
+
+  /**
+   * Loads the model saved by a checkpoint (see Traitement.sauvegarder). The records are normalized.
+   * Only a checkpoint with labelled nodes is accepted (see code.Sauvegarde), not one written
+   * during a training.
+   *
+   * @param nomFichier the name of the checkpoint file
+   * @return the model
+   * @throws IOException if the file cannot be read, is not a valid checkpoint or holds no labels
+   */
+  public static Modele charger(final String nomFichier) throws IOException {
+    final Sauvegarde.Etat etat = new Sauvegarde(nomFichier).lire();
+    if (!etat.isEtiquetee()) {
+      throw new IOException(nomFichier + " est une sauvegarde d'entraînement sans étiquettes, elle ne peut pas être servie");
+    }
+    final Codebook codebook = etat.getCodebook();
+    final String[] etiquettes = new String[codebook.getTaille()];
+    for (int noeud = 0; noeud < etiquettes.length; ++noeud) {
+      etiquettes[noeud] = etat.getEtiquette(noeud);
+    }
+    return new Modele(codebook, etiquettes, true);
+  }
+
+  /**
+   * Returns the shape of the grid.
+   *
+   * @return the shape of the grid
+   */
+  public Topologie getTopologie() {
+    return this.topologie;
+  }
+
+  /**
+   * Returns the number of components of the records.
+   *
+   * @return the dimension
+   */
+  public int getDimension() {
+    return this.dimension;
+  }
+
+  /**
+   * Returns the metric comparing the records with the nodes.
+   *
+   * @return the metric
+   */
+  public Metrique getMetrique() {
+    return this.metrique;
+  }
+
+  /**
+   * Tells whether the records are normalized before the search.
+   *
+   * @return true if the records are divided by their Euclidean norm
+   */
+  public boolean isNormaliser() {
+    return this.normaliser;
+  }
+
+  /**
+   * Returns the distinct labels of the nodes.
+   *
+   * @return the label dictionary, read-only
+   */
+  public List<String> getDictionnaire() {
+    return this.dictionnaire;
+  }
+
+  /**
+   * Returns the index in the dictionary of the label of a node.
+   *
+   * @param noeud the node index
+   * @return the label index, -1 if the node has no label
+   */
+  public int getIndiceEtiquette(final int noeud) {
+    return this.indicesEtiquettes[noeud];
+  }
+
+  /**
+   * Returns the label of a node.
+   *
+   * @param noeud the node index
+   * @return the label, empty if the node has no label
+   */
+  public String getEtiquette(final int noeud) {
+    final int indice = this.indicesEtiquettes[noeud];
+    return indice < 0 ? "" : this.dictionnaire.get(indice);
+  }
+
+  /**
+   * Creates the answer of the single record queries of one thread.
+   *
+   * @return a new answer, to reuse for every query of the same thread
+   */
+  public Reponse reponse() {
+    return new Reponse(this);
+  }
+
+  /**
+   * Searches the BMU of one record.
+   *
+   * @param donnee the record, getDimension() values; not modified
+   * @param reponse the answer receiving the BMU, its coordinates, its distance and its label
+   * @return the index of the BMU
+   */
+  public int chercher(final double[] donnee, final Reponse reponse) {
+    if (reponse.modele != this) {
+      throw new IllegalArgumentException("réponse créée par un autre modèle");
+    }
+    if (donnee.length != this.dimension) {
+      throw new IllegalArgumentException("donnée de dimension " + donnee.length + ", le modèle attend " + this.dimension);
+    }
+    double[] vecteur = donnee;
+    if (this.normaliser) {
+      vecteur = reponse.vecteur;
+      this.normaliser(donnee, 0, vecteur, 0);
+    }
+    final int taille = this.indicesEtiquettes.length;
+    int meilleur = 0;
+    double min = Double.POSITIVE_INFINITY;
+    for (int noeud = 0; noeud < taille; ++noeud) {
+      final double ecart = this.noyau.ecart(this.poids, noeud * this.dimension, vecteur, 0, this.dimension);
+      if (ecart < min) {
+        min = ecart;
+        meilleur = noeud;
+      }
+    }
+    reponse.noeud = meilleur;
+    reponse.distance = this.metrique.distance(min);
+    return meilleur;
+  }
+
+  /**
+   * Searches the BMU of a batch of records stored one after the other, as in
+   * MatriceDonnees.getValeurs. The records are compared with each node by blocks, so that the
+   * vector of a node is read once per block instead of once per record.
+   *
+   * @param donnees the records, nbDonnees * getDimension() values; not modified
+   * @param nbDonnees the number of records
+   * @param noeuds receives the index of the BMU of each record
+   * @param distances receives the distance of each record to its BMU, or null
+   */
+  public void chercher(final double[] donnees, final int nbDonnees, final int[] noeuds, final double[] distances) {
+    if ((long)nbDonnees * this.dimension > donnees.length) {
+      throw new IllegalArgumentException(donnees.length + " valeurs pour " + nbDonnees + " données de dimension " + this.dimension);
+    }
+    final int taille = this.indicesEtiquettes.length;
+    final double[] minimums = new double[Math.min(BLOC, nbDonnees)];
+    final double[] bloc = this.normaliser ? new double[minimums.length * this.dimension] : null;
+    for (int debut = 0; debut < nbDonnees; debut += BLOC) {
+      final int nb = Math.min(BLOC, nbDonnees - debut);
+      double[] vecteurs = donnees;
+      int decalage = debut * this.dimension;
+      if (bloc != null) {
+        for (int i = 0; i < nb; ++i) {
+          this.normaliser(donnees, (debut + i) * this.dimension, bloc, i * this.dimension);
+        }
+        vecteurs = bloc;
+        decalage = 0;
+      }
+      Arrays.fill(minimums, 0, nb, Double.POSITIVE_INFINITY);
+      for (int noeud = 0; noeud < taille; ++noeud) {
+        final int offset = noeud * this.dimension;
+        for (int i = 0; i < nb; ++i) {
+          final double ecart = this.noyau.ecart(this.poids, offset, vecteurs, decalage + i * this.dimension, this.dimension);
+          if (ecart < minimums[i]) {
+            minimums[i] = ecart;
+            noeuds[debut + i] = noeud;
+          }
+        }
+      }
+      if (distances != null) {
+        for (int i = 0; i < nb; ++i) {
+          distances[debut + i] = this.metrique.distance(minimums[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Divides a record by its Euclidean norm; a null record is copied unchanged.
+   */
+  private void normaliser(final double[] source, final int debutSource, final double[] dest, final int debutDest) {
+    double norme = 0.0;
+    for (int j = 0; j < this.dimension; ++j) {
+      norme += source[debutSource + j] * source[debutSource + j];
+    }
+    final double inverse = norme == 0.0 ? 1.0 : 1.0 / Math.sqrt(norme);
+    for (int j = 0; j < this.dimension; ++j) {
+      dest[debutDest + j] = source[debutSource + j] * inverse;
+    }
+  }
+
+  /**
+   * Answer of a single record query, reused from one query to the next.
+   * An answer belongs to one thread; the model it comes from can be shared.
+   */
+  public static final class Reponse {
+
+    private final Modele modele;
+
+    /** Normalized copy of the record. */
+    private final double[] vecteur;
+
+    /** Index of the BMU. */
+    private int noeud;
+
+    /** Distance of the record to the BMU. */
+    private double distance;
+
+    private Reponse(final Modele modele) {
+      this.modele = modele;
+      this.vecteur = new double[modele.dimension];
+    }
+
+    /**
+     * Returns the index of the BMU of the last query.
+     *
+     * @return the node index
+     */
+    public int getNoeud() {
+      return this.noeud;
+    }
+
+    /**
+     * Returns the row of the BMU of the last query.
+     *
+     * @return the row in the grid
+     */
+    public int getX() {
+      return this.noeud / this.modele.colonnes;
+    }
+
+    /**
+     * Returns the column of the BMU of the last query.
+     *
+     * @return the column in the grid
+     */
+    public int getY() {
+      return this.noeud % this.modele.colonnes;
+    }
+
+    /**
+     * Returns the distance of the metric between the record of the last query and its BMU.
+     *
+     * @return the distance
+     */
+    public double getDistance() {
+      return this.distance;
+    }
+
+    /**
+     * Returns the label of the BMU of the last query.
+     *
+     * @return the label, empty if the node has no label
+     */
+    public String getEtiquette() {
+      return this.modele.getEtiquette(this.noeud);
+    }
+  }
+
+  /**
+   * Maps the rows of a CSV file on a saved map without loading the file, and prints for each
+   * row the coordinates of its BMU, its distance and its label. When the file has labels, the
+   * share of rows whose label is the one of their BMU is printed at the end.
+   * Usage: java code.Modele carte.somc fichier.csv [memoireMo]
+   *
+   * @param args the checkpoint file, the CSV file (label in the last column) and optionally the
+   *     memory bound of the rows in MiB, 64 by default
+   * @throws IOException if a file cannot be read
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 2) {
+      System.out.println("usage : java code.Modele carte.somc fichier.csv [memoireMo]");
+      return;
+    }
+    final Modele modele = charger(args[0]);
+    final long memoireMax = (args.length > 2 ? Long.parseLong(args[2]) : 64L) << 20;
+    final Writer sortie = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+    final StringBuilder ligne = new StringBuilder();
+    long nbLignes = 0;
+    long nbCorrectes = 0;
+    final long debut = System.nanoTime();
+    try (LecteurCsv.Flux flux = new LecteurCsv().ouvrir(args[1], memoireMax, OCTETS_RESULTAT)) {
+      int[] noeuds = new int[0];
+      double[] distances = new double[0];
+      int nb;
+      while ((nb = flux.lireBloc()) > 0) {
+        final MatriceDonnees bloc = flux.getBloc();
+        if (bloc.getDimension() != modele.getDimension()) {
+          throw new IllegalArgumentException("données de dimension " + bloc.getDimension() + ", le modèle attend " + modele.getDimension());
+        }
+        if (noeuds.length < nb) {
+          noeuds = new int[nb];
+          distances = new double[nb];
+        }
+        modele.chercher(bloc.getValeurs(), nb, noeuds, distances);
+        for (int i = 0; i < nb; ++i) {
+          final String etiquette = modele.getEtiquette(noeuds[i]);
+          if (etiquette.equals(bloc.getLabel(i))) {
+            ++nbCorrectes;
+          }
+          ligne.setLength(0);
+          ligne.append(noeuds[i] / modele.colonnes).append('\t').append(noeuds[i] % modele.colonnes).append('\t')
+              .append(distances[i]).append('\t').append(etiquette).append('\n');
+          sortie.append(ligne);
+        }
+        nbLignes += nb;
+      }
+    }
+    sortie.flush();
+    final double secondes = (System.nanoTime() - debut) / 1e9;
+    System.err.println(nbLignes + " lignes en " + secondes + " s (" + (long)(nbLignes / secondes) + " lignes/s), étiquette du BMU correcte : "
+        + (nbLignes == 0 ? 0.0 : 100.0 * nbCorrectes / nbLignes) + " %");
+  }
+}
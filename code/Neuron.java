@@ -9,7 +9,7 @@ package code;
  */
 public class Neuron {
 
-  /** Reference data vector associated with this node. */
+  /** Reference data vector associated with this node (a read-only view on the codebook once the grid is built). */
   private Weight w;
 
   /** Label assigned to this node, typically the class of the closest input. */
@@ -0,0 +1,101 @@
+package code;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels of the metrics written with the Vector API.
+ * Compiling and running this class needs --add-modules jdk.incubator.vector; code.Metrique
+ * only loads it through reflection and falls back to scalar loops when it cannot.
+ * Each metric has its own small method so that the vector operations stay intrinsified.
+ *
+ * @author Fab.16
+ */
+final class NoyauVectoriel {
+
+  /** Widest vector shape of the processor. */
+  private static final VectorSpecies<Double> ESPECE = DoubleVector.SPECIES_PREFERRED;
+
+  /** Below this dimension the reductions cost more than the vectors save. */
+  private static final int DIMENSION_MIN = 2 * ESPECE.length();
+
+  private NoyauVectoriel() {
+  }
+
+  /**
+   * Returns the kernels, indexed by the ordinal of the metric.
+   *
+   * @return the vectorized kernels
+   * @throws UnsupportedOperationException if the processor has no vector of two doubles
+   */
+  static Metrique.Noyau[] noyaux() {
+    if (ESPECE.length() < 2) {
+      throw new UnsupportedOperationException("vecteurs de " + ESPECE.length() + " double");
+    }
+    return new Metrique.Noyau[] {NoyauVectoriel::euclidienne, NoyauVectoriel::manhattan, NoyauVectoriel::cosinus};
+  }
+
+  private static double euclidienne(final double[] a, final int debutA, final double[] b, final int debutB, final int n) {
+    if (n < DIMENSION_MIN) {
+      return Metrique.euclidienne(a, debutA, b, debutB, n);
+    }
+    final int borne = ESPECE.loopBound(n);
+    DoubleVector somme = DoubleVector.zero(ESPECE);
+    int j = 0;
+    for (; j < borne; j += ESPECE.length()) {
+      final DoubleVector diff = DoubleVector.fromArray(ESPECE, a, debutA + j).sub(DoubleVector.fromArray(ESPECE, b, debutB + j));
+      somme = diff.fma(diff, somme);
+    }
+    double resultat = somme.reduceLanes(VectorOperators.ADD);
+    for (; j < n; ++j) {
+      final double diff = a[debutA + j] - b[debutB + j];
+      resultat += diff * diff;
+    }
+    return resultat;
+  }
+
+  private static double manhattan(final double[] a, final int debutA, final double[] b, final int debutB, final int n) {
+    if (n < DIMENSION_MIN) {
+      return Metrique.manhattan(a, debutA, b, debutB, n);
+    }
+    final int borne = ESPECE.loopBound(n);
+    DoubleVector somme = DoubleVector.zero(ESPECE);
+    int j = 0;
+    for (; j < borne; j += ESPECE.length()) {
+      somme = somme.add(DoubleVector.fromArray(ESPECE, a, debutA + j).sub(DoubleVector.fromArray(ESPECE, b, debutB + j)).abs());
+    }
+    double resultat = somme.reduceLanes(VectorOperators.ADD);
+    for (; j < n; ++j) {
+      resultat += Math.abs(a[debutA + j] - b[debutB + j]);
+    }
+    return resultat;
+  }
+
+  private static double cosinus(final double[] a, final int debutA, final double[] b, final int debutB, final int n) {
+    if (n < DIMENSION_MIN) {
+      return Metrique.cosinus(a, debutA, b, debutB, n);
+    }
+    final int borne = ESPECE.loopBound(n);
+    DoubleVector produit = DoubleVector.zero(ESPECE);
+    DoubleVector normeA = DoubleVector.zero(ESPECE);
+    DoubleVector normeB = DoubleVector.zero(ESPECE);
+    int j = 0;
+    for (; j < borne; j += ESPECE.length()) {
+      final DoubleVector va = DoubleVector.fromArray(ESPECE, a, debutA + j);
+      final DoubleVector vb = DoubleVector.fromArray(ESPECE, b, debutB + j);
+      produit = va.fma(vb, produit);
+      normeA = va.fma(va, normeA);
+      normeB = vb.fma(vb, normeB);
+    }
+    double p = produit.reduceLanes(VectorOperators.ADD);
+    double na = normeA.reduceLanes(VectorOperators.ADD);
+    double nb = normeB.reduceLanes(VectorOperators.ADD);
+    for (; j < n; ++j) {
+      p += a[debutA + j] * b[debutB + j];
+      na += a[debutA + j] * a[debutA + j];
+      nb += b[debutB + j] * b[debutB + j];
+    }
+    return Metrique.cosinus(p, na, nb);
+  }
+}
@@ -0,0 +1,219 @@
+package code;
+
+/**
+ * Schedule of the online training: how long it lasts and how the learning rate decreases.
+ * The length is either a number of epochs or a total number of updates, independent of the
+ * size of the data set, except for the HISTORIQUE preset which reproduces the original
+ * behaviour of rapprochement (5 * N epochs over the N rows).
+ *
+ * @author Fab.16
+ */
+public class Planning {
+
+  /** Decrease of the learning rate. */
+  public enum Type {
+    /** Original rule: 0.7 during the first fifth of the epochs (plus one), then 0.007. */
+    HISTORIQUE,
+    /** alpha = a0 + (a1 - a0) t */
+    LINEAIRE,
+    /** alpha = a0 (a1 / a0)^t */
+    EXPONENTIELLE,
+    /** alpha = a0 / (1 + (a0 / a1 - 1) t) */
+    INVERSE
+  }
+
+  /** Decrease of the learning rate. */
+  private final Type type;
+
+  /** Learning rate at the start of the training. */
+  private final double alphaInitial;
+
+  /** Learning rate at the end of the training. */
+  private final double alphaFinal;
+
+  /** Number of epochs, or 0 when the length is given as a number of updates. */
+  private final int nbEpoques;
+
+  /** Total number of updates, or 0 when the length is given as a number of epochs. */
+  private final long nbMisesAJour;
+
+  private Planning(final Type type, final double alphaInitial, final double alphaFinal, final int nbEpoques, final long nbMisesAJour) {
+    if (type != Type.HISTORIQUE && (alphaInitial <= 0.0 || alphaFinal <= 0.0)) {
+      throw new IllegalArgumentException("taux d'apprentissage invalide : " + alphaInitial + ", " + alphaFinal);
+    }
+    this.type = type;
+    this.alphaInitial = alphaInitial;
+    this.alphaFinal = alphaFinal;
+    this.nbEpoques = nbEpoques;
+    this.nbMisesAJour = nbMisesAJour;
+  }
+
+  /**
+   * Returns the original schedule of rapprochement: 5 * N epochs, alpha 0.7 then 0.007,
+   * and a square neighbourhood of radius 3, 2 then 1.
+   *
+   * @return the legacy schedule
+   */
+  public static Planning historique() {
+    return new Planning(Type.HISTORIQUE, 0.7, 0.007, 0, 0);
+  }
+
+  /**
+   * Returns a schedule lasting a fixed number of epochs.
+   *
+   * @param type the decrease of the learning rate
+   * @param alphaInitial the learning rate at the start
+   * @param alphaFinal the learning rate at the end
+   * @param nbEpoques the number of epochs, at least 1
+   * @return the schedule
+   */
+  public static Planning epoques(final Type type, final double alphaInitial, final double alphaFinal, final int nbEpoques) {
+    if (nbEpoques < 1) {
+      throw new IllegalArgumentException("nombre d'époques invalide : " + nbEpoques);
+    }
+    return new Planning(type, alphaInitial, alphaFinal, nbEpoques, 0);
+  }
+
+  /**
+   * Returns a schedule lasting a fixed number of updates (one update per row presented).
+   *
+   * @param type the decrease of the learning rate
+   * @param alphaInitial the learning rate at the start
+   * @param alphaFinal the learning rate at the end
+   * @param nbMisesAJour the total number of updates, at least 1
+   * @return the schedule
+   */
+  public static Planning misesAJour(final Type type, final double alphaInitial, final double alphaFinal, final long nbMisesAJour) {
+    if (nbMisesAJour < 1) {
+      throw new IllegalArgumentException("nombre de mises à jour invalide : " + nbMisesAJour);
+    }
+    return new Planning(type, alphaInitial, alphaFinal, 0, nbMisesAJour);
+  }
+
+  /**
+   * Rebuilds a schedule from its fields, as saved by code.Sauvegarde.
+   */
+  static Planning restaurer(final Type type, final double alphaInitial, final double alphaFinal, final int nbEpoques, final long nbMisesAJour) {
+    return new Planning(type, alphaInitial, alphaFinal, nbEpoques, nbMisesAJour);
+  }
+
+  /**
+   * Returns the decrease of the learning rate.
+   *
+   * @return the type of the schedule
+   */
+  public Type getType() {
+    return this.type;
+  }
+
+  /**
+   * Returns the learning rate at the start of the training.
+   *
+   * @return the initial learning rate
+   */
+  public double getAlphaInitial() {
+    return this.alphaInitial;
+  }
+
+  /**
+   * Returns the learning rate at the end of the training.
+   *
+   * @return the final learning rate
+   */
+  public double getAlphaFinal() {
+    return this.alphaFinal;
+  }
+
+  /**
+   * Returns the number of epochs given to the schedule.
+   *
+   * @return the number of epochs, or 0 when the length is a number of updates or the preset one
+   */
+  int getEpoquesFixees() {
+    return this.nbEpoques;
+  }
+
+  /**
+   * Returns the number of updates given to the schedule.
+   *
+   * @return the number of updates, or 0 when the length is a number of epochs or the preset one
+   */
+  long getMisesAJourFixees() {
+    return this.nbMisesAJour;
+  }
+
+  /**
+   * Returns the number of epochs for a data set.
+   *
+   * @param nbDonnees the number of rows
+   * @return the number of epochs, the last one possibly incomplete
+   */
+  public int nbEpoques(final int nbDonnees) {
+    if (this.type == Type.HISTORIQUE) {
+      return 5 * nbDonnees;
+    }
+    if (this.nbEpoques > 0) {
+      return this.nbEpoques;
+    }
+    return (int)Math.min(Integer.MAX_VALUE, (this.nbMisesAJour + nbDonnees - 1) / Math.max(1, nbDonnees));
+  }
+
+  /**
+   * Returns the total number of updates for a data set.
+   *
+   * @param nbDonnees the number of rows
+   * @return the number of updates
+   */
+  public long nbMisesAJour(final int nbDonnees) {
+    if (this.nbMisesAJour > 0) {
+      return this.nbMisesAJour;
+    }
+    return (long)this.nbEpoques(nbDonnees) * nbDonnees;
+  }
+
+  /**
+   * Returns the learning rate of an update.
+   *
+   * @param epoque the current epoch
+   * @param nbEpoques the number of epochs
+   * @param miseAJour the number of updates already done
+   * @param total the total number of updates
+   * @return the learning rate
+   */
+  public double alpha(final int epoque, final int nbEpoques, final long miseAJour, final long total) {
+    if (this.type == Type.HISTORIQUE) {
+      // the original loop lowered alpha at the end of the first epoch past the first fifth
+      return epoque - 1 < 0.2 * nbEpoques ? this.alphaInitial : this.alphaFinal;
+    }
+    final double t = total <= 1 ? 0.0 : (double)miseAJour / (total - 1);
+    switch (this.type) {
+      case EXPONENTIELLE:
+        return this.alphaInitial * Math.pow(this.alphaFinal / this.alphaInitial, t);
+      case INVERSE:
+        return this.alphaInitial / (1.0 + (this.alphaInitial / this.alphaFinal - 1.0) * t);
+      case LINEAIRE:
+      default:
+        return this.alphaInitial + (this.alphaFinal - this.alphaInitial) * t;
+    }
+  }
+
+  /**
+   * Returns the radius of the square neighbourhood of an epoch when no neighbourhood function
+   * is set: 3, 2 then 1 over the first fifth of the epochs, then 1.
+   *
+   * @param epoque the current epoch
+   * @param nbEpoques the number of epochs
+   * @return the radius
+   */
+  public int rayon(final int epoque, final int nbEpoques) {
+    if (epoque < 0.2 * nbEpoques) {
+      if (epoque < 0.2 * nbEpoques / 3.0) {
+        return 3;
+      }
+      if (epoque < 2.0 * (0.2 * nbEpoques / 3.0)) {
+        return 2;
+      }
+    }
+    return 1;
+  }
+}
@@ -0,0 +1,385 @@
+package code;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Approximate search of the BMU for very large maps.
+ * The nodes are indexed by a forest of random projection trees: each tree splits the nodes at
+ * the median of their projection on a random direction until a leaf holds at most FEUILLE
+ * nodes. A query descends every tree to one leaf and keeps the best node of the leaves, and
+ * of the BMU the same row had the last time it was presented. It then walks the grid from
+ * that node to the best of its neighbours as long as one is closer: on a trained map
+ * close vectors sit on close nodes, so the walk corrects most of the misses of the trees.
+ *
+ * The codebook moves during the training, so the forest is rebuilt every `periode` queries;
+ * in between the trees only choose the candidates, whose ecarts are always computed on the
+ * current vectors. More trees give a higher recall for a higher cost. Every `controle`
+ * queries, the result is compared with an exact search to measure the error rate.
+ * An instance keeps the state of its last query and must not be shared between threads.
+ *
+ * @author Fab.16
+ */
+public class RechercheApprochee {
+
+  /** Maximum number of nodes in a leaf. */
+  private static final int FEUILLE = 32;
+
+  /** Codebook searched. */
+  private final Codebook codebook;
+
+  /** Number of trees of the forest. */
+  private final int nbArbres;
+
+  /** Number of queries between two rebuilds of the forest. */
+  private final int periode;
+
+  /** Number of queries between two exact checks, 0 for none. */
+  private int controle;
+
+  /** Source of the random directions. */
+  private final SplittableRandom aleatoire;
+
+  /** Number of internal nodes of a tree, in heap order from 1. */
+  private final int nbInternes;
+
+  /** Nodes of the codebook in the order of the leaves, one array per tree. */
+  private final int[][] ordres;
+
+  /** Projection direction of each internal node, one flat array per tree. */
+  private final double[][] directions;
+
+  /** Split value of each internal node, one array per tree. */
+  private final double[][] seuils;
+
+  /** Projections of the nodes while a tree is built. */
+  private final double[] projections;
+
+  /** Last BMU found for each row, -1 when unknown. */
+  private int[] precedents = new int[0];
+
+  /** Number of queries since the last rebuild. */
+  private int depuisConstruction;
+
+  /** Number of queries. */
+  private long requetes;
+
+  /** Number of exact checks. */
+  private long controles;
+
+  /** Number of exact checks where the approximate BMU was not at the smallest ecart. */
+  private long erreurs;
+
+  /** Ecart of the last BMU found. */
+  private double ecart;
+
+  /** Second best node seen by the last query. */
+  private int second;
+
+  /**
+   * Constructs an approximate search.
+   *
+   * @param codebook the codebook to search
+   * @param nbArbres the number of trees, at least 1; more trees give a higher recall
+   * @param periode the number of queries between two rebuilds of the forest, at least 1
+   * @param aleatoire the stream of the random directions, used only by this search
+   */
+  public RechercheApprochee(final Codebook codebook, final int nbArbres, final int periode, final SplittableRandom aleatoire) {
+    if (nbArbres < 1 || periode < 1) {
+      throw new IllegalArgumentException("paramètres de recherche invalides : " + nbArbres + ", " + periode);
+    }
+    this.codebook = codebook;
+    this.nbArbres = nbArbres;
+    this.periode = periode;
+    this.aleatoire = aleatoire;
+    final int taille = codebook.getTaille();
+    int internes = 1;
+    while (internes * FEUILLE < taille) {
+      internes <<= 1;
+    }
+    this.nbInternes = internes;
+    this.ordres = new int[nbArbres][taille];
+    this.directions = new double[nbArbres][internes * codebook.getDimension()];
+    this.seuils = new double[nbArbres][internes];
+    this.projections = new double[taille];
+    this.construire();
+  }
+
+  /**
+   * Sets how often the result is checked against an exact search.
+   *
+   * @param controle the number of queries between two checks, 0 to never check
+   */
+  public void setControle(final int controle) {
+    this.controle = controle;
+  }
+
+  /**
+   * Returns the number of queries checked against an exact search.
+   *
+   * @return the number of checks
+   */
+  public long getControles() {
+    return this.controles;
+  }
+
+  /**
+   * Returns the share of the checked queries whose BMU was not at the smallest ecart.
+   *
+   * @return the error rate, or NaN before the first check
+   */
+  public double getTauxErreur() {
+    return this.controles == 0 ? Double.NaN : (double)this.erreurs / this.controles;
+  }
+
+  /**
+   * Returns the ecart between the vector of the last query and its BMU.
+   *
+   * @return the ecart
+   */
+  public double getEcart() {
+    return this.ecart;
+  }
+
+  /**
+   * Returns the second best node among those evaluated by the last query.
+   *
+   * @return the node index, or -1 if only one node was evaluated
+   */
+  public int getSecond() {
+    return this.second;
+  }
+
+  /**
+   * Searches the BMU of a vector.
+   *
+   * @param donnee the vector
+   * @return the index of the approximate BMU
+   */
+  public int chercher(final double[] donnee) {
+    return this.chercher(donnee, -1);
+  }
+
+  /**
+   * Searches the BMU of a row of the data set, starting from its BMU of the previous query.
+   *
+   * @param donnee the vector of the row
+   * @param ligne the index of the row, or -1 for a vector without history
+   * @return the index of the approximate BMU
+   */
+  public int chercher(final double[] donnee, final int ligne) {
+    if (this.depuisConstruction == this.periode) {
+      this.construire();
+    }
+    ++this.depuisConstruction;
+    ++this.requetes;
+    final Codebook codebook = this.codebook;
+    final int dimension = codebook.getDimension();
+    final int taille = codebook.getTaille();
+    int meilleur = -1;
+    double min = Double.POSITIVE_INFINITY;
+    this.second = -1;
+    double minSecond = Double.POSITIVE_INFINITY;
+    if (ligne >= 0 && ligne < this.precedents.length && this.precedents[ligne] >= 0) {
+      meilleur = this.precedents[ligne];
+      min = codebook.ecart(meilleur, donnee);
+    }
+    for (int a = 0; a < this.nbArbres; ++a) {
+      final double[] direction = this.directions[a];
+      final double[] seuil = this.seuils[a];
+      int noeud = 1;
+      int debut = 0;
+      int fin = taille;
+      while (fin - debut > FEUILLE) {
+        final int milieu = (debut + fin) >>> 1;
+        if (produit(direction, (noeud - 1) * dimension, donnee, dimension) < seuil[noeud - 1]) {
+          fin = milieu;
+          noeud = 2 * noeud;
+        }
+        else {
+          debut = milieu;
+          noeud = 2 * noeud + 1;
+        }
+      }
+      final int[] ordre = this.ordres[a];
+      for (int i = debut; i < fin; ++i) {
+        final int candidat = ordre[i];
+        if (candidat == meilleur) {
+          continue;
+        }
+        final double e = codebook.ecart(candidat, donnee);
+        if (e < min || (e == min && candidat < meilleur)) {
+          this.second = meilleur;
+          minSecond = min;
+          min = e;
+          meilleur = candidat;
+        }
+        else if (e < minSecond && candidat != this.second) {
+          this.second = candidat;
+          minSecond = e;
+        }
+      }
+    }
+    // walk the grid towards a closer neighbour
+    final Topologie topologie = codebook.getTopologie();
+    boolean ameliore = true;
+    while (ameliore) {
+      ameliore = false;
+      int suivant = meilleur;
+      double minSuivant = min;
+      for (int i = 0; i < topologie.getNbVoisins(meilleur); ++i) {
+        final int voisin = topologie.getVoisin(meilleur, i);
+        final double e = codebook.ecart(voisin, donnee);
+        if (e < minSuivant) {
+          minSuivant = e;
+          suivant = voisin;
+        }
+        else if (e < minSecond && voisin != suivant) {
+          this.second = voisin;
+          minSecond = e;
+        }
+      }
+      if (suivant != meilleur) {
+        this.second = meilleur;
+        minSecond = min;
+        meilleur = suivant;
+        min = minSuivant;
+        ameliore = true;
+      }
+    }
+    this.ecart = min;
+    if (ligne >= 0) {
+      if (ligne >= this.precedents.length) {
+        final int ancienne = this.precedents.length;
+        this.precedents = Arrays.copyOf(this.precedents, Math.max(ligne + 1, 2 * ancienne));
+        Arrays.fill(this.precedents, ancienne, this.precedents.length, -1);
+      }
+      this.precedents[ligne] = meilleur;
+    }
+    if (this.controle > 0 && this.requetes % this.controle == 0) {
+      ++this.controles;
+      if (codebook.ecart(codebook.plusProche(donnee), donnee) < min) {
+        ++this.erreurs;
+      }
+    }
+    return meilleur;
+  }
+
+  /**
+   * Measures the error rate on rows of a data set, without changing the history of the rows.
+   *
+   * @param donnees the data set
+   * @param nbEchantillons the number of rows checked, spread evenly over the data set
+   * @return the share of the rows whose approximate BMU is not at the smallest ecart
+   */
+  public double mesurerErreur(final Donnees donnees, final int nbEchantillons) {
+    final int n = Math.min(nbEchantillons, donnees.getLignes());
+    final double[] donnee = new double[donnees.getDimension()];
+    int manques = 0;
+    for (int i = 0; i < n; ++i) {
+      donnees.copierLigne((int)((long)i * donnees.getLignes() / n), donnee);
+      final int approche = this.chercher(donnee);
+      if (this.codebook.ecart(this.codebook.plusProche(donnee), donnee) < this.codebook.ecart(approche, donnee)) {
+        ++manques;
+      }
+    }
+    return n == 0 ? 0.0 : (double)manques / n;
+  }
+
+  /**
+   * Rebuilds every tree of the forest on the current vectors of the codebook.
+   */
+  private void construire() {
+    this.depuisConstruction = 0;
+    final int dimension = this.codebook.getDimension();
+    for (int a = 0; a < this.nbArbres; ++a) {
+      final int[] ordre = this.ordres[a];
+      for (int i = 0; i < ordre.length; ++i) {
+        ordre[i] = i;
+      }
+      final double[] direction = this.directions[a];
+      for (int i = 0; i < this.nbInternes * dimension; ++i) {
+        direction[i] = this.aleatoire.nextGaussian();
+      }
+      this.separer(a, 1, 0, ordre.length);
+    }
+  }
+
+  /**
+   * Splits the nodes of [debut, fin[ of a tree at the median of their projection.
+   */
+  private void separer(final int arbre, final int noeud, final int debut, final int fin) {
+    if (fin - debut <= FEUILLE) {
+      return;
+    }
+    final int dimension = this.codebook.getDimension();
+    final double[] poids = this.codebook.getPoids();
+    final int[] ordre = this.ordres[arbre];
+    final double[] direction = this.directions[arbre];
+    for (int i = debut; i < fin; ++i) {
+      this.projections[i] = produit(direction, (noeud - 1) * dimension, poids, ordre[i] * dimension, dimension);
+    }
+    final int milieu = (debut + fin) >>> 1;
+    selectionner(this.projections, ordre, debut, fin - 1, milieu);
+    this.seuils[arbre][noeud - 1] = this.projections[milieu];
+    this.separer(arbre, 2 * noeud, debut, milieu);
+    this.separer(arbre, 2 * noeud + 1, milieu, fin);
+  }
+
+  /**
+   * Dot product of a direction with a vector starting at index 0.
+   */
+  private static double produit(final double[] direction, final int debut, final double[] vecteur, final int dimension) {
+    return produit(direction, debut, vecteur, 0, dimension);
+  }
+
+  /**
+   * Dot product of a direction with a vector stored in a larger array.
+   */
+  private static double produit(final double[] direction, final int debut, final double[] vecteur, final int debutVecteur, final int dimension) {
+    double somme = 0.0;
+    for (int j = 0; j < dimension; ++j) {
+      somme += direction[debut + j] * vecteur[debutVecteur + j];
+    }
+    return somme;
+  }
+
+  /**
+   * Reorders cles[gauche..droite], and ordre alongside, so that the k-th smallest key is at
+   * position k with no greater key before it and no smaller key after it (quickselect).
+   */
+  private static void selectionner(final double[] cles, final int[] ordre, int gauche, int droite, final int k) {
+    while (gauche < droite) {
+      final double pivot = cles[(gauche + droite) >>> 1];
+      int i = gauche;
+      int j = droite;
+      while (i <= j) {
+        while (cles[i] < pivot) {
+          ++i;
+        }
+        while (cles[j] > pivot) {
+          --j;
+        }
+        if (i <= j) {
+          final double cle = cles[i];
+          cles[i] = cles[j];
+          cles[j] = cle;
+          final int tmp = ordre[i];
+          ordre[i] = ordre[j];
+          ordre[j] = tmp;
+          ++i;
+          --j;
+        }
+      }
+      if (k <= j) {
+        droite = j;
+      }
+      else if (k >= i) {
+        gauche = i;
+      }
+      else {
+        return;
+      }
+    }
+  }
+}
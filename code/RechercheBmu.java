@@ -0,0 +1,195 @@
+package code;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parallel search of the best matching units (BMUs) of an input vector.
+ * The grid is split into stripes of rows processed on a ForkJoinPool. Each stripe computes
+ * the distance of its nodes to the input vector and its own minimum with the list of ties,
+ * then the partial results are merged pairwise, keeping the row-major order of the ties.
+ *
+ * @author Fab.16
+ */
+public class RechercheBmu {
+
+  /** Codebook holding the reference vectors of the grid. */
+  private final Codebook codebook;
+
+  /** Pool running the stripes. */
+  private final ForkJoinPool pool;
+
+  /** Maximum number of rows processed by a single task. */
+  private final int lignesParTache;
+
+  /**
+   * Constructs a parallel search on the given codebook.
+   *
+   * @param codebook the codebook of the grid
+   * @param nbThreads the number of threads of the pool
+   */
+  public RechercheBmu(final Codebook codebook, final int nbThreads) {
+    this.codebook = codebook;
+    this.pool = new ForkJoinPool(nbThreads);
+    // a few stripes per thread so that work stealing can balance the load
+    this.lignesParTache = Math.max(1, codebook.getLignes() / (4 * nbThreads));
+  }
+
+  /**
+   * Returns the number of threads of the pool.
+   *
+   * @return the parallelism
+   */
+  public int getNbThreads() {
+    return this.pool.getParallelism();
+  }
+
+  /**
+   * Computes the ecart (see Codebook.ecart) between the input vector and every node, and
+   * returns the nodes with the smallest one.
+   *
+   * @param donnee the input vector
+   * @param distances the array receiving one ecart per node
+   * @return the minimum ecart and the indices of all the nodes reaching it, in row-major order
+   */
+  public Minimum chercher(final double[] donnee, final double[] distances) {
+    return this.pool.invoke(new Bande(donnee, distances, 0, this.codebook.getLignes()));
+  }
+
+  /**
+   * Stops the threads of the pool.
+   */
+  public void fermer() {
+    this.pool.shutdown();
+  }
+
+  /**
+   * Minimum distance over a set of nodes, with every node reaching it.
+   */
+  public static final class Minimum {
+
+    /** Smallest distance found. */
+    private double valeur = Double.POSITIVE_INFINITY;
+
+    /** Indices of the nodes at the smallest distance. */
+    private int[] noeuds = new int[4];
+
+    /** Number of valid entries in noeuds. */
+    private int nombre;
+
+    /**
+     * Returns the smallest distance found.
+     *
+     * @return the minimum distance
+     */
+    public double getValeur() {
+      return this.valeur;
+    }
+
+    /**
+     * Returns the number of nodes at the smallest distance.
+     *
+     * @return the number of ties
+     */
+    public int getNombre() {
+      return this.nombre;
+    }
+
+    /**
+     * Returns the index of the i-th node at the smallest distance.
+     *
+     * @param i the position in the list of ties
+     * @return the node index
+     */
+    public int getNoeud(final int i) {
+      return this.noeuds[i];
+    }
+
+    /**
+     * Takes a node into account.
+     *
+     * @param noeud the node index
+     * @param distance its distance to the input vector
+     */
+    void proposer(final int noeud, final double distance) {
+      if (distance < this.valeur) {
+        this.valeur = distance;
+        this.nombre = 0;
+      }
+      if (distance == this.valeur) {
+        this.ajouter(noeud);
+      }
+    }
+
+    /**
+     * Merges the result of the following stripe into this one.
+     *
+     * @param suite the minimum of the stripe located after this one
+     * @return the merged minimum
+     */
+    Minimum fusionner(final Minimum suite) {
+      if (suite.valeur < this.valeur) {
+        return suite;
+      }
+      if (suite.valeur == this.valeur) {
+        for (int i = 0; i < suite.nombre; ++i) {
+          this.ajouter(suite.noeuds[i]);
+        }
+      }
+      return this;
+    }
+
+    private void ajouter(final int noeud) {
+      if (this.nombre == this.noeuds.length) {
+        final int[] plusGrand = new int[2 * this.nombre];
+        System.arraycopy(this.noeuds, 0, plusGrand, 0, this.nombre);
+        this.noeuds = plusGrand;
+      }
+      this.noeuds[this.nombre++] = noeud;
+    }
+  }
+
+  /**
+   * Task computing the minimum over a range of rows, split in two while it is too large.
+   */
+  private final class Bande extends RecursiveTask<Minimum> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double[] donnee;
+
+    private final double[] distances;
+
+    private final int debut;
+
+    private final int fin;
+
+    Bande(final double[] donnee, final double[] distances, final int debut, final int fin) {
+      this.donnee = donnee;
+      this.distances = distances;
+      this.debut = debut;
+      this.fin = fin;
+    }
+
+    @Override
+    protected Minimum compute() {
+      if (this.fin - this.debut > RechercheBmu.this.lignesParTache) {
+        final int milieu = (this.debut + this.fin) >>> 1;
+        final Bande droite = new Bande(this.donnee, this.distances, milieu, this.fin);
+        droite.fork();
+        final Minimum gauche = new Bande(this.donnee, this.distances, this.debut, milieu).compute();
+        return gauche.fusionner(droite.join());
+      }
+      final Codebook codebook = RechercheBmu.this.codebook;
+      final Minimum minimum = new Minimum();
+      final int premier = codebook.indice(this.debut, 0);
+      final int dernier = codebook.indice(this.fin, 0);
+      for (int noeud = premier; noeud < dernier; ++noeud) {
+        final double ecart = codebook.ecart(noeud, this.donnee);
+        this.distances[noeud] = ecart;
+        minimum.proposer(noeud, ecart);
+      }
+      return minimum;
+    }
+  }
+}
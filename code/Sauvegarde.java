@@ -0,0 +1,431 @@
+package code;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Checkpoint of a training in a binary file, to resume it after the process stopped.
+ * A checkpoint holds the codebook and the shape of its grid, the position in the schedule,
+ * the seeds of the random choices, the tie policy of the BMU search and the label of each node.
+ * The whole file is built in a direct buffer kept between two checkpoints, the reference vectors
+ * being copied in a single bulk put, then written to a temporary name, forced to the disk and
+ * renamed, so that the previous checkpoint stays whole until the new one replaces it.
+ *
+ * Only a checkpoint whose nodes are labelled can be served by code.Modele: the one written by
+ * Traitement.sauvegarder after Traitement.distanceEuclidienneInverse, or the last one of an
+ * online training with Traitement.setSauvegarde. The checkpoints written during the training
+ * hold no labels and can only be resumed (Traitement.reprendre).
+ *
+ * The file is little-endian:
+ * <pre>
+ *   int    magic ("SOMC")
+ *   int    version
+ *   int    lattice (ordinal of Topologie.Maille)
+ *   int    flags (bit 0: toroidal grid, bit 1: neighbourhood function saved, bit 2: nodes labelled)
+ *   int    number of rows of the grid
+ *   int    number of columns of the grid
+ *   int    dimension
+ *   int    metric (ordinal of Metrique)
+ *   int    tie policy of the BMU search (ordinal of SelectionBmu.Egalite)
+ *   long   seed of the processing (Traitement.setGraine)
+ *   long   seed of the training session
+ *   int    next epoch
+ *   int    number of rows of the data set
+ *   long   number of updates done
+ *   int    type of the schedule, int its number of epochs, double its initial and final
+ *          learning rates, long its number of updates
+ *   int    shape and int decrease of the neighbourhood function, double its initial and final radius
+ *   int    number of labels (0 when the nodes are not labelled), followed for each label by its length and its UTF-8 bytes
+ *   int    index of the label of each node, -1 for none or when the nodes are not labelled
+ *   ...    padding to a multiple of 8 bytes
+ *   double reference vectors of all the nodes, as in the codebook
+ *   long   CRC-32 of all the bytes before it
+ * </pre>
+ *
+ * @author Fab.16
+ */
+public class Sauvegarde {
+
+  /** Usual extension of the checkpoint files. */
+  public static final String EXTENSION = ".somc";
+
+  /** First bytes of a checkpoint ("SOMC" in little-endian). */
+  private static final int MAGIC = 0x434D4F53;
+
+  /** Version of the format. */
+  private static final int VERSION = 3;
+
+  /** Flag set for a toroidal grid. */
+  private static final int TORIQUE = 1;
+
+  /** Flag set when a neighbourhood function is saved. */
+  private static final int VOISINAGE = 2;
+
+  /** Flag set when the nodes are labelled. */
+  private static final int ETIQUETTES = 4;
+
+  /** Size of the fields before the labels. */
+  private static final int ENTETE = 128;
+
+  /** File of the checkpoints. */
+  private final Path fichier;
+
+  /** Buffer of the file, kept between two checkpoints. */
+  private ByteBuffer tampon;
+
+  /**
+   * Constructs the checkpoints of a file.
+   *
+   * @param nomFichier the name of the file
+   */
+  public Sauvegarde(final String nomFichier) {
+    this.fichier = Paths.get(nomFichier);
+  }
+
+  /**
+   * Returns the file of the checkpoints.
+   *
+   * @return the path of the file
+   */
+  public Path getFichier() {
+    return this.fichier;
+  }
+
+  /**
+   * Writes a checkpoint, replacing the previous one only once it is complete.
+   *
+   * @param etat the state of the training
+   * @throws IOException if the file cannot be written
+   */
+  public void ecrire(final Etat etat) throws IOException {
+    final Codebook codebook = etat.codebook;
+    final Topologie topologie = codebook.getTopologie();
+    final List<String> dictionnaire = new ArrayList<String>();
+    final Map<String, Integer> rangs = new HashMap<String, Integer>();
+    final int[] indices = new int[codebook.getTaille()];
+    int tailleLabels = 0;
+    for (int noeud = 0; noeud < indices.length; ++noeud) {
+      final String etiquette = etat.etiquettes == null ? null : etat.etiquettes[noeud];
+      if (etiquette == null || etiquette.isEmpty()) {
+        indices[noeud] = -1;
+        continue;
+      }
+      Integer indice = rangs.get(etiquette);
+      if (indice == null) {
+        indice = dictionnaire.size();
+        rangs.put(etiquette, indice);
+        dictionnaire.add(etiquette);
+        tailleLabels += 4 + etiquette.getBytes(StandardCharsets.UTF_8).length;
+      }
+      indices[noeud] = indice;
+    }
+    final int entete = aligner(ENTETE + tailleLabels + 4 * indices.length);
+    final long taille = entete + 8L * codebook.getPoids().length + 8;
+    if (taille > Integer.MAX_VALUE) {
+      throw new IOException("codebook trop grand pour une sauvegarde : " + taille + " octets");
+    }
+    if (this.tampon == null || this.tampon.capacity() < taille) {
+      this.tampon = ByteBuffer.allocateDirect((int)taille).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    final ByteBuffer tampon = this.tampon;
+    tampon.clear();
+    tampon.putInt(MAGIC);
+    tampon.putInt(VERSION);
+    tampon.putInt(topologie.getMaille().ordinal());
+    tampon.putInt((topologie.isTorique() ? TORIQUE : 0) | (etat.voisinage != null ? VOISINAGE : 0) | (etat.etiquettes != null ? ETIQUETTES : 0));
+    tampon.putInt(topologie.getLignes());
+    tampon.putInt(topologie.getColonnes());
+    tampon.putInt(codebook.getDimension());
+    tampon.putInt(codebook.getMetrique().ordinal());
+    tampon.putInt(etat.egalite.ordinal());
+    tampon.putLong(etat.graine);
+    tampon.putLong(etat.graineSession);
+    tampon.putInt(etat.epoque);
+    tampon.putInt(etat.nbDonnees);
+    tampon.putLong(etat.miseAJour);
+    tampon.putInt(etat.planning.getType().ordinal());
+    tampon.putInt(etat.planning.getEpoquesFixees());
+    tampon.putDouble(etat.planning.getAlphaInitial());
+    tampon.putDouble(etat.planning.getAlphaFinal());
+    tampon.putLong(etat.planning.getMisesAJourFixees());
+    final Voisinage voisinage = etat.voisinage;
+    tampon.putInt(voisinage == null ? 0 : voisinage.getForme().ordinal());
+    tampon.putInt(voisinage == null ? 0 : voisinage.getDecroissance().ordinal());
+    tampon.putDouble(voisinage == null ? 0.0 : voisinage.getRayonInitial());
+    tampon.putDouble(voisinage == null ? 0.0 : voisinage.getRayonFinal());
+    tampon.putInt(dictionnaire.size());
+    for (final String label : dictionnaire) {
+      final byte[] octets = label.getBytes(StandardCharsets.UTF_8);
+      tampon.putInt(octets.length);
+      tampon.put(octets);
+    }
+    for (final int indice : indices) {
+      tampon.putInt(indice);
+    }
+    while (tampon.position() < entete) {
+      tampon.put((byte)0);
+    }
+    tampon.asDoubleBuffer().put(codebook.getPoids());
+    tampon.position(tampon.position() + 8 * codebook.getPoids().length);
+    final CRC32 crc = new CRC32();
+    final ByteBuffer contenu = tampon.duplicate();
+    contenu.flip();
+    crc.update(contenu);
+    tampon.putLong(crc.getValue());
+    tampon.flip();
+    final Path temporaire = this.fichier.resolveSibling(this.fichier.getFileName() + ".tmp");
+    try (FileChannel canal = FileChannel.open(temporaire, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      while (tampon.hasRemaining()) {
+        canal.write(tampon);
+      }
+      canal.force(true);
+    }
+    Files.move(temporaire, this.fichier, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads the checkpoint of the file.
+   *
+   * @return the state of the training
+   * @throws IOException if the file cannot be read, is not a checkpoint or is corrupted
+   */
+  public Etat lire() throws IOException {
+    final ByteBuffer tampon;
+    try (FileChannel canal = FileChannel.open(this.fichier, StandardOpenOption.READ)) {
+      if (canal.size() > Integer.MAX_VALUE) {
+        throw new IOException(this.fichier + " n'est pas une sauvegarde");
+      }
+      tampon = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    if (tampon.remaining() < ENTETE + 8 || tampon.getInt() != MAGIC) {
+      throw new IOException(this.fichier + " n'est pas une sauvegarde");
+    }
+    final int version = tampon.getInt();
+    if (version != VERSION) {
+      throw new IOException("version de sauvegarde non supportée : " + version);
+    }
+    final CRC32 crc = new CRC32();
+    final ByteBuffer contenu = tampon.duplicate();
+    contenu.position(0).limit(tampon.limit() - 8);
+    crc.update(contenu);
+    if (crc.getValue() != tampon.getLong(tampon.limit() - 8)) {
+      throw new IOException(this.fichier + " est corrompu");
+    }
+    final Topologie.Maille maille = Topologie.Maille.values()[tampon.getInt()];
+    final int drapeaux = tampon.getInt();
+    final int lignes = tampon.getInt();
+    final int colonnes = tampon.getInt();
+    final int dimension = tampon.getInt();
+    final Metrique metrique = Metrique.values()[tampon.getInt()];
+    final SelectionBmu.Egalite egalite = SelectionBmu.Egalite.values()[tampon.getInt()];
+    final Codebook codebook = new Codebook(new Topologie(lignes, colonnes, maille, (drapeaux & TORIQUE) != 0), dimension, metrique);
+    final long graine = tampon.getLong();
+    final long graineSession = tampon.getLong();
+    final int epoque = tampon.getInt();
+    final int nbDonnees = tampon.getInt();
+    final long miseAJour = tampon.getLong();
+    final Planning.Type type = Planning.Type.values()[tampon.getInt()];
+    final int nbEpoques = tampon.getInt();
+    final double alphaInitial = tampon.getDouble();
+    final double alphaFinal = tampon.getDouble();
+    final Planning planning = Planning.restaurer(type, alphaInitial, alphaFinal, nbEpoques, tampon.getLong());
+    final Voisinage.Forme forme = Voisinage.Forme.values()[tampon.getInt()];
+    final Voisinage.Decroissance decroissance = Voisinage.Decroissance.values()[tampon.getInt()];
+    final double rayonInitial = tampon.getDouble();
+    final double rayonFinal = tampon.getDouble();
+    final Voisinage voisinage = (drapeaux & VOISINAGE) != 0 ? new Voisinage(forme, decroissance, rayonInitial, rayonFinal) : null;
+    final String[] dictionnaire = new String[tampon.getInt()];
+    for (int i = 0; i < dictionnaire.length; ++i) {
+      final byte[] octets = new byte[tampon.getInt()];
+      tampon.get(octets);
+      dictionnaire[i] = new String(octets, StandardCharsets.UTF_8);
+    }
+    final String[] etiquettes = (drapeaux & ETIQUETTES) != 0 ? new String[codebook.getTaille()] : null;
+    for (int noeud = 0; noeud < codebook.getTaille(); ++noeud) {
+      final int indice = tampon.getInt();
+      if (etiquettes != null) {
+        etiquettes[noeud] = indice < 0 ? "" : dictionnaire[indice];
+      }
+    }
+    tampon.position(aligner(tampon.position()));
+    tampon.asDoubleBuffer().get(codebook.getPoids());
+    return new Etat(codebook, graine, graineSession, epoque, miseAJour, nbDonnees, planning, voisinage, egalite, etiquettes);
+  }
+
+  /**
+   * Rounds a position up to a multiple of 8.
+   */
+  private static int aligner(final int position) {
+    return (position + 7) & ~7;
+  }
+
+  /**
+   * State of a training saved in a checkpoint.
+   */
+  public static final class Etat {
+
+    private final Codebook codebook;
+
+    private final long graine;
+
+    private final long graineSession;
+
+    private final int epoque;
+
+    private final long miseAJour;
+
+    private final int nbDonnees;
+
+    private final Planning planning;
+
+    private final Voisinage voisinage;
+
+    private final SelectionBmu.Egalite egalite;
+
+    private final String[] etiquettes;
+
+    /**
+     * Constructs the state of a training.
+     *
+     * @param codebook the codebook, with its grid and its metric
+     * @param graine the seed of the processing
+     * @param graineSession the seed of the random choices of the training session
+     * @param epoque the next epoch to run
+     * @param miseAJour the number of updates done
+     * @param nbDonnees the number of rows of the data set
+     * @param planning the schedule
+     * @param voisinage the neighbourhood function, or null for the square window of the schedule
+     * @param egalite the tie policy of the BMU search
+     * @param etiquettes the label of each node, empty for none, or null when the nodes are not labelled
+     */
+    public Etat(final Codebook codebook, final long graine, final long graineSession, final int epoque, final long miseAJour,
+        final int nbDonnees, final Planning planning, final Voisinage voisinage, final SelectionBmu.Egalite egalite, final String[] etiquettes) {
+      if (egalite == null) {
+        throw new IllegalArgumentException("politique d'égalité nulle");
+      }
+      this.codebook = codebook;
+      this.graine = graine;
+      this.graineSession = graineSession;
+      this.epoque = epoque;
+      this.miseAJour = miseAJour;
+      this.nbDonnees = nbDonnees;
+      this.planning = planning;
+      this.voisinage = voisinage;
+      this.egalite = egalite;
+      this.etiquettes = etiquettes;
+    }
+
+    /**
+     * Returns the codebook, with its grid and its metric.
+     *
+     * @return the codebook
+     */
+    public Codebook getCodebook() {
+      return this.codebook;
+    }
+
+    /**
+     * Returns the seed of the processing.
+     *
+     * @return the seed
+     */
+    public long getGraine() {
+      return this.graine;
+    }
+
+    /**
+     * Returns the seed of the random choices of the training session.
+     *
+     * @return the seed
+     */
+    public long getGraineSession() {
+      return this.graineSession;
+    }
+
+    /**
+     * Returns the next epoch to run.
+     *
+     * @return the epoch
+     */
+    public int getEpoque() {
+      return this.epoque;
+    }
+
+    /**
+     * Returns the number of updates done.
+     *
+     * @return the number of updates
+     */
+    public long getMiseAJour() {
+      return this.miseAJour;
+    }
+
+    /**
+     * Returns the number of rows of the data set the map is trained on.
+     *
+     * @return the number of rows
+     */
+    public int getNbDonnees() {
+      return this.nbDonnees;
+    }
+
+    /**
+     * Returns the schedule.
+     *
+     * @return the schedule
+     */
+    public Planning getPlanning() {
+      return this.planning;
+    }
+
+    /**
+     * Returns the neighbourhood function.
+     *
+     * @return the function, or null for the square window of the schedule
+     */
+    public Voisinage getVoisinage() {
+      return this.voisinage;
+    }
+
+    /**
+     * Returns the tie policy of the BMU search.
+     *
+     * @return the policy
+     */
+    public SelectionBmu.Egalite getEgalite() {
+      return this.egalite;
+    }
+
+    /**
+     * Returns the label of a node.
+     *
+     * @param noeud the index of the node
+     * @return the label, empty for none
+     */
+    public String getEtiquette(final int noeud) {
+      return this.etiquettes == null || this.etiquettes[noeud] == null ? "" : this.etiquettes[noeud];
+    }
+
+    /**
+     * Returns whether the nodes are labelled, as needed to serve the map (code.Modele).
+     *
+     * @return true if the labels were saved with the codebook
+     */
+    public boolean isEtiquetee() {
+      return this.etiquettes != null;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package code;
+
+import java.util.SplittableRandom;
+
+/**
+ * Choice of the BMU among the nodes at the smallest ecart, in a single pass and without
+ * allocation. The result is kept as primitive coordinates until the next choice.
+ * When several nodes share the smallest ecart, the tie policy keeps either the first one in
+ * row-major order, or one of them drawn uniformly by reservoir sampling from a seeded
+ * generator, so that a run can be replayed.
+ * An instance keeps the result of its last choice and must not be shared between threads.
+ *
+ * @author Fab.16
+ */
+public final class SelectionBmu {
+
+  /** Policy applied when several nodes share the smallest ecart. */
+  public enum Egalite {
+    /** The first node in row-major order. */
+    PREMIER,
+    /** A node drawn uniformly among the ties. */
+    ALEATOIRE
+  }
+
+  /** Number of columns of the grid. */
+  private final int colonnes;
+
+  /** Tie policy. */
+  private final Egalite egalite;
+
+  /** Generator of the random ties, or null with the PREMIER policy. */
+  private final SplittableRandom aleatoire;
+
+  /** Index of the node chosen last. */
+  private int noeud;
+
+  /** Ecart of the node chosen last. */
+  private double ecart;
+
+  /** Number of nodes sharing the smallest ecart at the last choice. */
+  private int nbEgaux;
+
+  /**
+   * Constructs a selection.
+   *
+   * @param colonnes the number of columns of the grid
+   * @param egalite the tie policy
+   * @param aleatoire the generator of the random ties, only used with the ALEATOIRE policy
+   */
+  public SelectionBmu(final int colonnes, final Egalite egalite, final SplittableRandom aleatoire) {
+    if (egalite == Egalite.ALEATOIRE && aleatoire == null) {
+      throw new IllegalArgumentException("générateur absent pour les égalités aléatoires");
+    }
+    this.colonnes = colonnes;
+    this.egalite = egalite;
+    this.aleatoire = aleatoire;
+  }
+
+  /**
+   * Chooses the BMU from the ecart of every node.
+   *
+   * @param ecarts the ecart of each node, indexed like the codebook
+   * @return the index of the chosen node
+   */
+  public int choisir(final double[] ecarts) {
+    final boolean tirage = this.egalite == Egalite.ALEATOIRE;
+    int choisi = 0;
+    double min = ecarts[0];
+    int egaux = 1;
+    for (int i = 1; i < ecarts.length; ++i) {
+      final double e = ecarts[i];
+      if (e < min) {
+        min = e;
+        choisi = i;
+        egaux = 1;
+      }
+      else if (e == min) {
+        ++egaux;
+        if (tirage && this.aleatoire.nextInt(egaux) == 0) {
+          choisi = i;
+        }
+      }
+    }
+    return this.retenir(choisi, min, egaux);
+  }
+
+  /**
+   * Chooses the BMU among the ties found by a parallel search.
+   *
+   * @param minimum the result of RechercheBmu.chercher
+   * @return the index of the chosen node
+   */
+  public int choisir(final RechercheBmu.Minimum minimum) {
+    int i = 0;
+    if (this.egalite == Egalite.ALEATOIRE && minimum.getNombre() > 1) {
+      i = this.aleatoire.nextInt(minimum.getNombre());
+    }
+    return this.retenir(minimum.getNoeud(i), minimum.getValeur(), minimum.getNombre());
+  }
+
+  /**
+   * Records a BMU found by another search (an approximate one, which sees no ties).
+   *
+   * @param noeud the index of the node
+   * @param ecart its ecart
+   * @return the index of the node
+   */
+  public int retenir(final int noeud, final double ecart) {
+    return this.retenir(noeud, ecart, 1);
+  }
+
+  private int retenir(final int noeud, final double ecart, final int nbEgaux) {
+    this.noeud = noeud;
+    this.ecart = ecart;
+    this.nbEgaux = nbEgaux;
+    return noeud;
+  }
+
+  /**
+   * Returns the index of the last chosen node.
+   *
+   * @return the node index
+   */
+  public int getNoeud() {
+    return this.noeud;
+  }
+
+  /**
+   * Returns the row of the last chosen node.
+   *
+   * @return the row in the grid
+   */
+  public int getX() {
+    return this.noeud / this.colonnes;
+  }
+
+  /**
+   * Returns the column of the last chosen node.
+   *
+   * @return the column in the grid
+   */
+  public int getY() {
+    return this.noeud % this.colonnes;
+  }
+
+  /**
+   * Returns the ecart of the last chosen node.
+   *
+   * @return the smallest ecart
+   */
+  public double getEcart() {
+    return this.ecart;
+  }
+
+  /**
+   * Returns the number of nodes that shared the smallest ecart at the last choice.
+   *
+   * @return the number of ties, at least 1
+   */
+  public int getNbEgaux() {
+    return this.nbEgaux;
+  }
+}
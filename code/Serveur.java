@@ -0,0 +1,628 @@
+package code;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HTTP service mapping records on a trained map (code.Modele), with the HTTP server of the JDK.
+ * POST /bmu takes rows of numbers, as CSV lines (a trailing label column is ignored) or as a JSON
+ * array of arrays, and answers the coordinates, the distance and the label of the BMU of each
+ * row, in the same format. GET /stats answers the counters of the service as JSON: the number of
+ * requests, rows and batches, the 50th and 99th percentiles of the latency of the requests, and
+ * the requests and rows per second since the start.
+ *
+ * The requests are handled by a pool of threads; each one parses its rows and queues them for
+ * the batching threads (one per processor by default). A batching thread takes the first waiting
+ * request, waits for the other requests arriving within a short delay, up to a number of rows,
+ * and searches the BMUs of all of them in one batch pass over the codebook (Modele.chercher),
+ * reading each node vector once per block of rows instead of once per row; the batching threads
+ * share the queue and the model, so the scoring uses every processor.
+ *
+ * @author Fab.16
+ */
+public class Serveur {
+
+  /** Number of sub-buckets per power of two of the latency histogram. */
+  private static final int SOUS_CLASSES = 16;
+
+  /** Model queried. */
+  private final Modele modele;
+
+  /** HTTP server. */
+  private final HttpServer http;
+
+  /** Threads handling the requests. */
+  private final ExecutorService executeur;
+
+  /** Threads running the batches. */
+  private final Thread[] lots;
+
+  /** Requests waiting for the next batch. */
+  private final BlockingQueue<Requete> file = new LinkedBlockingQueue<Requete>();
+
+  /** Number of rows above which a batch is run without waiting more. */
+  private final int tailleLot;
+
+  /** Longest wait for other requests after the first one of a batch, in nanoseconds. */
+  private final long attente;
+
+  /** Whether the service runs. */
+  private volatile boolean actif = true;
+
+  /** Time of the start, from System.nanoTime. */
+  private final long debut = System.nanoTime();
+
+  /** Number of requests answered. */
+  private final AtomicLong nbRequetes = new AtomicLong();
+
+  /** Number of rows mapped. */
+  private final AtomicLong nbLignes = new AtomicLong();
+
+  /** Number of batches run. */
+  private final AtomicLong nbLots = new AtomicLong();
+
+  /** Latency histogram of the requests in microseconds, log-linear. */
+  private final AtomicLongArray latences = new AtomicLongArray(64 * SOUS_CLASSES);
+
+  /**
+   * Starts the service, with one batching thread per processor.
+   *
+   * @param modele the model to query
+   * @param port the port to listen on, 0 for any free port
+   * @param nbThreads the number of threads handling the requests, at least 1
+   * @param tailleLot the number of rows above which a batch runs without waiting, at least 1
+   * @param attenteMicros the longest wait for more requests after the first one of a batch, in microseconds
+   * @throws IOException if the port cannot be opened
+   */
+  public Serveur(final Modele modele, final int port, final int nbThreads, final int tailleLot, final long attenteMicros) throws IOException {
+    this(modele, port, nbThreads, tailleLot, attenteMicros, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Starts the service.
+   *
+   * @param modele the model to query
+   * @param port the port to listen on, 0 for any free port
+   * @param nbThreads the number of threads handling the requests, at least 1
+   * @param tailleLot the number of rows above which a batch runs without waiting, at least 1
+   * @param attenteMicros the longest wait for more requests after the first one of a batch, in microseconds
+   * @param nbThreadsLots the number of threads running the batches, at least 1
+   * @throws IOException if the port cannot be opened
+   */
+  public Serveur(final Modele modele, final int port, final int nbThreads, final int tailleLot, final long attenteMicros,
+      final int nbThreadsLots) throws IOException {
+    if (nbThreads < 1 || tailleLot < 1 || attenteMicros < 0 || nbThreadsLots < 1) {
+      throw new IllegalArgumentException("paramètres du serveur invalides : " + nbThreads + " threads, lots de " + tailleLot
+          + " lignes, attente de " + attenteMicros + " µs, " + nbThreadsLots + " threads de lots");
+    }
+    this.modele = modele;
+    this.tailleLot = tailleLot;
+    this.attente = TimeUnit.MICROSECONDS.toNanos(attenteMicros);
+    this.http = HttpServer.create(new InetSocketAddress(port), 0);
+    this.executeur = Executors.newFixedThreadPool(nbThreads);
+    this.http.setExecutor(this.executeur);
+    this.http.createContext("/bmu", this::bmu);
+    this.http.createContext("/stats", this::stats);
+    this.lots = new Thread[nbThreadsLots];
+    for (int i = 0; i < nbThreadsLots; ++i) {
+      this.lots[i] = new Thread(this::lots, "lots-bmu-" + i);
+      this.lots[i].setDaemon(true);
+      this.lots[i].start();
+    }
+    this.http.start();
+  }
+
+  /**
+   * Returns the port the service listens on.
+   *
+   * @return the port
+   */
+  public int getPort() {
+    return this.http.getAddress().getPort();
+  }
+
+  /**
+   * Returns the number of requests answered.
+   *
+   * @return the number of requests
+   */
+  public long getNbRequetes() {
+    return this.nbRequetes.get();
+  }
+
+  /**
+   * Returns the number of rows mapped.
+   *
+   * @return the number of rows
+   */
+  public long getNbLignes() {
+    return this.nbLignes.get();
+  }
+
+  /**
+   * Returns the number of batches run.
+   *
+   * @return the number of batches
+   */
+  public long getNbLots() {
+    return this.nbLots.get();
+  }
+
+  /**
+   * Returns a percentile of the latency of the requests, within about 6 %.
+   *
+   * @param q the rank, between 0 and 1 (0.99 for the 99th percentile)
+   * @return the latency in microseconds, 0 before the first request
+   */
+  public long latence(final double q) {
+    long total = 0;
+    for (int i = 0; i < this.latences.length(); ++i) {
+      total += this.latences.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+    final long rang = (long)Math.ceil(q * total);
+    long cumul = 0;
+    for (int i = 0; i < this.latences.length(); ++i) {
+      cumul += this.latences.get(i);
+      if (cumul >= rang && cumul > 0) {
+        return borne(i);
+      }
+    }
+    return borne(this.latences.length() - 1);
+  }
+
+  /**
+   * Stops the service, waiting at most the given delay for the requests being handled.
+   * The batches keep running during the delay; a request still waiting for one afterwards
+   * is answered 503.
+   *
+   * @param delaiSecondes the delay in seconds
+   */
+  public void arreter(final int delaiSecondes) {
+    this.http.stop(delaiSecondes);
+    this.actif = false;
+    for (final Thread lot : this.lots) {
+      lot.interrupt();
+    }
+    try {
+      for (final Thread lot : this.lots) {
+        lot.join();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.executeur.shutdown();
+  }
+
+  /**
+   * Handles POST /bmu.
+   */
+  private void bmu(final HttpExchange echange) throws IOException {
+    final long debutRequete = System.nanoTime();
+    try {
+      if (!"POST".equals(echange.getRequestMethod())) {
+        this.repondre(echange, 405, "text/plain", "méthode non permise : " + echange.getRequestMethod());
+        return;
+      }
+      final byte[] corps;
+      try (InputStream st = echange.getRequestBody()) {
+        corps = st.readAllBytes();
+      }
+      final String type = echange.getRequestHeaders().getFirst("Content-Type");
+      final boolean json = (type != null && type.contains("json")) || premier(corps) == '[' || premier(corps) == '{';
+      final Requete requete;
+      try {
+        requete = json ? this.lireJson(corps) : this.lireCsv(corps);
+      }
+      catch (IllegalArgumentException e) {
+        this.repondre(echange, 400, "text/plain", e.getMessage());
+        return;
+      }
+      if (requete.nb > 0 && !this.attendre(requete)) {
+        this.repondre(echange, 503, "text/plain", "service arrêté");
+        return;
+      }
+      if (requete.erreur != null) {
+        this.repondre(echange, 500, "text/plain", String.valueOf(requete.erreur.getMessage()));
+        return;
+      }
+      this.repondre(echange, 200, json ? "application/json" : "text/csv", json ? this.ecrireJson(requete) : this.ecrireCsv(requete));
+      this.nbRequetes.incrementAndGet();
+      this.nbLignes.addAndGet(requete.nb);
+      this.latences.incrementAndGet(classe(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - debutRequete)));
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      this.repondre(echange, 503, "text/plain", "service arrêté");
+    }
+  }
+
+  /**
+   * Queues a request for the batches and waits for its answer.
+   *
+   * @return false if the service stopped before a batch took the request
+   */
+  private boolean attendre(final Requete requete) throws InterruptedException {
+    if (!this.actif) {
+      return false;
+    }
+    this.file.add(requete);
+    // the batching threads may have stopped after the request was queued
+    while (!requete.fait.await(100, TimeUnit.MILLISECONDS)) {
+      if (!this.actif && this.file.remove(requete)) {
+        return false;
+      }
+    }
+    return !requete.refusee;
+  }
+
+  /**
+   * Handles GET /stats.
+   */
+  private void stats(final HttpExchange echange) throws IOException {
+    final double secondes = (System.nanoTime() - this.debut) / 1e9;
+    final long requetes = this.nbRequetes.get();
+    final long lignes = this.nbLignes.get();
+    final long lots = this.nbLots.get();
+    this.repondre(echange, 200, "application/json", "{\"requetes\":" + requetes + ",\"lignes\":" + lignes + ",\"lots\":" + lots
+        + ",\"lignesParLot\":" + (lots == 0 ? 0.0 : (double)lignes / lots)
+        + ",\"p50Micros\":" + this.latence(0.5) + ",\"p99Micros\":" + this.latence(0.99)
+        + ",\"requetesParSeconde\":" + requetes / secondes + ",\"lignesParSeconde\":" + lignes / secondes + "}\n");
+  }
+
+  private void repondre(final HttpExchange echange, final int code, final String type, final String texte) throws IOException {
+    final byte[] octets = texte.getBytes(StandardCharsets.UTF_8);
+    echange.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+    echange.sendResponseHeaders(code, octets.length);
+    try (OutputStream st = echange.getResponseBody()) {
+      st.write(octets);
+    }
+  }
+
+  /**
+   * Runs the batches until the service stops: takes the first waiting request, then the
+   * requests arriving within the wait, up to tailleLot rows, and maps all their rows at once.
+   */
+  private void lots() {
+    final ArrayList<Requete> requetes = new ArrayList<Requete>();
+    final int dimension = this.modele.getDimension();
+    double[] valeurs = new double[this.tailleLot * dimension];
+    int[] noeuds = new int[this.tailleLot];
+    double[] distances = new double[this.tailleLot];
+    while (this.actif) {
+      requetes.clear();
+      int total = 0;
+      try {
+        final Requete premiere = this.file.poll(100, TimeUnit.MILLISECONDS);
+        if (premiere == null) {
+          continue;
+        }
+        requetes.add(premiere);
+        total = premiere.nb;
+        final long limite = System.nanoTime() + this.attente;
+        while (total < this.tailleLot) {
+          final Requete suivante = this.file.poll(limite - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (suivante == null) {
+            break;
+          }
+          requetes.add(suivante);
+          total += suivante.nb;
+        }
+      }
+      catch (InterruptedException e) {
+        // stopped: answer what was taken, the handlers still wait for it
+      }
+      try {
+        if (requetes.size() == 1) {
+          final Requete r = requetes.get(0);
+          this.modele.chercher(r.valeurs, r.nb, r.noeuds, r.distances);
+        }
+        else if (total > 0) {
+          if (noeuds.length < total) {
+            valeurs = new double[total * dimension];
+            noeuds = new int[total];
+            distances = new double[total];
+          }
+          int n = 0;
+          for (final Requete r : requetes) {
+            System.arraycopy(r.valeurs, 0, valeurs, n * dimension, r.nb * dimension);
+            n += r.nb;
+          }
+          this.modele.chercher(valeurs, total, noeuds, distances);
+          n = 0;
+          for (final Requete r : requetes) {
+            System.arraycopy(noeuds, n, r.noeuds, 0, r.nb);
+            System.arraycopy(distances, n, r.distances, 0, r.nb);
+            n += r.nb;
+          }
+        }
+      }
+      catch (RuntimeException e) {
+        for (final Requete r : requetes) {
+          r.erreur = e;
+        }
+      }
+      if (!requetes.isEmpty()) {
+        this.nbLots.incrementAndGet();
+      }
+      for (final Requete r : requetes) {
+        r.fait.countDown();
+      }
+    }
+    Requete r;
+    while ((r = this.file.poll()) != null) {
+      r.refusee = true;
+      r.fait.countDown();
+    }
+  }
+
+  /**
+   * Reads CSV lines of numbers; a last field that is not a number is a label and is ignored.
+   */
+  private Requete lireCsv(final byte[] corps) {
+    final int dimension = this.modele.getDimension();
+    final Requete requete = new Requete(dimension);
+    int debutLigne = 0;
+    int numero = 0;
+    while (debutLigne < corps.length) {
+      int finLigne = debutLigne;
+      while (finLigne < corps.length && corps[finLigne] != '\n') {
+        ++finLigne;
+      }
+      final int suite = finLigne + 1;
+      ++numero;
+      if (finLigne > debutLigne && corps[finLigne - 1] == '\r') {
+        --finLigne;
+      }
+      if (finLigne > debutLigne) {
+        final int offset = requete.ajouter();
+        int champ = 0;
+        int debutChamp = debutLigne;
+        for (int i = debutLigne; i <= finLigne; ++i) {
+          if (i < finLigne && corps[i] != ',') {
+            continue;
+          }
+          final double v = LecteurCsv.nombre(corps, debutChamp, i);
+          if (champ < dimension && !Double.isNaN(v)) {
+            requete.valeurs[offset + champ] = v;
+          }
+          else if (champ != dimension || i != finLigne) {
+            throw new IllegalArgumentException("ligne " + numero + " : " + dimension + " nombres attendus");
+          }
+          ++champ;
+          debutChamp = i + 1;
+        }
+        if (champ < dimension) {
+          throw new IllegalArgumentException("ligne " + numero + " : " + dimension + " nombres attendus, " + champ + " lus");
+        }
+      }
+      debutLigne = suite;
+    }
+    requete.terminer();
+    return requete;
+  }
+
+  /**
+   * Reads the rows of a JSON document: every innermost array of numbers is a row, whatever
+   * encloses it ([[...], ...], {"lignes": [[...], ...]} or a single [...]). Strings are skipped.
+   */
+  private Requete lireJson(final byte[] corps) {
+    final int dimension = this.modele.getDimension();
+    final Requete requete = new Requete(dimension);
+    int offset = -1;
+    int champ = 0;
+    int profondeur = 0;
+    for (int i = 0; i < corps.length; ++i) {
+      final byte c = corps[i];
+      if (c == '"') {
+        for (++i; i < corps.length && corps[i] != '"'; ++i) {
+          if (corps[i] == '\\') {
+            ++i;
+          }
+        }
+      }
+      else if (c == '[') {
+        ++profondeur;
+        offset = -1;
+        champ = 0;
+      }
+      else if (c == ']') {
+        --profondeur;
+        if (offset >= 0 && champ != dimension) {
+          throw new IllegalArgumentException("ligne " + requete.nb + " : " + dimension + " nombres attendus, " + champ + " lus");
+        }
+        offset = -1;
+      }
+      else if (c == '-' || c == '+' || c == '.' || (c >= '0' && c <= '9')) {
+        int fin = i + 1;
+        while (fin < corps.length && (corps[fin] == '.' || corps[fin] == 'e' || corps[fin] == 'E' || corps[fin] == '-' || corps[fin] == '+'
+            || (corps[fin] >= '0' && corps[fin] <= '9'))) {
+          ++fin;
+        }
+        final double v = LecteurCsv.nombre(corps, i, fin);
+        if (profondeur <= 0) {
+          throw new IllegalArgumentException("nombre hors d'un tableau : " + new String(corps, i, fin - i, StandardCharsets.UTF_8));
+        }
+        if (Double.isNaN(v)) {
+          throw new IllegalArgumentException("nombre invalide : " + new String(corps, i, fin - i, StandardCharsets.UTF_8));
+        }
+        if (offset < 0) {
+          offset = requete.ajouter();
+          champ = 0;
+        }
+        if (champ >= dimension) {
+          throw new IllegalArgumentException("ligne " + (requete.nb - 1) + " : plus de " + dimension + " nombres");
+        }
+        requete.valeurs[offset + champ++] = v;
+        i = fin - 1;
+      }
+    }
+    if (profondeur != 0) {
+      throw new IllegalArgumentException("tableau JSON non fermé");
+    }
+    requete.terminer();
+    return requete;
+  }
+
+  private String ecrireCsv(final Requete requete) {
+    final int colonnes = this.modele.getTopologie().getColonnes();
+    final StringBuilder sb = new StringBuilder(requete.nb * 40);
+    for (int i = 0; i < requete.nb; ++i) {
+      sb.append(requete.noeuds[i] / colonnes).append(',').append(requete.noeuds[i] % colonnes).append(',')
+          .append(requete.distances[i]).append(',').append(this.modele.getEtiquette(requete.noeuds[i])).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private String ecrireJson(final Requete requete) {
+    final int colonnes = this.modele.getTopologie().getColonnes();
+    final StringBuilder sb = new StringBuilder(requete.nb * 60 + 4);
+    sb.append('[');
+    for (int i = 0; i < requete.nb; ++i) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append("{\"x\":").append(requete.noeuds[i] / colonnes).append(",\"y\":").append(requete.noeuds[i] % colonnes)
+          .append(",\"distance\":").append(requete.distances[i]).append(",\"etiquette\":\"");
+      final String etiquette = this.modele.getEtiquette(requete.noeuds[i]);
+      for (int k = 0; k < etiquette.length(); ++k) {
+        final char c = etiquette.charAt(k);
+        if (c == '"' || c == '\\') {
+          sb.append('\\').append(c);
+        }
+        else if (c < ' ') {
+          sb.append(String.format("\\u%04x", (int)c));
+        }
+        else {
+          sb.append(c);
+        }
+      }
+      sb.append("\"}");
+    }
+    return sb.append("]\n").toString();
+  }
+
+  private static byte premier(final byte[] corps) {
+    for (final byte c : corps) {
+      if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+        return c;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Bucket of a latency: exact below SOUS_CLASSES microseconds, then SOUS_CLASSES buckets per
+   * power of two.
+   */
+  private static int classe(final long micros) {
+    if (micros < SOUS_CLASSES) {
+      return (int)Math.max(0, micros);
+    }
+    final int exposant = 63 - Long.numberOfLeadingZeros(micros);
+    return (exposant - 3) * SOUS_CLASSES + (int)((micros >>> (exposant - 4)) & (SOUS_CLASSES - 1));
+  }
+
+  /**
+   * Upper bound of a bucket of the latency histogram.
+   */
+  private static long borne(final int classe) {
+    if (classe < SOUS_CLASSES) {
+      return classe;
+    }
+    final int exposant = classe / SOUS_CLASSES + 3;
+    return ((long)(SOUS_CLASSES + classe % SOUS_CLASSES + 1) << (exposant - 4)) - 1;
+  }
+
+  /**
+   * Rows of one request and their results.
+   */
+  private static final class Requete {
+
+    private final int dimension;
+
+    /** Rows, one after the other. */
+    private double[] valeurs;
+
+    /** Number of rows. */
+    private int nb;
+
+    private int[] noeuds;
+
+    private double[] distances;
+
+    /** Released when the batch holding the rows has run. */
+    private final CountDownLatch fait = new CountDownLatch(1);
+
+    /** Error of the batch, if any. */
+    private volatile RuntimeException erreur;
+
+    /** Whether the service stopped before a batch took the request. */
+    private volatile boolean refusee;
+
+    Requete(final int dimension) {
+      this.dimension = dimension;
+      this.valeurs = new double[8 * dimension];
+    }
+
+    /**
+     * Adds a row and returns its offset in valeurs.
+     */
+    int ajouter() {
+      if ((this.nb + 1) * this.dimension > this.valeurs.length) {
+        this.valeurs = Arrays.copyOf(this.valeurs, 2 * this.valeurs.length);
+      }
+      return this.nb++ * this.dimension;
+    }
+
+    /**
+     * Allocates the results once every row has been read.
+     */
+    void terminer() {
+      this.noeuds = new int[this.nb];
+      this.distances = new double[this.nb];
+    }
+  }
+
+  /**
+   * Serves a saved map.
+   * Usage: java code.Serveur carte.somc [port] [threads] [tailleLot] [attenteMicros] [threadsLots]
+   *
+   * @param args the checkpoint file, and optionally the port (8080), the number of threads
+   *     handling the requests (4 per processor), the rows per batch (256), the wait of a
+   *     batch in microseconds (200) and the number of threads running the batches (1 per processor)
+   * @throws IOException if the map cannot be read or the port cannot be opened
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 1) {
+      System.out.println("usage : java code.Serveur carte.somc [port] [threads] [tailleLot] [attenteMicros] [threadsLots]");
+      return;
+    }
+    final Modele modele = Modele.charger(args[0]);
+    final Serveur serveur = new Serveur(modele,
+        args.length > 1 ? Integer.parseInt(args[1]) : 8080,
+        args.length > 2 ? Integer.parseInt(args[2]) : 4 * Runtime.getRuntime().availableProcessors(),
+        args.length > 3 ? Integer.parseInt(args[3]) : 256,
+        args.length > 4 ? Long.parseLong(args[4]) : 200,
+        args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors());
+    System.out.println("carte " + modele.getTopologie() + " servie sur le port " + serveur.getPort() + " (POST /bmu, GET /stats)");
+  }
+}
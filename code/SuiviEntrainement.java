@@ -0,0 +1,21 @@
+package code;
+
+/**
+ * Listener of the online training (Traitement.rapprochement), told of the measures of each
+ * epoch when it ends. Without a listener the training measures nothing.
+ * The listener is called on the training thread, so it must return quickly.
+ *
+ * @author Fab.16
+ * @see Mesures
+ * @see Telemetrie
+ */
+@FunctionalInterface
+public interface SuiviEntrainement {
+
+  /**
+   * Receives the measures of an epoch that just ended.
+   *
+   * @param mesures the measures of the epoch, never modified afterwards
+   */
+  void finEpoque(Mesures mesures);
+}
@@ -0,0 +1,201 @@
+package code;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Publication of the measures of each epoch of the online training: as the attributes of an
+ * MBean (code.TelemetrieMBean) on the platform MBean server once registered, and as a JFR
+ * event "code.Epoque" when a flight recording with this event enabled runs
+ * (java -XX:StartFlightRecording ...). The MBean reads the last measures published, so
+ * JConsole or VisualVM follow the training while it runs.
+ *
+ * @author Fab.16
+ */
+public class Telemetrie implements SuiviEntrainement, TelemetrieMBean {
+
+  /** Measures of the last epoch, or null before the first one. */
+  private volatile Mesures derniere;
+
+  /** Number of samples of the epochs published. */
+  private volatile long echantillonsTotal;
+
+  /** Name of the MBean, or null when it is not registered. */
+  private ObjectName nom;
+
+  /**
+   * Registers the MBean on the platform MBean server, as code:type=Telemetrie,name=`nom`.
+   *
+   * @param nom the name of the training
+   * @throws IllegalStateException if the MBean cannot be registered (an MBean of the same name exists)
+   */
+  public synchronized void enregistrer(final String nom) {
+    try {
+      final ObjectName objet = new ObjectName("code", "type", "Telemetrie");
+      this.nom = new ObjectName(objet.getCanonicalName() + ",name=" + ObjectName.quote(nom));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, this.nom);
+    }
+    catch (JMException e) {
+      this.nom = null;
+      throw new IllegalStateException("enregistrement du MBean impossible : " + nom, e);
+    }
+  }
+
+  /**
+   * Removes the MBean from the platform MBean server, if registered.
+   */
+  public synchronized void desenregistrer() {
+    if (this.nom == null) {
+      return;
+    }
+    final MBeanServer serveur = ManagementFactory.getPlatformMBeanServer();
+    try {
+      serveur.unregisterMBean(this.nom);
+    }
+    catch (JMException e) {
+      // already removed
+    }
+    this.nom = null;
+  }
+
+  @Override
+  public void finEpoque(final Mesures mesures) {
+    this.derniere = mesures;
+    this.echantillonsTotal += mesures.getEchantillons();
+    final EvenementEpoque evenement = new EvenementEpoque();
+    if (evenement.isEnabled()) {
+      evenement.epoque = mesures.getEpoque();
+      evenement.nbEpoques = mesures.getNbEpoques();
+      evenement.duree = mesures.getDuree();
+      evenement.echantillons = mesures.getEchantillons();
+      evenement.echantillonsParSeconde = mesures.getEchantillonsParSeconde();
+      evenement.nsRecherche = mesures.getNsRecherche();
+      evenement.nsMiseAJour = mesures.getNsMiseAJour();
+      evenement.tailleVoisinage = mesures.getTailleVoisinage();
+      evenement.alpha = mesures.getAlpha();
+      evenement.rayon = mesures.getRayon();
+      evenement.erreurQuantification = mesures.getErreurQuantification();
+      evenement.commit();
+    }
+  }
+
+  /**
+   * Returns the measures of the last epoch.
+   *
+   * @return the measures, or null before the first epoch
+   */
+  public Mesures getDerniere() {
+    return this.derniere;
+  }
+
+  @Override
+  public int getEpoque() {
+    final Mesures m = this.derniere;
+    return m == null ? -1 : m.getEpoque();
+  }
+
+  @Override
+  public int getNbEpoques() {
+    final Mesures m = this.derniere;
+    return m == null ? 0 : m.getNbEpoques();
+  }
+
+  @Override
+  public long getEchantillonsTotal() {
+    return this.echantillonsTotal;
+  }
+
+  @Override
+  public double getEchantillonsParSeconde() {
+    final Mesures m = this.derniere;
+    return m == null ? 0.0 : m.getEchantillonsParSeconde();
+  }
+
+  @Override
+  public double getNsRecherche() {
+    final Mesures m = this.derniere;
+    return m == null ? 0.0 : m.getNsRecherche();
+  }
+
+  @Override
+  public double getNsMiseAJour() {
+    final Mesures m = this.derniere;
+    return m == null ? 0.0 : m.getNsMiseAJour();
+  }
+
+  @Override
+  public double getTailleVoisinage() {
+    final Mesures m = this.derniere;
+    return m == null ? 0.0 : m.getTailleVoisinage();
+  }
+
+  @Override
+  public double getAlpha() {
+    final Mesures m = this.derniere;
+    return m == null ? 0.0 : m.getAlpha();
+  }
+
+  @Override
+  public double getRayon() {
+    final Mesures m = this.derniere;
+    return m == null ? 0.0 : m.getRayon();
+  }
+
+  @Override
+  public double getErreurQuantification() {
+    final Mesures m = this.derniere;
+    return m == null ? 0.0 : m.getErreurQuantification();
+  }
+
+  /**
+   * JFR event of the end of an epoch.
+   */
+  @Name("code.Epoque")
+  @Label("Époque SOM")
+  @Category("SOM")
+  @Description("Mesures d'une époque de l'entrainement en ligne")
+  static final class EvenementEpoque extends Event {
+
+    @Label("Époque")
+    int epoque;
+
+    @Label("Nombre d'époques")
+    int nbEpoques;
+
+    @Label("Durée")
+    @Timespan(Timespan.NANOSECONDS)
+    long duree;
+
+    @Label("Échantillons")
+    long echantillons;
+
+    @Label("Échantillons par seconde")
+    double echantillonsParSeconde;
+
+    @Label("Recherche du BMU (ns)")
+    double nsRecherche;
+
+    @Label("Mise à jour (ns)")
+    double nsMiseAJour;
+
+    @Label("Taille du voisinage")
+    double tailleVoisinage;
+
+    @Label("Alpha")
+    double alpha;
+
+    @Label("Rayon")
+    double rayon;
+
+    @Label("Erreur de quantification")
+    double erreurQuantification;
+  }
+}
@@ -0,0 +1,79 @@
+package code;
+
+/**
+ * JMX view of the measures of the last epoch of a training (see code.Telemetrie).
+ *
+ * @author Fab.16
+ */
+public interface TelemetrieMBean {
+
+  /**
+   * Returns the index of the last epoch measured.
+   *
+   * @return the epoch, -1 before the first one
+   */
+  int getEpoque();
+
+  /**
+   * Returns the number of epochs of the training.
+   *
+   * @return the number of epochs
+   */
+  int getNbEpoques();
+
+  /**
+   * Returns the number of samples presented since the start.
+   *
+   * @return the number of samples
+   */
+  long getEchantillonsTotal();
+
+  /**
+   * Returns the rate of the samples during the last epoch.
+   *
+   * @return the samples per second
+   */
+  double getEchantillonsParSeconde();
+
+  /**
+   * Returns the mean time of a BMU search during the last epoch.
+   *
+   * @return the time in nanoseconds
+   */
+  double getNsRecherche();
+
+  /**
+   * Returns the mean time of the update of a neighbourhood during the last epoch.
+   *
+   * @return the time in nanoseconds
+   */
+  double getNsMiseAJour();
+
+  /**
+   * Returns the mean number of nodes moved per sample during the last epoch.
+   *
+   * @return the mean size of the neighbourhood
+   */
+  double getTailleVoisinage();
+
+  /**
+   * Returns the learning rate at the end of the last epoch.
+   *
+   * @return the learning rate
+   */
+  double getAlpha();
+
+  /**
+   * Returns the radius of the neighbourhood during the last epoch.
+   *
+   * @return the radius
+   */
+  double getRayon();
+
+  /**
+   * Returns the quantization error of the last epoch.
+   *
+   * @return the mean distance of the samples to their BMU
+   */
+  double getErreurQuantification();
+}
@@ -0,0 +1,345 @@
+package code;
+
+import java.util.Arrays;
+
+/**
+ * Shape of the SOM grid: its number of rows and columns, its lattice and whether its edges wrap.
+ * On the rectangular lattice each node has eight neighbours (the square window of radius 1).
+ * On the hexagonal lattice each node has six; the odd rows are shifted by half a cell to the
+ * right and the rows are sqrt(3)/2 apart, so that the six neighbours sit at distance 1.
+ * On a toroidal grid the first and last rows, and the first and last columns, are neighbours;
+ * a toroidal hexagonal grid needs an even number of rows to keep the shift of the rows.
+ * The neighbours of every node are computed once; the neighbourhood tables of the training
+ * (see Voisinage.Table) are lists of grid offsets computed once per radius.
+ * Node (x, y) has index x * colonnes + y, as in code.Codebook.
+ *
+ * @author Fab.16
+ */
+public final class Topologie {
+
+  /** Lattice of the nodes. */
+  public enum Maille {
+    /** Square cells, eight neighbours. */
+    RECTANGULAIRE,
+    /** Hexagonal cells, six neighbours. */
+    HEXAGONALE
+  }
+
+  /** Distance between two rows of the hexagonal lattice. */
+  private static final double HAUTEUR_HEXAGONE = Math.sqrt(3.0) / 2.0;
+
+  /** Number of rows. */
+  private final int lignes;
+
+  /** Number of columns. */
+  private final int colonnes;
+
+  /** Lattice. */
+  private final Maille maille;
+
+  /** Whether the edges wrap. */
+  private final boolean torique;
+
+  /** Start of the neighbours of each node in `voisins`, plus one final entry. */
+  private final int[] debutsVoisins;
+
+  /** Neighbours of every node, one node after the other. */
+  private final int[] voisins;
+
+  /** Square windows already computed for the legacy radius, indexed by the radius. */
+  private volatile Voisinage.Table[] bulles = new Voisinage.Table[0];
+
+  /**
+   * Constructs a grid.
+   *
+   * @param lignes the number of rows, at least 1
+   * @param colonnes the number of columns, at least 1
+   * @param maille the lattice
+   * @param torique whether the edges wrap
+   */
+  public Topologie(final int lignes, final int colonnes, final Maille maille, final boolean torique) {
+    if (lignes < 1 || colonnes < 1) {
+      throw new IllegalArgumentException("taille de carte invalide : " + lignes + " x " + colonnes);
+    }
+    if (maille == Maille.HEXAGONALE && torique && lignes % 2 != 0) {
+      throw new IllegalArgumentException("une carte hexagonale torique doit avoir un nombre pair de lignes : " + lignes);
+    }
+    this.lignes = lignes;
+    this.colonnes = colonnes;
+    this.maille = maille;
+    this.torique = torique;
+    final int taille = lignes * colonnes;
+    this.debutsVoisins = new int[taille + 1];
+    final int[] liste = new int[taille * 8];
+    int n = 0;
+    for (int x = 0; x < lignes; ++x) {
+      final int parite = this.parite(x);
+      for (int y = 0; y < colonnes; ++y) {
+        final int noeud = x * colonnes + y;
+        this.debutsVoisins[noeud] = n;
+        for (int dx = -1; dx <= 1; ++dx) {
+          for (int dy = -1; dy <= 1; ++dy) {
+            final int voisin = this.noeud(x + dx, y + dy);
+            if (voisin < 0 || voisin == noeud || this.pas(parite, dx, dy) != 1
+                || contient(liste, this.debutsVoisins[noeud], n, voisin)) {
+              continue;
+            }
+            liste[n++] = voisin;
+          }
+        }
+      }
+    }
+    this.debutsVoisins[taille] = n;
+    this.voisins = Arrays.copyOf(liste, n);
+  }
+
+  /**
+   * Constructs a rectangular grid without wrapping, as the map has always been.
+   *
+   * @param lignes the number of rows
+   * @param colonnes the number of columns
+   * @return the grid
+   */
+  public static Topologie rectangulaire(final int lignes, final int colonnes) {
+    return new Topologie(lignes, colonnes, Maille.RECTANGULAIRE, false);
+  }
+
+  /**
+   * Returns the number of rows.
+   *
+   * @return the number of rows
+   */
+  public int getLignes() {
+    return this.lignes;
+  }
+
+  /**
+   * Returns the number of columns.
+   *
+   * @return the number of columns
+   */
+  public int getColonnes() {
+    return this.colonnes;
+  }
+
+  /**
+   * Returns the number of nodes.
+   *
+   * @return lignes * colonnes
+   */
+  public int getTaille() {
+    return this.lignes * this.colonnes;
+  }
+
+  /**
+   * Returns the lattice.
+   *
+   * @return the lattice
+   */
+  public Maille getMaille() {
+    return this.maille;
+  }
+
+  /**
+   * Tells whether the edges wrap.
+   *
+   * @return true for a toroidal grid
+   */
+  public boolean isTorique() {
+    return this.torique;
+  }
+
+  /**
+   * Tells whether the grid is the rectangular one without wrapping, where the neighbourhood
+   * of a node is a square window clipped to the grid.
+   *
+   * @return true for a plain rectangular grid
+   */
+  public boolean isRectangulaireSimple() {
+    return this.maille == Maille.RECTANGULAIRE && !this.torique;
+  }
+
+  /**
+   * Returns the index of a node, wrapping the coordinates on a toroidal grid.
+   *
+   * @param x the row, possibly outside the grid
+   * @param y the column, possibly outside the grid
+   * @return the index of the node, or -1 if (x, y) is outside a grid that does not wrap
+   */
+  public int noeud(int x, int y) {
+    if (this.torique) {
+      x = Math.floorMod(x, this.lignes);
+      y = Math.floorMod(y, this.colonnes);
+    }
+    else if (x < 0 || x >= this.lignes || y < 0 || y >= this.colonnes) {
+      return -1;
+    }
+    return x * this.colonnes + y;
+  }
+
+  /**
+   * Returns the parity of a row, which decides the offsets of the neighbours on the hexagonal
+   * lattice; always 0 on the rectangular one.
+   *
+   * @param x the row
+   * @return 0 or 1
+   */
+  public int parite(final int x) {
+    return this.maille == Maille.HEXAGONALE ? x & 1 : 0;
+  }
+
+  /**
+   * Returns the number of parities of the rows: 2 on the hexagonal lattice, 1 otherwise.
+   *
+   * @return the number of parities
+   */
+  public int getNbParites() {
+    return this.maille == Maille.HEXAGONALE ? 2 : 1;
+  }
+
+  /**
+   * Returns the squared distance on the lattice between a node and the node at a grid offset.
+   *
+   * @param parite the parity of the row of the first node
+   * @param dx the row offset
+   * @param dy the column offset
+   * @return the squared distance, 1 between two neighbours
+   */
+  public double distanceCarree(final int parite, final int dx, final int dy) {
+    if (this.maille == Maille.RECTANGULAIRE) {
+      return dx * dx + dy * dy;
+    }
+    final double decalage = dy + ((parite + dx) & 1) / 2.0 - parite / 2.0;
+    final double hauteur = dx * HAUTEUR_HEXAGONE;
+    return hauteur * hauteur + decalage * decalage;
+  }
+
+  /**
+   * Returns the number of steps between a node and the node at a grid offset, moving from a
+   * node to one of its neighbours at each step.
+   *
+   * @param parite the parity of the row of the first node
+   * @param dx the row offset
+   * @param dy the column offset
+   * @return the number of steps
+   */
+  public int pas(final int parite, final int dx, final int dy) {
+    if (this.maille == Maille.RECTANGULAIRE) {
+      return Math.max(Math.abs(dx), Math.abs(dy));
+    }
+    // cube coordinates of the offset rows
+    final int dq = dy - (parite + dx - ((parite + dx) & 1)) / 2;
+    return (Math.abs(dx) + Math.abs(dq) + Math.abs(dx + dq)) / 2;
+  }
+
+  /**
+   * Tells whether a row offset is the one kept among those reaching the same row of a toroidal
+   * grid, so that a neighbourhood never visits a node twice.
+   *
+   * @param dx the row offset
+   * @return true if the offset is kept
+   */
+  boolean isDecalageLigne(final int dx) {
+    return !this.torique || (dx >= -(this.lignes - 1) / 2 && dx <= this.lignes / 2);
+  }
+
+  /**
+   * Tells whether a column offset is the one kept among those reaching the same column of a
+   * toroidal grid.
+   *
+   * @param dy the column offset
+   * @return true if the offset is kept
+   */
+  boolean isDecalageColonne(final int dy) {
+    return !this.torique || (dy >= -(this.colonnes - 1) / 2 && dy <= this.colonnes / 2);
+  }
+
+  /**
+   * Tells whether two nodes are neighbours.
+   *
+   * @param a the index of the first node
+   * @param b the index of the second node
+   * @return true if b is one of the neighbours of a
+   */
+  public boolean voisins(final int a, final int b) {
+    return contient(this.voisins, this.debutsVoisins[a], this.debutsVoisins[a + 1], b);
+  }
+
+  /**
+   * Returns the number of neighbours of a node.
+   *
+   * @param noeud the index of the node
+   * @return the number of neighbours
+   */
+  public int getNbVoisins(final int noeud) {
+    return this.debutsVoisins[noeud + 1] - this.debutsVoisins[noeud];
+  }
+
+  /**
+   * Returns one of the neighbours of a node.
+   *
+   * @param noeud the index of the node
+   * @param i the rank of the neighbour, below getNbVoisins(noeud)
+   * @return the index of the neighbour
+   */
+  public int getVoisin(final int noeud, final int i) {
+    return this.voisins[this.debutsVoisins[noeud] + i];
+  }
+
+  /**
+   * Returns the window of the legacy integer radius (Planning.rayon): the nodes at most
+   * `rayon` steps away, all with weight 1. The windows are computed once and can be read by
+   * several threads.
+   *
+   * @param rayon the radius
+   * @return the table of the window
+   */
+  public Voisinage.Table bulle(final int rayon) {
+    final Voisinage.Table[] bulles = this.bulles;
+    if (rayon < bulles.length && bulles[rayon] != null) {
+      return bulles[rayon];
+    }
+    synchronized (this) {
+      Voisinage.Table[] copie = this.bulles;
+      if (rayon >= copie.length) {
+        copie = Arrays.copyOf(copie, rayon + 1);
+      }
+      else {
+        copie = copie.clone();
+      }
+      if (copie[rayon] == null) {
+        copie[rayon] = new Voisinage.Table(Voisinage.Forme.BULLE, rayon, this);
+      }
+      this.bulles = copie;
+      return copie[rayon];
+    }
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (!(o instanceof Topologie)) {
+      return false;
+    }
+    final Topologie t = (Topologie)o;
+    return this.lignes == t.lignes && this.colonnes == t.colonnes && this.maille == t.maille && this.torique == t.torique;
+  }
+
+  @Override
+  public int hashCode() {
+    return ((this.lignes * 31 + this.colonnes) * 31 + this.maille.hashCode()) * 2 + (this.torique ? 1 : 0);
+  }
+
+  @Override
+  public String toString() {
+    return this.lignes + " x " + this.colonnes + " " + this.maille + (this.torique ? " torique" : "");
+  }
+
+  private static boolean contient(final int[] tableau, final int debut, final int fin, final int valeur) {
+    for (int i = debut; i < fin; ++i) {
+      if (tableau[i] == valeur) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -1,11 +1,10 @@
 package code;
 
-import java.io.InputStream;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.FileInputStream;
-import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 
 /**
  * Class responsible for processing and normalizing input data,
@@ -15,16 +14,22 @@ import java.util.ArrayList;
  * @author Fab.16
  */
 public class Traitement {
-  /** List of raw input data. */
+  /** Raw input data as read from the file, or null when the input was already normalized. */
+  private Donnees donnees;
+
+  /** Normalized input data, read by the training. */
+  private Donnees normees;
+
+  /** List of raw input data, built on demand. */
   private ArrayList<Weight> datas;
 
-  /** Normalized version of the input data. */
+  /** Normalized version of the input data, built on demand. */
   private ArrayList<Weight> normeDatas;
 
   /** Randomized subset of the input data used for training. */
   private ArrayList<Weight> intervaleAleatoire;
 
-  /** Array of shuffled indices to randomize data reading. */
+  /** Order of the rows in the current epoch of the stochastic training, reshuffled in place each epoch. */
   private int[] indiceShuffleData;
 
   /** Array of mean values per feature dimension. */
@@ -33,60 +38,185 @@ public class Traitement {
   /** Vector representing the global average of the input data. */
   private ArrayList<Double> vecteurMoyen;
 
-  /** Main grid (matrix) of neurons used in the SOM. */
+  /** Main grid (matrix) of neurons used in the SOM, whose weights are views on the codebook. */
   private Neuron[][] matrice;
 
+  /** Flat storage of the reference vectors of the grid, used by the training loop. */
+  private Codebook codebook;
+
+  /** Ecart (see Codebook.ecart) between the current input vector and each node, indexed like the codebook. */
+  private double[] distances;
+
   /** Submatrix used during the training or classification phase. */
   private Neuron[][] sousMatrice;
 
   /** List of neurons with the shortest distance to input vectors (BMUs). */
   private ArrayList<Neuron> lesPlusPetitNoeud;
 
+  /** Number of threads used to search the BMUs, 1 for the sequential search. */
+  private int nbThreads = 1;
+
+  /** Parallel BMU search, created on demand when nbThreads is greater than 1. */
+  private RechercheBmu rechercheBmu;
+
+  /** Neighbourhood function of the training, or null for the square window of rapprochement. */
+  private Voisinage voisinage;
+
+  /** Length and learning rate schedule of rapprochement. */
+  private Planning planning = Planning.historique();
+
+  /** Early stopping rule of the training, or null to run the whole schedule. */
+  private Convergence convergence;
+
+  /** Number of random projection trees of the approximate BMU search, 0 for the exact search. */
+  private int nbArbres;
+
+  /** Approximate BMU search, created on demand when nbArbres is greater than 0. */
+  private RechercheApprochee rechercheApprochee;
+
+  /** Tie policy of the BMU selection of the training. */
+  private SelectionBmu.Egalite egalite = SelectionBmu.Egalite.ALEATOIRE;
+
+  /** Shape of the map chosen by the user, or null for the legacy shape derived from the data. */
+  private Topologie topologie;
+
+  /** Seed of every random choice of the processing. */
+  private long graine;
+
+  /** Stream of the initial vectors of the grid. */
+  private SplittableRandom aleatoireInitialisation;
+
+  /** Stream of the order of the rows. */
+  private SplittableRandom aleatoireMelange;
+
+  /** Stream of the tie-breaking. */
+  private SplittableRandom aleatoireEgalite;
+
+  /** Stream of the seeds of the training sessions and of the parallel training, split for the approximate search. */
+  private SplittableRandom aleatoireEntrainement;
+
+  /** Seed of the random choices of the current online training, one stream per epoch. */
+  private long graineSession;
+
+  /** Epoch reached by the online training. */
+  private int epoque;
+
+  /** Number of updates done by the online training. */
+  private long miseAJour;
+
+  /** Whether the next online training resumes from the epoch reached instead of starting over. */
+  private boolean reprise;
+
+  /** Checkpoints of the online training, or null for none. */
+  private Sauvegarde sauvegarde;
+
+  /** Number of epochs between two checkpoints. */
+  private int periodeSauvegarde;
+
+  /** Whether the labels of the nodes match the codebook, set by distanceEuclidienneInverse and cleared by the trainings. */
+  private boolean etiquetee;
+
+  /** Listener of the epochs of the online training, or null to measure nothing. */
+  private SuiviEntrainement suivi;
+
+  /** Metric of the codebook built by genereMatrice. */
+  private Metrique metrique = Metrique.EUCLIDIENNE;
+
 
   /**
    * Constructs the code.Traitement object and processes the input file.
-   * Parses each line as a code.Weight instance and normalizes the data.
+   * A CSV file is read by a code.LecteurCsv (the last column being the label) then normalized;
+   * a file with the DonneesBinaires.EXTENSION extension is memory-mapped and used as is.
    *
    * @param nomFichier the name of the CSV file containing the input data.
+   * @throws UncheckedIOException if the file cannot be read or contains a malformed row
    */
   public Traitement(final String nomFichier) {
-    this.normeDatas = new ArrayList<Weight>();
+    this(lireFichier(nomFichier));
+  }
+
+  /**
+   * Constructs the code.Traitement object from data already loaded.
+   * The data is normalized into a code.MatriceDonnees unless it is already normalized,
+   * in which case it is used directly without any copy.
+   *
+   * @param donnees the input data
+   */
+  public Traitement(final Donnees donnees) {
+    this.setGraine(new SplittableRandom().nextLong());
+    if (donnees.isNormalisees()) {
+      this.normees = donnees;
+    }
+    else {
+      this.donnees = donnees;
+      this.normees = MatriceDonnees.normaliser(donnees);
+    }
+  }
+
+  /**
+   * Reads a CSV file, reporting the line of the first malformed row if any.
+   *
+   * @param nomFichier the name of the CSV file
+   * @return the rows of the file
+   */
+  private static Donnees lireFichier(final String nomFichier) {
+    System.out.println("Traitement du fichier ...");
     try {
-      System.out.println("Traitement du fichier ...");
-      final File fichier = new File(nomFichier);
-      final InputStream st = new FileInputStream(fichier);
-      final InputStreamReader str = new InputStreamReader(st);
-      final BufferedReader bf = new BufferedReader(str);
-      this.datas = new ArrayList<Weight>();
-      String ligne;
-      while ((ligne = bf.readLine()) != null) {
-        final String[] tab = ligne.split(",");
-        final Weight f = new Weight(tab);
-        this.datas.add(f);
+      if (nomFichier.endsWith(DonneesBinaires.EXTENSION)) {
+        return new DonneesBinaires(nomFichier);
       }
-      this.normalisation(this.datas, this.normeDatas);
+      return new LecteurCsv().lire(nomFichier);
     }
-    catch (Exception e) {
-      System.out.println("erreur d'ouverture de fichier");
+    catch (IOException e) {
+      System.out.println("erreur de lecture du fichier " + nomFichier + " : " + e.getMessage());
+      throw new UncheckedIOException(e);
     }
   }
 
+  /**
+   * Gets the raw input data in its flat form.
+   *
+   * @return the rows read, or null when the input was already normalized
+   */
+  public Donnees getDonnees() {
+    return this.donnees;
+  }
+
+  /**
+   * Gets the normalized input data in its flat form, as read by the training.
+   *
+   * @return the normalized rows
+   */
+  public Donnees getNormees() {
+    return this.normees;
+  }
+
 
   /**
    * Gets the original (non-normalized) input data.
+   * The list is built on the first call; when the input was already normalized,
+   * it holds the normalized rows.
    *
    * @return the list of original code.Weight instances.
    */
   public ArrayList<Weight> getDatas() {
+    if (this.datas == null) {
+      this.datas = MatriceDonnees.versListe(this.donnees != null ? this.donnees : this.normees);
+    }
     return this.datas;
   }
 
   /**
    * Gets the normalized version of the input data.
    *
+   * The list is built on the first call.
+   *
    * @return the list of normalized code.Weight instances.
    */
   public ArrayList<Weight> getNormeDatas() {
+    if (this.normeDatas == null) {
+      this.normeDatas = MatriceDonnees.versListe(this.normees);
+    }
     return this.normeDatas;
   }
 
@@ -108,6 +238,15 @@ public class Traitement {
     return this.matrice;
   }
 
+  /**
+   * Gets the flat codebook holding the reference vectors of the grid.
+   *
+   * @return the codebook, or null before genereMatrice()
+   */
+  public Codebook getCodebook() {
+    return this.codebook;
+  }
+
   /**
    * Gets the submatrix used for specialized tasks.
    *
@@ -126,27 +265,364 @@ public class Traitement {
     return this.lesPlusPetitNoeud;
   }
 
+  /**
+   * Gets the number of threads used to search the BMUs.
+   *
+   * @return the number of threads
+   */
+  public int getNbThreads() {
+    return this.nbThreads;
+  }
+
+  /**
+   * Sets the number of threads used to search the BMUs during the training.
+   * A value of 1 keeps the sequential search.
+   *
+   * @param nbThreads the number of threads, at least 1
+   */
+  public void setNbThreads(final int nbThreads) {
+    if (nbThreads < 1) {
+      throw new IllegalArgumentException("nombre de threads invalide : " + nbThreads);
+    }
+    if (nbThreads != this.nbThreads) {
+      this.fermer();
+    }
+    this.nbThreads = nbThreads;
+  }
+
+  /**
+   * Gets the neighbourhood function used by the training.
+   *
+   * @return the neighbourhood function, or null for the default square window
+   */
+  public Voisinage getVoisinage() {
+    return this.voisinage;
+  }
+
+  /**
+   * Sets the neighbourhood function used by rapprochement and rapprochementBatch.
+   * With null, rapprochement keeps its square window of radius 3, 2 then 1 and
+   * rapprochementBatch a square window shrinking from half the grid to 1.
+   *
+   * @param voisinage the neighbourhood function, or null
+   */
+  public void setVoisinage(final Voisinage voisinage) {
+    this.voisinage = voisinage;
+  }
+
+  /**
+   * Gets the schedule of rapprochement.
+   *
+   * @return the schedule
+   */
+  public Planning getPlanning() {
+    return this.planning;
+  }
+
+  /**
+   * Sets the schedule of rapprochement: its number of epochs or updates and the decrease
+   * of the learning rate. The default, Planning.historique(), runs 5 * N epochs over the
+   * N rows, which is only practical for small data sets.
+   *
+   * @param planning the schedule
+   */
+  public void setPlanning(final Planning planning) {
+    if (planning == null) {
+      throw new IllegalArgumentException("planning absent");
+    }
+    this.planning = planning;
+  }
+
+  /**
+   * Gets the approximate BMU search of the training.
+   *
+   * @return the search and its measured error rate, or null when the search is exact
+   */
+  public RechercheApprochee getRechercheApprochee() {
+    return this.rechercheApprochee;
+  }
+
+  /**
+   * Switches the training to an approximate BMU search (see code.RechercheApprochee), for maps
+   * too large to compare every node with every row. The forest is rebuilt once every node
+   * count of queries and one query in 1000 is checked against the exact search, whose error
+   * rate getRechercheApprochee().getTauxErreur() reports.
+   *
+   * @param nbArbres the number of random projection trees, more giving a higher recall;
+   *                 0 for the exact search
+   */
+  public void setApproximation(final int nbArbres) {
+    if (nbArbres < 0) {
+      throw new IllegalArgumentException("nombre d'arbres invalide : " + nbArbres);
+    }
+    this.nbArbres = nbArbres;
+    this.rechercheApprochee = null;
+  }
+
+  /**
+   * Gets the tie policy of the BMU selection of the training.
+   *
+   * @return the tie policy
+   */
+  public SelectionBmu.Egalite getEgalite() {
+    return this.egalite;
+  }
+
+  /**
+   * Sets the tie policy of the BMU selection of the training. By default (ALEATOIRE), one of
+   * the tied nodes is drawn uniformly, as the original training did, from the stream of the epoch
+   * derived from the seed (setGraine); with PREMIER, the first node in row-major order wins.
+   *
+   * @param egalite the tie policy
+   */
+  public void setEgalite(final SelectionBmu.Egalite egalite) {
+    if (egalite == null) {
+      throw new IllegalArgumentException("politique d'égalité absente");
+    }
+    this.egalite = egalite;
+  }
+
+  /**
+   * Gets the seed of the random choices, which replays the processing when given to setGraine.
+   *
+   * @return the seed
+   */
+  public long getGraine() {
+    return this.graine;
+  }
+
+  /**
+   * Seeds every random choice of the processing: the initial vectors of the grid
+   * (creerIntervale), the order of the rows and the tie-breaking of the online training (one
+   * stream per epoch, so that a resumed training makes the same choices), the parallel and
+   * approximate trainings and the legacy helpers. Each use draws from its own stream split from the
+   * seed, so that for a given seed and number of threads the same calls give the same map,
+   * and the threads never share a generator. Without a call, a random seed is drawn.
+   *
+   * @param graine the seed
+   */
+  public void setGraine(final long graine) {
+    this.graine = graine;
+    final SplittableRandom racine = new SplittableRandom(graine);
+    this.aleatoireInitialisation = racine.split();
+    this.aleatoireMelange = racine.split();
+    this.aleatoireEgalite = racine.split();
+    this.aleatoireEntrainement = racine.split();
+  }
+
+  /**
+   * Gets the metric comparing the data with the nodes.
+   *
+   * @return the metric
+   */
+  public Metrique getMetrique() {
+    return this.metrique;
+  }
+
+  /**
+   * Sets the metric comparing the data with the nodes. It is given to the codebook,
+   * so it must be set before genereMatrice().
+   *
+   * @param metrique the metric
+   */
+  public void setMetrique(final Metrique metrique) {
+    if (metrique == null) {
+      throw new IllegalArgumentException("métrique absente");
+    }
+    this.metrique = metrique;
+  }
+
+  /**
+   * Gets the shape of the map.
+   *
+   * @return the topology chosen with setTopologie, or null for the legacy shape
+   */
+  public Topologie getTopologie() {
+    return this.topologie;
+  }
+
+  /**
+   * Sets the shape of the map: any number of rows and columns, a rectangular or hexagonal
+   * lattice, with or without wrapping. It decides the number of vectors created by the
+   * creerIntervale methods, so it must be set before them. Without it, the map has
+   * 5 * sqrt(number of datas) nodes, rounded down to a multiple of 10, in rows of 10.
+   *
+   * @param topologie the shape of the map, or null for the legacy shape
+   */
+  public void setTopologie(final Topologie topologie) {
+    this.topologie = topologie;
+  }
+
+  /**
+   * Saves the online training (rapprochement) to a checkpoint file every `periode` epochs and
+   * at its end, so that it can be resumed with reprendre after the process stopped.
+   * The nodes are labelled (distanceEuclidienneInverse) before the last checkpoint, which can
+   * then be loaded by Modele.charger; the others hold no labels.
+   *
+   * @param nomFichier the name of the checkpoint file, or null for no checkpoints
+   * @param periode the number of epochs between two checkpoints, at least 1
+   */
+  public void setSauvegarde(final String nomFichier, final int periode) {
+    if (nomFichier != null && periode < 1) {
+      throw new IllegalArgumentException("période de sauvegarde invalide : " + periode);
+    }
+    this.sauvegarde = nomFichier == null ? null : new Sauvegarde(nomFichier);
+    this.periodeSauvegarde = periode;
+  }
+
+  /**
+   * Writes a checkpoint of the map now: the codebook, the shape of the map, the position of the
+   * online training, the seeds and the label of each node (see distanceEuclidienneInverse).
+   * Without labels matching the codebook, that is when the map was trained since the last call
+   * to distanceEuclidienneInverse, the checkpoint can be resumed but not loaded by Modele.charger.
+   *
+   * @param nomFichier the name of the checkpoint file
+   * @throws IOException if the file cannot be written
+   */
+  public void sauvegarder(final String nomFichier) throws IOException {
+    final Sauvegarde sauvegarde = this.sauvegarde != null && this.sauvegarde.getFichier().toString().equals(nomFichier) ? this.sauvegarde : new Sauvegarde(nomFichier);
+    sauvegarde.ecrire(this.etat(this.epoque, this.miseAJour));
+  }
+
+  /**
+   * Restores a map from a checkpoint: the codebook, the shape of the map, the metric, the seed,
+   * the schedule, the neighbourhood function, the tie policy and the labels of the nodes. The next call to
+   * rapprochement continues the online training from the saved epoch, with the same random
+   * choices as the interrupted one, so that the final map is the same as without interruption.
+   * The early stopping rule and the approximate search are not saved: set them again if needed,
+   * the errors recorded before the checkpoint being lost.
+   *
+   * @param nomFichier the name of the checkpoint file
+   * @throws IOException if the file cannot be read or is not a valid checkpoint
+   */
+  public void reprendre(final String nomFichier) throws IOException {
+    final Sauvegarde.Etat etat = new Sauvegarde(nomFichier).lire();
+    final Codebook codebook = etat.getCodebook();
+    if (etat.getNbDonnees() != this.normees.getLignes() || codebook.getDimension() != this.normees.getDimension()) {
+      throw new IllegalArgumentException("la sauvegarde porte sur " + etat.getNbDonnees() + " lignes de dimension " + codebook.getDimension()
+          + ", pas " + this.normees.getLignes() + " de dimension " + this.normees.getDimension());
+    }
+    this.setGraine(etat.getGraine());
+    this.metrique = codebook.getMetrique();
+    this.topologie = codebook.getTopologie();
+    this.planning = etat.getPlanning();
+    this.voisinage = etat.getVoisinage();
+    this.egalite = etat.getEgalite();
+    this.codebook = codebook;
+    this.distances = new double[codebook.getTaille()];
+    this.rechercheApprochee = null;
+    this.construireMatrice();
+    for (int noeud = 0; noeud < codebook.getTaille(); ++noeud) {
+      this.matrice[noeud / codebook.getColonnes()][noeud % codebook.getColonnes()].setEtiquette(etat.getEtiquette(noeud));
+    }
+    this.etiquetee = etat.isEtiquetee();
+    this.graineSession = etat.getGraineSession();
+    this.epoque = etat.getEpoque();
+    this.miseAJour = etat.getMiseAJour();
+    this.reprise = true;
+  }
+
+  /**
+   * Freezes the current map for the mapping of new records: the codebook and the label of each
+   * node (see distanceEuclidienneInverse). The records are normalized like the training rows.
+   *
+   * @return the model, unaffected by any later training
+   */
+  public Modele modele() {
+    return new Modele(this.codebook, this.etiquettes(), true);
+  }
+
+  /**
+   * State of the processing saved by a checkpoint.
+   */
+  private Sauvegarde.Etat etat(final int epoque, final long miseAJour) {
+    return new Sauvegarde.Etat(this.codebook, this.graine, this.graineSession, epoque, miseAJour, this.normees.getLignes(),
+        this.planning, this.voisinage, this.egalite, this.etiquetee ? this.etiquettes() : null);
+  }
+
+  /**
+   * Label of each node of the grid, indexed like the codebook.
+   */
+  private String[] etiquettes() {
+    final String[] etiquettes = new String[this.codebook.getTaille()];
+    for (int noeud = 0; noeud < etiquettes.length; ++noeud) {
+      etiquettes[noeud] = this.matrice[noeud / this.codebook.getColonnes()][noeud % this.codebook.getColonnes()].getEtiquette();
+    }
+    return etiquettes;
+  }
+
+  /**
+   * Writes a checkpoint during the online training.
+   */
+  private void sauvegarderEntrainement(final int epoque, final long miseAJour) {
+    try {
+      this.sauvegarde.ecrire(this.etat(epoque, miseAJour));
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("erreur d'écriture de la sauvegarde " + this.sauvegarde.getFichier(), e);
+    }
+  }
+
+  /**
+   * Gets the listener of the epochs of the online training.
+   *
+   * @return the listener, or null
+   */
+  public SuiviEntrainement getSuivi() {
+    return this.suivi;
+  }
+
+  /**
+   * Sets the listener told of the measures of each epoch of the online training (see
+   * code.Mesures, and code.Telemetrie for JMX and JFR). Without a listener the training
+   * measures nothing.
+   *
+   * @param suivi the listener, or null
+   */
+  public void setSuivi(final SuiviEntrainement suivi) {
+    this.suivi = suivi;
+  }
+
+  /**
+   * Gets the early stopping rule of the training.
+   *
+   * @return the rule and the errors it recorded, or null
+   */
+  public Convergence getConvergence() {
+    return this.convergence;
+  }
+
+  /**
+   * Sets the early stopping rule of rapprochement and rapprochementBatch. The quantization
+   * and topographic errors are then measured at every epoch, and the training stops once
+   * the quantization error no longer improves.
+   *
+   * @param convergence the rule, or null to run the whole schedule
+   */
+  public void setConvergence(final Convergence convergence) {
+    this.convergence = convergence;
+  }
+
   /**
    * Computes the average feature vector (mean vector) from the normalized data.
    * This method initializes the `moyenne` array to hold the sum of each feature dimension
-   * across all normalized weights (`normeDatas`). Then it calculates the average for each dimension
+   * across all normalized rows (`normees`). Then it calculates the average for each dimension
    * by dividing the sum by the number of data points. The result is stored in `vecteurMoyen`.
    * The computed mean vector is also printed to the console.
    */
   public void calculeVecteurMoyen() {
-    this.moyenne = new double[this.normeDatas.get(0).getDimention().length];
-    this.vecteurMoyen = new ArrayList<>(this.normeDatas.get(0).getDimention().length);
-    for (final Weight e : this.normeDatas) {
-      for (int i = 0; i < e.getDimention().length; ++i) {
-        final double[] dimention = e.getDimention();
-        final double[] moyenne = this.moyenne;
-        final int n = i;
-        moyenne[n] += dimention[i];
+    this.moyenne = new double[this.normees.getDimension()];
+    this.vecteurMoyen = new ArrayList<>(this.normees.getDimension());
+    final double[] dimention = new double[this.normees.getDimension()];
+    for (int k = 0; k < this.normees.getLignes(); ++k) {
+      this.normees.copierLigne(k, dimention);
+      for (int i = 0; i < dimention.length; ++i) {
+        this.moyenne[i] += dimention[i];
       }
     }
     System.out.print("Le vecteur moyenne est : \n");
     for (int j = 0; j < this.moyenne.length; ++j) {
-      this.vecteurMoyen.add(this.moyenne[j] / this.datas.size());
+      this.vecteurMoyen.add(this.moyenne[j] / this.normees.getLignes());
       System.out.print(this.vecteurMoyen.get(j) + " ");
     }
     System.out.println();
@@ -158,6 +634,7 @@ public class Traitement {
    * and the specified upper (`borneSupp`) and lower (`borneInf`) bounds. The number of vectors is determined
    * by the formula `5 * sqrt(number of datas)`, rounded to the nearest multiple of 10. Each vector is created
    * with the calculated limits for each dimension and added to the `intervaleAleatoire` list.
+   * When a topology is set (setTopologie), there is one vector per node of it instead.
    *
    * @param borneSupp the upper bound for the intervals around the mean vector
    * @param borneInf the lower bound for the intervals around the mean vector
@@ -171,15 +648,65 @@ public class Traitement {
       limiteMax[i] = this.vecteurMoyen.get(i) + borneSupp;
       limiteMin[i] = this.vecteurMoyen.get(i) - borneInf;
     }
-    int nbVecteur = (int)(5.0 * Math.sqrt(this.datas.size()));
-    nbVecteur -= nbVecteur % 10;
+    final int nbVecteur = this.forme().getTaille();
     for (int j = 0; j < nbVecteur; ++j) {
-      final Weight f = new Weight(this.vecteurMoyen.size(), limiteMin, limiteMax);
+      final Weight f = new Weight(this.vecteurMoyen.size(), limiteMin, limiteMax, this.aleatoireInitialisation);
       this.intervaleAleatoire.add(f);
     }
     return this.intervaleAleatoire;
   }
 
+  /**
+   * Creates the weight vectors of the map on the plane of the two first principal components
+   * of the normalized data (see code.Initialisation), the longer side of the map along the
+   * first one. The map starts already spread along the data, so far fewer epochs are needed
+   * than from creerIntervale. The number of vectors is the same as with creerIntervale.
+   *
+   * @return the list of `code.Weight` objects, in the order of the nodes of the map
+   */
+  public ArrayList<Weight> creerIntervalePca() {
+    final Topologie forme = this.forme();
+    return this.creerIntervale(new Initialisation(this.normees).lineaire(forme.getLignes(), forme.getColonnes()), forme.getTaille());
+  }
+
+  /**
+   * Creates the weight vectors of the map from normalized rows drawn with the k-means++ rule,
+   * or uniformly on very large maps, ordered on the map along the two first principal components
+   * (see code.Initialisation, which bounds the cost of the draws).
+   * The draws come from the initialisation stream of the seed (setGraine).
+   *
+   * @return the list of `code.Weight` objects, in the order of the nodes of the map
+   */
+  public ArrayList<Weight> creerIntervaleEchantillons() {
+    final Topologie forme = this.forme();
+    final Initialisation initialisation = new Initialisation(this.normees);
+    return this.creerIntervale(initialisation.echantillons(forme.getLignes(), forme.getColonnes(), this.metrique, this.aleatoireInitialisation), forme.getTaille());
+  }
+
+  /**
+   * Fills `intervaleAleatoire` with the vectors of a flat array.
+   */
+  private ArrayList<Weight> creerIntervale(final double[] poids, final int nbVecteur) {
+    final int dimension = this.normees.getDimension();
+    this.intervaleAleatoire = new ArrayList<Weight>(nbVecteur);
+    for (int j = 0; j < nbVecteur; ++j) {
+      this.intervaleAleatoire.add(new Weight(Arrays.copyOfRange(poids, j * dimension, (j + 1) * dimension), ""));
+    }
+    return this.intervaleAleatoire;
+  }
+
+  /**
+   * Shape of the map: the one set by setTopologie, or rows of 10 nodes, 5 * sqrt(number of
+   * datas) of them rounded down to a multiple of 10.
+   */
+  private Topologie forme() {
+    if (this.topologie != null) {
+      return this.topologie;
+    }
+    final int nbVecteur = (int)(5.0 * Math.sqrt(this.normees.getLignes()));
+    return Topologie.rectangulaire(Math.max(1, nbVecteur / 10), 10);
+  }
+
 
   /**
    * Prints the dimensions and labels of each weight vector in the provided interval list.
@@ -190,8 +717,9 @@ public class Traitement {
    */
   public void lectureIntervale(final ArrayList<Weight> intervale) {
     for (final Weight f : intervale) {
-      for (int i = 0; i < f.getDimention().length; ++i) {
-        System.out.print(f.getDimention()[i] + ",");
+      final double[] composantes = f.getDimention();
+      for (int i = 0; i < composantes.length; ++i) {
+        System.out.print(composantes[i] + ",");
       }
       System.out.print(f.getLabel() + "\n");
     }
@@ -204,29 +732,42 @@ public class Traitement {
    * This method first randomizes the order of the input `intervale` list by shuffling the indices of
    * the elements. It then prints the dimensions of each `code.Weight` object (separated by commas) followed by
    * the corresponding label of the vector.
+   * The order printed is independent of the order of the stochastic training, which rapprochement
+   * reshuffles at each epoch.
    *
    * @param intervale the list of `code.Weight` objects whose dimensions and labels are to be printed in a random order
    */
   public void lectureIntervaleAleatoire(final ArrayList<Weight> intervale) {
-    this.indiceShuffleData = new int[intervale.size()];
-    for (int i = 0; i < intervale.size(); ++i) {
-      this.indiceShuffleData[i] = i;
-    }
-    for (int j = 0; j < this.indiceShuffleData.length; ++j) {
-      final int rand = (int)(Math.random() * this.indiceShuffleData.length);
-      final int tmp = this.indiceShuffleData[j];
-      this.indiceShuffleData[j] = this.indiceShuffleData[rand];
-      this.indiceShuffleData[rand] = tmp;
+    final int[] ordre = new int[intervale.size()];
+    for (int i = 0; i < ordre.length; ++i) {
+      ordre[i] = i;
     }
+    melanger(ordre, this.aleatoireMelange.split());
     for (int k = 0; k < intervale.size(); ++k) {
-      final Weight f = intervale.get(this.indiceShuffleData[k]);
-      for (int l = 0; l < f.getDimention().length; ++l) {
-        System.out.print(f.getDimention()[l] + ",");
+      final Weight f = intervale.get(ordre[k]);
+      final double[] composantes = f.getDimention();
+      for (int l = 0; l < composantes.length; ++l) {
+        System.out.print(composantes[l] + ",");
       }
       System.out.print(f.getLabel() + "\n");
     }
   }
 
+  /**
+   * Shuffles an array of indices in place (Fisher-Yates), every permutation being equally likely.
+   *
+   * @param ordre the indices to shuffle
+   * @param aleatoire the generator of the permutation
+   */
+  private static void melanger(final int[] ordre, final SplittableRandom aleatoire) {
+    for (int i = ordre.length - 1; i > 0; --i) {
+      final int j = aleatoire.nextInt(i + 1);
+      final int tmp = ordre[i];
+      ordre[i] = ordre[j];
+      ordre[j] = tmp;
+    }
+  }
+
   /**
    * Normalizes the dimensions of each `code.Weight` object in the provided list and stores the result in a new list.
    * This method calculates the Euclidean norm (magnitude) of each weight vector and normalizes its dimensions
@@ -238,13 +779,15 @@ public class Traitement {
   public void normalisation(final ArrayList<Weight> maListe, final ArrayList<Weight> listeResult) {
     final double[] normeVecteur = new double[maListe.get(0).getDimention().length];
     for (final Weight f : maListe) {
+      // one copy per vector when f is a view on a codebook
+      final double[] composantes = f.getDimention();
       double norme = 0.0;
-      for (int i = 0; i < f.getDimention().length; ++i) {
-        norme += Math.pow(f.getDimention()[i], 2.0);
+      for (int i = 0; i < composantes.length; ++i) {
+        norme += Math.pow(composantes[i], 2.0);
       }
       norme = Math.sqrt(norme);
-      for (int i = 0; i < f.getDimention().length; ++i) {
-        normeVecteur[i] = f.getDimention()[i] / norme;
+      for (int i = 0; i < composantes.length; ++i) {
+        normeVecteur[i] = composantes[i] / norme;
       }
       final Weight dataNormaliser = new Weight(normeVecteur, "");
       listeResult.add(dataNormaliser);
@@ -254,24 +797,45 @@ public class Traitement {
   /**
    * Generates a matrix of `code.Neuron` objects based on the random intervals.
    * This method creates a 2D matrix of `code.Neuron` objects, where each `code.Neuron` is initialized with a `code.Weight`
-   * object from the random intervals. The matrix dimensions are based on the size of the random interval list, with
-   * each row containing 10 neurons.
-   * The method assumes that the total number of random intervals is divisible by 10. The `code.Neuron` objects are
-   * placed in the matrix in row-major order, and each `code.Neuron` is initialized with its corresponding `code.Weight`, 
-   * a default value for its additional parameter (0.0), and its position in the matrix.
+   * object from the random intervals. The matrix has the rows and columns of the topology set by setTopologie,
+   * or, without one, rows of 10 neurons, the total number of random intervals being then divisible by 10.
+   * There must be one random interval per node. The vectors are copied
+   * in row-major order into a flat `code.Codebook`, and each `code.Neuron` is initialized with a read-only view
+   * on its vector, a default value for its additional parameter (0.0), and its position in the matrix.
    *
    * @see Neuron
    * @see Weight
    */
   public void genereMatrice() {
-    this.matrice = new Neuron[this.intervaleAleatoire.size() / 10][10];
+    final Topologie forme = this.topologie != null ? this.topologie : Topologie.rectangulaire(this.intervaleAleatoire.size() / 10, 10);
+    if (forme.getTaille() != this.intervaleAleatoire.size()) {
+      throw new IllegalStateException("la carte " + forme + " demande " + forme.getTaille() + " vecteurs, pas " + this.intervaleAleatoire.size());
+    }
+    this.codebook = new Codebook(forme, this.intervaleAleatoire.get(0).getDimention().length, this.metrique);
+    this.distances = new double[this.codebook.getTaille()];
+    this.epoque = 0;
+    this.miseAJour = 0;
+    this.reprise = false;
     System.out.println("generation de la matrice de noeuds ...");
+    for (int i = 0; i < this.codebook.getTaille(); ++i) {
+      this.codebook.setVecteur(i, this.intervaleAleatoire.get(i).getDimention());
+    }
+    this.construireMatrice();
+  }
+
+  /**
+   * Builds the matrix of neurons, each one a view on its vector in the codebook.
+   */
+  private void construireMatrice() {
+    // the parallel search reads the previous codebook
+    this.fermer();
+    this.etiquetee = false;
+    this.matrice = new Neuron[this.codebook.getLignes()][this.codebook.getColonnes()];
     int i = 0;
-    for (int k = 0; k < this.intervaleAleatoire.size() / 10; ++k) {
-      for (int l = 0; l < 10; ++l) {
-        final Neuron n = new Neuron((Weight)this.intervaleAleatoire.get(i), 0.0, k, l);
+    for (int k = 0; k < this.codebook.getLignes(); ++k) {
+      for (int l = 0; l < this.codebook.getColonnes(); ++l) {
+        this.matrice[k][l] = new Neuron(this.codebook.vue(i), 0.0, k, l);
         ++i;
-        this.matrice[k][l] = n;
       }
     }
   }
@@ -309,6 +873,82 @@ public class Traitement {
     }
   }
 
+  /**
+   * Finds the neurons with the smallest distance to the given vector and stores them in
+   * the `lesPlusPetitNoeud` list, with the same content as plusPetit: the first minimum
+   * followed by every neuron sharing the minimum distance, in row-major order.
+   * With more than one thread, the grid is split into row stripes searched in parallel
+   * (see code.RechercheBmu); the distances are then only kept in the flat `distances` array,
+   * and the threads are kept for the next searches until fermer is called.
+   *
+   * @param donnee the input vector
+   */
+  public void chercheBmu(final double[] donnee) {
+    if (this.nbThreads <= 1) {
+      this.calculeDistanceEucliedienne(donnee);
+      this.plusPetit(this.matrice);
+      return;
+    }
+    final RechercheBmu.Minimum min = this.rechercheParallele().chercher(donnee, this.distances);
+    final int colonnes = this.codebook.getColonnes();
+    this.lesPlusPetitNoeud = new ArrayList<Neuron>(min.getNombre() + 1);
+    this.lesPlusPetitNoeud.add(this.matrice[min.getNoeud(0) / colonnes][min.getNoeud(0) % colonnes]);
+    for (int i = 0; i < min.getNombre(); ++i) {
+      this.lesPlusPetitNoeud.add(this.matrice[min.getNoeud(i) / colonnes][min.getNoeud(i) % colonnes]);
+    }
+  }
+
+  /**
+   * Finds the BMU of a row of the data for the training, without allocation: the ecarts
+   * are written to `distances` and the node is chosen in a single pass by the selection,
+   * which applies the tie policy (setEgalite). The neurons and `lesPlusPetitNoeud` are
+   * left untouched.
+   * With the approximate search (setApproximation), the search starts from the BMU found for
+   * the same row at its previous presentation, and only its ecart is stored in `distances`.
+   *
+   * @param donnee the vector of the row
+   * @param ligne the index of the row in the normalized data
+   * @param selection the selection receiving the BMU
+   * @return the index of the BMU in the codebook
+   */
+  private int selectionnerBmu(final double[] donnee, final int ligne, final SelectionBmu selection) {
+    if (this.nbArbres > 0) {
+      if (this.rechercheApprochee == null) {
+        this.rechercheApprochee = new RechercheApprochee(this.codebook, this.nbArbres, this.codebook.getTaille(), this.aleatoireEntrainement.split());
+        this.rechercheApprochee.setControle(1000);
+      }
+      final int bmu = this.rechercheApprochee.chercher(donnee, ligne);
+      this.distances[bmu] = this.rechercheApprochee.getEcart();
+      return selection.retenir(bmu, this.distances[bmu]);
+    }
+    if (this.nbThreads <= 1) {
+      this.codebook.distances(donnee, this.distances);
+      return selection.choisir(this.distances);
+    }
+    return selection.choisir(this.rechercheParallele().chercher(donnee, this.distances));
+  }
+
+  /**
+   * Stops the threads of the parallel BMU search, if any. rapprochement calls it when it ends;
+   * call it after using chercheBmu with more than one thread. A later search starts new threads.
+   */
+  public void fermer() {
+    if (this.rechercheBmu != null) {
+      this.rechercheBmu.fermer();
+      this.rechercheBmu = null;
+    }
+  }
+
+  /**
+   * Returns the parallel BMU search, creating it on first use.
+   */
+  private RechercheBmu rechercheParallele() {
+    if (this.rechercheBmu == null) {
+      this.rechercheBmu = new RechercheBmu(this.codebook, this.nbThreads);
+    }
+    return this.rechercheBmu;
+  }
+
   /**
    * Generates a random index within the given list.
    * This method generates a random index between 0 and the size of the list (exclusive),
@@ -318,7 +958,7 @@ public class Traitement {
    * @return A randomly generated index within the bounds of the list size.
    */
   public int getElementAleatoire(final ArrayList<Neuron> liste) {
-    final int random = (int)(Math.random() * liste.size());
+    final int random = this.aleatoireEgalite.nextInt(liste.size());
     return random;
   }
 
@@ -398,95 +1038,190 @@ public class Traitement {
    * gradually converging the neurons towards a defined goal. It dynamically adjusts the
    * calculation and selection of neurons over multiple iterations, with the alpha value
    * decreasing as the process progresses.
+   * The BMU of each row is chosen in a single pass over the ecarts, without allocating a list
+   * of neurons, ties being broken by the tie policy (setEgalite): drawn at random among the tied
+   * nodes by default, as before, or the first one in row-major order with PREMIER.
+   * The neighbours of the BMU are updated in place in the codebook, visiting only the
+   * square window around it (see Codebook.rapprocherVoisinage), without building a submatrix.
+   * When a neighbourhood function is set (setVoisinage), its radius follows the progress of
+   * the epochs, reaching its final value on the last one (Voisinage.rayon), and each neighbour is weighted by its precomputed table.
+   * The number of epochs or updates and the learning rate follow the schedule (setPlanning),
+   * unless the early stopping rule (setConvergence) ends the training first.
+   *
+   * With the random reading, the rows are reshuffled in place at the start of every epoch.
+   * With setSauvegarde, a checkpoint is written every few epochs and at the end; after
+   * reprendre, the training continues from the epoch of the checkpoint.
+   * With setSuivi, the measures of each epoch are handed to the listener when it ends.
    *
    * @param aleatoire An integer indicating whether to use a random selection of neurons
    *                  (1 for random, any other value for fixed selection).
    */
   public void rapprochement(final int aleatoire) {
-    double val = 0.0;
-    double multiplicateur = 0.7;
-    double alpha = 0.7;
-    final boolean phase = false;
-    for (int j = 0; j < 5 * this.normeDatas.size(); ++j) {
-      for (int k = 0; k < this.normeDatas.size(); ++k) {
-        if (aleatoire == 1) {
-          this.calculeDistanceEucliedienne(this.normeDatas.get(this.indiceShuffleData[k]));
-        }
-        else {
-          this.calculeDistanceEucliedienne(this.normeDatas.get(k));
+    try {
+      final int nbDonnees = this.normees.getLignes();
+      if (aleatoire == 1 && (this.indiceShuffleData == null || this.indiceShuffleData.length != nbDonnees)) {
+        this.indiceShuffleData = new int[nbDonnees];
+        for (int i = 0; i < nbDonnees; ++i) {
+          this.indiceShuffleData[i] = i;
         }
-        this.plusPetit(this.matrice);
-        final int indicePetitNoeud = this.getElementAleatoire(this.lesPlusPetitNoeud);
-        if (j < 0.2 * (5 * this.normeDatas.size())) {
-          if (j < 0.2 * (5 * this.normeDatas.size()) / 3.0) {
-            this.calculeSousMatrice(this.lesPlusPetitNoeud.get(indicePetitNoeud), this.getMatrice(), 3);
-          }
-          if (j >= 0.2 * (5 * this.normeDatas.size()) / 3.0 && j < 2.0 * (0.2 * (5 * this.normeDatas.size()) / 3.0)) {
-            this.calculeSousMatrice(this.lesPlusPetitNoeud.get(indicePetitNoeud), this.getMatrice(), 2);
-          }
-          if (j >= 2.0 * (0.2 * (5 * this.normeDatas.size()) / 3.0)) {
-            this.calculeSousMatrice(this.lesPlusPetitNoeud.get(indicePetitNoeud), this.getMatrice(), 1);
+      }
+      final int nbEpoques = this.planning.nbEpoques(nbDonnees);
+      final long nbMisesAJour = this.planning.nbMisesAJour(nbDonnees);
+      final double[] donnee = new double[this.normees.getDimension()];
+      if (this.convergence != null) {
+        this.convergence.reinitialiser();
+      }
+      final int premiereEpoque;
+      long miseAJour;
+      if (this.reprise) {
+        premiereEpoque = this.epoque;
+        miseAJour = this.miseAJour;
+      }
+      else {
+        this.graineSession = this.aleatoireEntrainement.nextLong();
+        premiereEpoque = 0;
+        miseAJour = 0;
+      }
+      this.reprise = false;
+      this.etiquetee = false;
+      final SuiviEntrainement suivi = this.suivi;
+      for (int j = premiereEpoque; j < nbEpoques; ++j) {
+        final double rayon = this.voisinage == null ? 0.0 : this.voisinage.rayon(j, nbEpoques);
+        final Voisinage.Table table = this.voisinage == null ? null : this.voisinage.table(rayon, this.codebook.getTopologie());
+        final int voisin = this.planning.rayon(j, nbEpoques);
+        final Mesures mesures = suivi == null ? null : new Mesures(j, nbEpoques, table == null ? voisin : rayon);
+        // the random choices of an epoch only depend on the session and the epoch, so that a resumed training makes the same ones
+        final SplittableRandom aleatoireEpoque = new SplittableRandom(this.graineSession + j).split();
+        final SelectionBmu selection = new SelectionBmu(this.codebook.getColonnes(), this.egalite, aleatoireEpoque);
+        if (aleatoire == 1) {
+          for (int i = 0; i < nbDonnees; ++i) {
+            this.indiceShuffleData[i] = i;
           }
+          melanger(this.indiceShuffleData, aleatoireEpoque);
         }
-        else {
-          multiplicateur = 0.007;
-          if (j < 0 * (5 * this.normeDatas.size() / 2)) {
-            this.calculeSousMatrice(this.lesPlusPetitNoeud.get(indicePetitNoeud), this.getMatrice(), 2);
+        for (int k = 0; k < nbDonnees && miseAJour < nbMisesAJour; ++k, ++miseAJour) {
+          final int ligne = aleatoire == 1 ? this.indiceShuffleData[k] : k;
+          this.normees.copierLigne(ligne, donnee);
+          final boolean chrono = mesures != null && mesures.isChronometre();
+          final long debutRecherche = chrono ? System.nanoTime() : 0L;
+          final int bmu = this.selectionnerBmu(donnee, ligne, selection);
+          final long debutMiseAJour = chrono ? System.nanoTime() : 0L;
+          final double alpha = this.planning.alpha(j, nbEpoques, miseAJour, nbMisesAJour);
+          if (this.convergence != null) {
+            if (this.rechercheApprochee != null) {
+              final int second = this.rechercheApprochee.getSecond();
+              this.convergence.ajouter(this.metrique.distance(selection.getEcart()), second >= 0 && !this.codebook.getTopologie().voisins(bmu, second));
+            }
+            else {
+              this.convergence.mesurer(this.distances, bmu, this.codebook);
+            }
           }
-          if (j >= 0 * (5 * this.normeDatas.size() / 2)) {
-            this.calculeSousMatrice(this.lesPlusPetitNoeud.get(indicePetitNoeud), this.getMatrice(), 1);
+          final int nbVoisins;
+          if (table == null) {
+            nbVoisins = this.codebook.rapprocherVoisinage(selection.getX(), selection.getY(), voisin, donnee, alpha);
           }
-        }
-        Neuron[][] sousMatrice;
-        for (int length = (sousMatrice = this.sousMatrice).length, l = 0; l < length; ++l) {
-          final Neuron[] sousM = sousMatrice[l];
-          Neuron[] array;
-          for (int length2 = (array = sousM).length, n = 0; n < length2; ++n) {
-            final Neuron e = array[n];
-            for (int i = 0; i < e.getW().getDimention().length; ++i) {
-              if (aleatoire == 1) {
-                val = e.getW().getDimention()[i] + alpha * (this.normeDatas.get(this.indiceShuffleData[k]).getDimention()[i] - e.getW().getDimention()[i]);
-              }
-              else {
-                val = e.getW().getDimention()[i] + alpha * (this.normeDatas.get(k).getDimention()[i] - e.getW().getDimention()[i]);
-              }
-              e.getW().setDimention(val, i);
+          else {
+            nbVoisins = this.codebook.rapprocherVoisinage(selection.getX(), selection.getY(), table, donnee, alpha);
+          }
+          if (mesures != null) {
+            if (chrono) {
+              mesures.chronometrer(debutMiseAJour - debutRecherche, System.nanoTime() - debutMiseAJour);
             }
+            mesures.ajouter(this.metrique.distance(selection.getEcart()), nbVoisins, alpha);
           }
         }
-        this.fusionnerMatrice();
+        if (mesures != null) {
+          mesures.terminer();
+          suivi.finEpoque(mesures);
+        }
+        if (this.convergence != null && this.convergence.finEpoque()) {
+          break;
+        }
+        if (this.sauvegarde != null && (j + 1) % this.periodeSauvegarde == 0 && j + 1 < nbEpoques) {
+          this.sauvegarderEntrainement(j + 1, miseAJour);
+        }
       }
-      if ((!phase && alpha > 0.07) || (phase && alpha > 7.0E-5)) {
-        alpha = multiplicateur * (1 - j / (5 * this.normeDatas.size()));
+      this.epoque = nbEpoques;
+      this.miseAJour = miseAJour;
+      if (this.sauvegarde != null) {
+        // the last checkpoint is the trained map, labelled so that it can be served by code.Modele
+        this.distanceEuclidienneInverse();
+        this.sauvegarderEntrainement(nbEpoques, miseAJour);
       }
     }
+    finally {
+      this.fermer();
+    }
+  }
+
+  /**
+   * Trains the map with online updates made by `nbThreads` threads at once on the shared
+   * codebook, without locks (see code.EntrainementParallele). It follows the same schedule,
+   * neighbourhood and early stopping rule as rapprochement, the rows of each thread being
+   * presented in a random order.
+   *
+   * @param hauteurBande 0 for lock-free updates, or the number of grid rows sharing a lock
+   *                     when no update may be lost
+   * @see EntrainementParallele
+   */
+  public void rapprochementParallele(final int hauteurBande) {
+    final EntrainementParallele parallele = new EntrainementParallele(this.codebook, this.nbThreads);
+    parallele.setVerrous(hauteurBande);
+    parallele.setConvergence(this.convergence);
+    parallele.setGraine(this.aleatoireEntrainement.nextLong());
+    this.etiquetee = false;
+    parallele.entrainer(this.normees, this.planning, this.voisinage);
+  }
+
+  /**
+   * Trains the map with the batch SOM algorithm instead of the online updates of rapprochement.
+   * Each epoch assigns every normalized data vector to its BMU, in parallel on `nbThreads`
+   * threads, and replaces each reference vector by the mean of the vectors of its neighbourhood.
+   * Without a neighbourhood function (setVoisinage), the square window starts at half
+   * the largest side of the grid and decreases to 1.
+   * The early stopping rule (setConvergence), if any, may end the training earlier.
+   *
+   * @param nbEpoques the number of epochs
+   * @see EntrainementBatch
+   */
+  public void rapprochementBatch(final int nbEpoques) {
+    Voisinage voisinage = this.voisinage;
+    if (voisinage == null) {
+      voisinage = Voisinage.bulle(Math.max(1, Math.max(this.codebook.getLignes(), this.codebook.getColonnes()) / 2), 1.0);
+    }
+    final EntrainementBatch batch = new EntrainementBatch(this.codebook, this.nbThreads);
+    batch.setConvergence(this.convergence);
+    this.etiquetee = false;
+    batch.entrainer(this.normees, nbEpoques, voisinage);
   }
 
   /**
    * Calculates and updates the Euclidean distance between the given weight and the
    * weights of all neurons in the matrix.
-   * This method iterates through each neuron in the matrix and computes the Euclidean
-   * distance between the weight of the neuron and the provided weight. The distance is
-   * calculated as the square root of the sum of squared differences between corresponding
-   * dimensions of the weight vectors. The calculated distance is then updated for each neuron.
    *
    * @param f The weight object to which the Euclidean distance is calculated. The method
    *          compares each neuron's weight with this one.
+   * @see #calculeDistanceEucliedienne(double[])
    */
   public void calculeDistanceEucliedienne(final Weight f) {
-    Neuron[][] matrice;
-    for (int length = (matrice = this.matrice).length, i = 0; i < length; ++i) {
-      final Neuron[] n = matrice[i];
-      Neuron[] array;
-      for (int length2 = (array = n).length, k = 0; k < length2; ++k) {
-        final Neuron e = array[k];
-        double newDistance = 0.0;
-        for (int j = 0; j < e.getW().getDimention().length; ++j) {
-          newDistance += Math.pow(e.getW().getDimention()[j] - f.getDimention()[j], 2.0);
-        }
-        newDistance = Math.sqrt(newDistance);
-        e.setDistance(newDistance);
-      }
+    this.calculeDistanceEucliedienne(f.getDimention());
+  }
+
+  /**
+   * Calculates and updates the Euclidean distance between the given vector and the
+   * reference vectors of all neurons in the matrix.
+   * The distances are computed by a sequential scan of the flat codebook and stored in the
+   * `distances` array as ecarts of the metric (squared distances for the Euclidean one), only
+   * their order mattering for the BMU; each neuron receives the distance itself.
+   *
+   * @param donnee The data vector to which the Euclidean distance is calculated.
+   */
+  public void calculeDistanceEucliedienne(final double[] donnee) {
+    this.codebook.distances(donnee, this.distances);
+    final Metrique metrique = this.codebook.getMetrique();
+    final int colonnes = this.codebook.getColonnes();
+    for (int i = 0; i < this.distances.length; ++i) {
+      this.matrice[i / colonnes][i % colonnes].setDistance(metrique.distance(this.distances[i]));
     }
   }
 
@@ -494,39 +1229,43 @@ public class Traitement {
    * Calculates and updates the inverse Euclidean distance for each neuron in the matrix
    * based on the weight vectors of the data, and assigns the corresponding label
    * to each neuron.
-   * This method computes the Euclidean distance between the weight vector of each neuron
-   * in the matrix and the weight vectors of all datas. The neuron is then assigned the label
-   * of the data that is closest to it based on the inverse Euclidean distance. The
-   * distance is calculated as the square root of the sum of squared differences between
-   * corresponding dimensions of the weight vectors.
+   * Each neuron is assigned the label of the data row closest to its weight vector.
+   * The rows are indexed once in a code.ArbreKd, so that each neuron only compares its
+   * vector with the few rows of the leaves near it instead of every row. With the cosine
+   * metric, which the tree does not support, every row is compared as before.
    *
+   * @see ArbreKd
    * @see #plusPetiteDistance(double[])
    */
   public void distanceEuclidienneInverse() {
-    final double[] lesDistance = new double[this.normeDatas.size()];
-    double distance = 0.0;
-    Neuron[][] matrice;
-    for (int length = (matrice = this.matrice).length, k = 0; k < length; ++k) {
-      final Neuron[] n = matrice[k];
-      Neuron[] array;
-      for (int length2 = (array = n).length, l = 0; l < length2; ++l) {
-        final Neuron e = array[l];
-        for (int i = 0; i < this.normeDatas.size(); ++i) {
-          for (int j = 0; j < e.getW().getDimention().length; ++j) {
-            distance += Math.pow(e.getW().getDimention()[j] - this.normeDatas.get(i).getDimention()[j], 2.0);
-          }
-          lesDistance[i] = Math.sqrt(distance);
-          distance = 0.0;
-        }
-        e.setEtiquette(this.datas.get(this.plusPetiteDistance(lesDistance)).getLabel());
+    final int colonnes = this.codebook.getColonnes();
+    final double[] poids = this.codebook.getPoids();
+    final int dimension = this.codebook.getDimension();
+    if (this.codebook.getMetrique() != Metrique.COSINUS) {
+      final ArbreKd arbre = new ArbreKd(this.normees, this.codebook.getMetrique());
+      for (int noeud = 0; noeud < this.codebook.getTaille(); ++noeud) {
+        final int ligne = arbre.plusProche(poids, noeud * dimension);
+        this.matrice[noeud / colonnes][noeud % colonnes].setEtiquette(this.normees.getLabel(ligne));
       }
+      this.etiquetee = true;
+      return;
     }
+    final double[] lesDistance = new double[this.normees.getLignes()];
+    final double[] donnee = new double[this.normees.getDimension()];
+    for (int noeud = 0; noeud < this.codebook.getTaille(); ++noeud) {
+      for (int i = 0; i < this.normees.getLignes(); ++i) {
+        this.normees.copierLigne(i, donnee);
+        lesDistance[i] = this.codebook.ecart(noeud, donnee);
+      }
+      this.matrice[noeud / colonnes][noeud % colonnes].setEtiquette(this.normees.getLabel(this.plusPetiteDistance(lesDistance)));
+    }
+    this.etiquetee = true;
   }
 
   /**
    * Returns the index of the smallest value in the given array.
    * This method searches for the smallest value in the provided array
-   * and returns the index of that value.</p>
+   * and returns the index of that value; on a tie, the first one.</p>
    *
    * @param tab the array of distances (or values) to search through
    * @return the index of the smallest value in the array
@@ -534,7 +1273,7 @@ public class Traitement {
   public int plusPetiteDistance(final double[] tab) {
     double min = tab[0];
     int position = 0;
-    for (int i = 1; i < tab.length - 1; ++i) {
+    for (int i = 1; i < tab.length; ++i) {
       if (tab[i] < min) {
         min = tab[i];
         position = i;
@@ -564,23 +1303,14 @@ public class Traitement {
 
   /**
    * Merges the sub-matrix into the main matrix at the corresponding positions.
-   * This method iterates over the sub-matrix and the main matrix, and updates
-   * the neurons in the main matrix with those from the sub-matrix based on matching
-   * coordinates (X and Y).
+   * This method iterates over the sub-matrix and puts each of its neurons in the main
+   * matrix at its own coordinates (X and Y), whatever the shape of the matrix.
    */
   public void fusionnerMatrice() {
-    for (int i = 0; i < this.matrice.length; ++i) {
-      for (int j = 0; j < this.matrice.length; ++j) {
-        Neuron[][] sousMatrice;
-        for (int length = (sousMatrice = this.sousMatrice).length, k = 0; k < length; ++k) {
-          final Neuron[] n = sousMatrice[k];
-          Neuron[] array;
-          for (int length2 = (array = n).length, l = 0; l < length2; ++l) {
-            final Neuron e = array[l];
-            if (i == e.getX() && j == e.getY()) {
-              this.matrice[i][j] = e;
-            }
-          }
+    for (final Neuron[] n : this.sousMatrice) {
+      for (final Neuron e : n) {
+        if (e.getX() >= 0 && e.getX() < this.matrice.length && e.getY() >= 0 && e.getY() < this.matrice[e.getX()].length) {
+          this.matrice[e.getX()][e.getY()] = e;
         }
       }
     }
@@ -0,0 +1,304 @@
+package code;
+
+import java.util.Arrays;
+
+/**
+ * Neighbourhood function of the SOM: the weight given to the update of a node according to
+ * its distance on the grid to the BMU, and the decrease of the radius during the training.
+ * The weights are precomputed in a table of grid offsets for each radius met, so that the
+ * training reads a value instead of calling Math.exp for every node. The radius is rounded
+ * to a quarter of a cell, which bounds the number of tables. The distances are measured on
+ * the lattice of the grid (see code.Topologie), whose tables are kept until another grid is used.
+ * An instance caches its tables and must not be shared between threads building tables.
+ *
+ * @author Fab.16
+ */
+public class Voisinage {
+
+  /** Shape of the neighbourhood function. */
+  public enum Forme {
+    /** Weight 1 in the square window of the (rounded) radius, 0 outside, as rapprochement does. */
+    BULLE,
+    /** exp(-d² / 2r²), cut at 3r. */
+    GAUSSIEN,
+    /** exp(-d² / 2r²) inside the radius, 0 outside. */
+    GAUSSIEN_TRONQUE,
+    /** (1 - d² / r²) exp(-d² / 2r²), cut at 3r: nodes beyond the radius are pushed away, which needs a small learning rate. */
+    CHAPEAU_MEXICAIN
+  }
+
+  /** Decrease of the radius between the start and the end of the training. */
+  public enum Decroissance {
+    /** r = r0 + (r1 - r0) t */
+    LINEAIRE,
+    /** r = r0 (r1 / r0)^t */
+    EXPONENTIELLE
+  }
+
+  /** Number of table steps per grid cell. */
+  private static final int PAS = 4;
+
+  /** Shape of the function. */
+  private final Forme forme;
+
+  /** Decrease of the radius. */
+  private final Decroissance decroissance;
+
+  /** Radius at the start of the training. */
+  private final double rayonInitial;
+
+  /** Radius at the end of the training. */
+  private final double rayonFinal;
+
+  /** Tables already computed, indexed by the radius times PAS. */
+  private Table[] tables = new Table[0];
+
+  /** Grid of the tables already computed. */
+  private Topologie topologie;
+
+  /**
+   * Constructs a neighbourhood function.
+   *
+   * @param forme the shape of the function
+   * @param decroissance the decrease of the radius
+   * @param rayonInitial the radius at the start of the training, greater than 0
+   * @param rayonFinal the radius at the end of the training, greater than 0
+   */
+  public Voisinage(final Forme forme, final Decroissance decroissance, final double rayonInitial, final double rayonFinal) {
+    if (rayonInitial <= 0.0 || rayonFinal <= 0.0) {
+      throw new IllegalArgumentException("rayon invalide : " + rayonInitial + ", " + rayonFinal);
+    }
+    this.forme = forme;
+    this.decroissance = decroissance;
+    this.rayonInitial = rayonInitial;
+    this.rayonFinal = rayonFinal;
+  }
+
+  /**
+   * Constructs the square window with a linearly decreasing radius, as used before kernels existed.
+   *
+   * @param rayonInitial the radius at the start of the training
+   * @param rayonFinal the radius at the end of the training
+   * @return the neighbourhood function
+   */
+  public static Voisinage bulle(final double rayonInitial, final double rayonFinal) {
+    return new Voisinage(Forme.BULLE, Decroissance.LINEAIRE, rayonInitial, rayonFinal);
+  }
+
+  /**
+   * Returns the shape of the function.
+   *
+   * @return the shape
+   */
+  public Forme getForme() {
+    return this.forme;
+  }
+
+  /**
+   * Returns the decrease of the radius.
+   *
+   * @return the decrease
+   */
+  public Decroissance getDecroissance() {
+    return this.decroissance;
+  }
+
+  /**
+   * Returns the radius at the start of the training.
+   *
+   * @return the initial radius
+   */
+  public double getRayonInitial() {
+    return this.rayonInitial;
+  }
+
+  /**
+   * Returns the radius at the end of the training.
+   *
+   * @return the final radius
+   */
+  public double getRayonFinal() {
+    return this.rayonFinal;
+  }
+
+  /**
+   * Returns the radius at a point of the training.
+   *
+   * @param avancement the progress of the training, from 0 (start) to 1 (end)
+   * @return the radius
+   */
+  public double rayon(final double avancement) {
+    final double t = Math.max(0.0, Math.min(1.0, avancement));
+    if (this.decroissance == Decroissance.EXPONENTIELLE) {
+      return this.rayonInitial * Math.pow(this.rayonFinal / this.rayonInitial, t);
+    }
+    return this.rayonInitial + (this.rayonFinal - this.rayonInitial) * t;
+  }
+
+  /**
+   * Returns the radius of an epoch: the initial radius on the first epoch and the final one on
+   * the last. Every training uses this progress, so that a function gives the same radii in all.
+   *
+   * @param epoque the index of the epoch, from 0
+   * @param nbEpoques the number of epochs; with a single one, the initial radius is kept
+   * @return the radius
+   */
+  public double rayon(final int epoque, final int nbEpoques) {
+    return this.rayon(nbEpoques <= 1 ? 0.0 : (double)epoque / (nbEpoques - 1));
+  }
+
+  /**
+   * Returns the table of weights for the given radius on a grid, computing it on first use.
+   *
+   * @param rayon the radius
+   * @param topologie the grid the table is applied to
+   * @return the table
+   */
+  public Table table(final double rayon, final Topologie topologie) {
+    if (!topologie.equals(this.topologie)) {
+      this.topologie = topologie;
+      this.tables = new Table[0];
+    }
+    final int cle = Math.max(1, (int)Math.round(rayon * PAS));
+    if (cle >= this.tables.length) {
+      this.tables = Arrays.copyOf(this.tables, cle + 1);
+    }
+    if (this.tables[cle] == null) {
+      this.tables[cle] = new Table(this.forme, (double)cle / PAS, topologie);
+    }
+    return this.tables[cle];
+  }
+
+  /**
+   * Value of the neighbourhood function.
+   *
+   * @param forme the shape
+   * @param d2 the squared distance on the lattice from the BMU
+   * @param pas the number of steps on the grid from the BMU
+   * @param rayon the radius
+   * @return the weight of the update
+   */
+  static double poids(final Forme forme, final double d2, final int pas, final double rayon) {
+    switch (forme) {
+      case BULLE:
+        return pas <= Math.round(rayon) ? 1.0 : 0.0;
+      case GAUSSIEN_TRONQUE:
+        return d2 <= rayon * rayon ? Math.exp(-d2 / (2.0 * rayon * rayon)) : 0.0;
+      case CHAPEAU_MEXICAIN:
+        return (1.0 - d2 / (rayon * rayon)) * Math.exp(-d2 / (2.0 * rayon * rayon));
+      case GAUSSIEN:
+      default:
+        return Math.exp(-d2 / (2.0 * rayon * rayon));
+    }
+  }
+
+  /**
+   * Weights of the neighbourhood function for every grid offset within its reach, kept as a
+   * list of the offsets with a non-zero weight in row-major order. On the hexagonal lattice the
+   * offsets depend on the parity of the row of the BMU, so there is one list per parity.
+   */
+  public static final class Table {
+
+    /** Largest row offset with a non-zero weight. */
+    private final int portee;
+
+    /** Row offset of each entry, per parity. */
+    private final int[][] decalagesX;
+
+    /** Column offset of each entry, per parity. */
+    private final int[][] decalagesY;
+
+    /** Weight of each entry, per parity. */
+    private final double[][] poids;
+
+    Table(final Forme forme, final double rayon, final Topologie topologie) {
+      int portee = forme == Forme.BULLE || forme == Forme.GAUSSIEN_TRONQUE ? (int)Math.round(rayon) : (int)Math.ceil(3.0 * rayon);
+      // the rows of the hexagonal lattice are closer than the columns, and shifted by half a cell
+      final int porteeX = topologie.getMaille() == Topologie.Maille.HEXAGONALE ? (int)Math.ceil(portee * 2.0 / Math.sqrt(3.0)) : portee;
+      final int porteeY = topologie.getMaille() == Topologie.Maille.HEXAGONALE ? portee + 1 : portee;
+      final int nbParites = topologie.getNbParites();
+      this.decalagesX = new int[nbParites][];
+      this.decalagesY = new int[nbParites][];
+      this.poids = new double[nbParites][];
+      final int cote = (2 * porteeX + 1) * (2 * porteeY + 1);
+      portee = 0;
+      for (int parite = 0; parite < nbParites; ++parite) {
+        final int[] dxs = new int[cote];
+        final int[] dys = new int[cote];
+        final double[] hs = new double[cote];
+        int n = 0;
+        for (int dx = -porteeX; dx <= porteeX; ++dx) {
+          if (!topologie.isDecalageLigne(dx)) {
+            continue;
+          }
+          for (int dy = -porteeY; dy <= porteeY; ++dy) {
+            if (!topologie.isDecalageColonne(dy)) {
+              continue;
+            }
+            final double h = Voisinage.poids(forme, topologie.distanceCarree(parite, dx, dy), topologie.pas(parite, dx, dy), rayon);
+            if (h != 0.0) {
+              dxs[n] = dx;
+              dys[n] = dy;
+              hs[n] = h;
+              ++n;
+              portee = Math.max(portee, Math.abs(dx));
+            }
+          }
+        }
+        this.decalagesX[parite] = Arrays.copyOf(dxs, n);
+        this.decalagesY[parite] = Arrays.copyOf(dys, n);
+        this.poids[parite] = Arrays.copyOf(hs, n);
+      }
+      this.portee = portee;
+    }
+
+    /**
+     * Returns the largest row offset with a non-zero weight.
+     *
+     * @return the reach of the table in rows
+     */
+    public int getPortee() {
+      return this.portee;
+    }
+
+    /**
+     * Returns the number of offsets with a non-zero weight.
+     *
+     * @param parite the parity of the row of the BMU (Topologie.parite)
+     * @return the number of entries
+     */
+    public int getNombre(final int parite) {
+      return this.poids[parite].length;
+    }
+
+    /**
+     * Returns the row offsets of the entries; the array must not be modified.
+     *
+     * @param parite the parity of the row of the BMU
+     * @return the row offset of each entry
+     */
+    int[] getDecalagesX(final int parite) {
+      return this.decalagesX[parite];
+    }
+
+    /**
+     * Returns the column offsets of the entries; the array must not be modified.
+     *
+     * @param parite the parity of the row of the BMU
+     * @return the column offset of each entry
+     */
+    int[] getDecalagesY(final int parite) {
+      return this.decalagesY[parite];
+    }
+
+    /**
+     * Returns the weights of the entries; the array must not be modified.
+     *
+     * @param parite the parity of the row of the BMU
+     * @return the weight of each entry
+     */
+    double[] getPoids(final int parite) {
+      return this.poids[parite];
+    }
+  }
+}
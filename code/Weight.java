@@ -1,5 +1,8 @@
 package code;
 
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
 /**
  * Represents a data point with multiple numerical dimensions and an optional label.
  * Can be initialized from string input, random values, or a predefined vector.
@@ -16,6 +19,15 @@ public class Weight {
   /** Label or name associated with the data point. */
   private String label;
 
+  /** Shared array holding the components when this object is a read-only view, null otherwise. */
+  private double[] source;
+
+  /** Offset of the first component inside the shared array. */
+  private int debut;
+
+  /** Number of components of the view. */
+  private int taille;
+
   /**
    * Constructs a Data object from an array of strings, where all but the last
    * element are numerical values, and the last element is the label.
@@ -41,10 +53,23 @@ public class Weight {
    * @param max maximum values for each dimension
    */
   public Weight(int taille, double[] min, double[] max) {
+    this(taille, min, max, new SplittableRandom());
+  }
+
+  /**
+   * Constructs a Data object with random values within specified min and max bounds,
+   * drawn from the given generator so that the values can be reproduced.
+   *
+   * @param taille number of dimensions
+   * @param min minimum values for each dimension
+   * @param max maximum values for each dimension
+   * @param aleatoire the generator of the values
+   */
+  public Weight(int taille, double[] min, double[] max, SplittableRandom aleatoire) {
     label = "";
     dimention = new double[taille];
     for (int i = 0; i < taille; i++) {
-      dimention[i] = ((1.0D - Math.random()) * (max[i] - min[i]) + min[i]);
+      dimention[i] = ((1.0D - aleatoire.nextDouble()) * (max[i] - min[i]) + min[i]);
     }
   }
 
@@ -62,12 +87,47 @@ public class Weight {
     this.label = nom;
   }
 
+  /**
+   * Constructs a read-only view on a slice of a shared array.
+   *
+   * @param source the shared array
+   * @param debut the offset of the first component
+   * @param taille number of dimensions
+   */
+  private Weight(double[] source, int debut, int taille) {
+    label = "";
+    dimention = null;
+    this.source = source;
+    this.debut = debut;
+    this.taille = taille;
+  }
+
+  /**
+   * Creates a read-only view on a slice of a shared array, such as the one of a code.Codebook.
+   * The view always reflects the current content of the array.
+   *
+   * @param source the shared array
+   * @param debut the offset of the first component
+   * @param taille number of dimensions
+   * @return the view
+   */
+  public static Weight vue(double[] source, int debut, int taille) {
+    return new Weight(source, debut, taille);
+  }
+
   /**
    * Returns the array of feature values.
+   * For a view, such as the neurons of Traitement.getMatrice(), each call returns a new copy of
+   * the current components: a snapshot that later training does not update, and whose writes
+   * are not seen by the codebook. Read it once into a local rather than calling this method for
+   * each component, and go through code.Codebook to change the components.
    *
    * @return the dimensions of the data point
    */
   public double[] getDimention() {
+    if (source != null) {
+      return Arrays.copyOfRange(source, debut, debut + taille);
+    }
     return dimention;
   }
 
@@ -87,6 +147,9 @@ public class Weight {
    * @param position the index of the dimension to update
    */
   public void setDimention(double val, int position) {
+    if (source != null) {
+      throw new UnsupportedOperationException("vue en lecture seule");
+    }
     dimention[position] = val;
   }
 }
@@ -0,0 +1,97 @@
+package code;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the KD-tree (code.ArbreKd) against a sequential scan.
+ *
+ * @author Fab.16
+ */
+class ArbreKdTest {
+
+  @TempDir
+  Path dossier;
+
+  @Test
+  void commeUnParcoursEnMemoire() throws IOException {
+    final MatriceDonnees donnees = donnees(2000, 5, 1L);
+    verifier(donnees, Metrique.EUCLIDIENNE);
+    verifier(donnees, Metrique.MANHATTAN);
+  }
+
+  @Test
+  void commeUnParcoursSurUnFichier() throws IOException {
+    final String fichier = this.dossier.resolve("donnees" + DonneesBinaires.EXTENSION).toString();
+    DonneesBinaires.ecrire(donnees(2000, 5, 2L), fichier, false);
+    final DonneesBinaires donnees = new DonneesBinaires(fichier);
+    verifier(donnees, Metrique.EUCLIDIENNE);
+    verifier(donnees, Metrique.MANHATTAN);
+  }
+
+  @Test
+  void cosinusRefuse() {
+    assertThrows(IllegalArgumentException.class, () -> new ArbreKd(new MatriceDonnees(2, 1), Metrique.COSINUS));
+  }
+
+  @Test
+  void arbreVide() {
+    assertEquals(-1, new ArbreKd(new MatriceDonnees(3, 1), Metrique.EUCLIDIENNE).plusProche(new double[3], 0));
+  }
+
+  /**
+   * Compares the tree with a scan over random queries, the first row winning a tie.
+   */
+  private static void verifier(final Donnees donnees, final Metrique metrique) {
+    final ArbreKd arbre = new ArbreKd(donnees, metrique);
+    assertEquals(donnees.getLignes(), arbre.getTaille());
+    final int dimension = donnees.getDimension();
+    final SplittableRandom aleatoire = new SplittableRandom(7);
+    final double[] requete = new double[dimension + 2];
+    final double[] ligne = new double[dimension];
+    for (int k = 0; k < 300; ++k) {
+      if (k % 3 == 0) {
+        // a row of the data set, duplicated in it
+        donnees.copierLigne(aleatoire.nextInt(donnees.getLignes()), ligne);
+        System.arraycopy(ligne, 0, requete, 2, dimension);
+      }
+      else {
+        for (int j = 0; j < dimension; ++j) {
+          requete[2 + j] = aleatoire.nextDouble(-1.0, 6.0);
+        }
+      }
+      int attendue = -1;
+      double meilleur = Double.POSITIVE_INFINITY;
+      for (int i = 0; i < donnees.getLignes(); ++i) {
+        donnees.copierLigne(i, ligne);
+        final double ecart = metrique.noyau().ecart(ligne, 0, requete, 2, dimension);
+        if (ecart < meilleur) {
+          meilleur = ecart;
+          attendue = i;
+        }
+      }
+      assertEquals(attendue, arbre.plusProche(requete, 2));
+    }
+  }
+
+  /**
+   * Rows on a coarse grid, so that many of them are equal.
+   */
+  private static MatriceDonnees donnees(final int nbLignes, final int dimension, final long graine) throws IOException {
+    final SplittableRandom aleatoire = new SplittableRandom(graine);
+    final MatriceDonnees donnees = new MatriceDonnees(dimension, nbLignes);
+    for (int i = 0; i < nbLignes; ++i) {
+      final int offset = donnees.ajouterLigne(donnees.indiceLabel("l" + i % 4));
+      for (int j = 0; j < dimension; ++j) {
+        donnees.getValeurs()[offset + j] = aleatoire.nextInt(6);
+      }
+    }
+    return donnees;
+  }
+}
@@ -0,0 +1,161 @@
+package code;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the binary data files (code.DonneesBinaires).
+ *
+ * @author Fab.16
+ */
+class DonneesBinairesTest {
+
+  @TempDir
+  Path dossier;
+
+  @Test
+  void relitLesDoubles() throws IOException {
+    final MatriceDonnees source = SauvegardeTest.donnees(500, 5, 1L);
+    final String fichier = this.fichier("doubles");
+    DonneesBinaires.ecrire(source, fichier, false);
+
+    final DonneesBinaires lues = new DonneesBinaires(fichier);
+    assertFalse(lues.isFlottants());
+    assertMemes(source, lues, 0.0);
+    assertFalse(Files.exists(Path.of(fichier + ".tmp")));
+    assertFalse(Files.exists(Path.of(fichier + ".labels.tmp")));
+  }
+
+  @Test
+  void relitLesFlottants() throws IOException {
+    final MatriceDonnees source = MatriceDonnees.normaliser(SauvegardeTest.donnees(500, 3, 2L));
+    final String fichier = this.fichier("flottants");
+    DonneesBinaires.ecrire(source, fichier, true);
+
+    final DonneesBinaires lues = new DonneesBinaires(fichier);
+    assertTrue(lues.isFlottants());
+    assertTrue(lues.isNormalisees());
+    assertMemes(source, lues, 1e-7);
+  }
+
+  @Test
+  void lignesEtEtiquettesPlusGrandesQueLeTampon() throws IOException {
+    final int dimension = 200000;
+    final MatriceDonnees source = new MatriceDonnees(dimension, 3);
+    final char[] lettres = new char[3 << 19];
+    Arrays.fill(lettres, 'é');
+    final String longue = new String(lettres);
+    for (int i = 0; i < 3; ++i) {
+      final int offset = source.ajouterLigne(source.indiceLabel(i == 1 ? longue : "courte"));
+      for (int j = 0; j < dimension; ++j) {
+        source.getValeurs()[offset + j] = i + j * 1e-6;
+      }
+    }
+    final String fichier = this.fichier("larges");
+    DonneesBinaires.ecrire(source, fichier, false);
+
+    final DonneesBinaires lues = new DonneesBinaires(fichier);
+    assertEquals(List.of("courte", longue), lues.getDictionnaire());
+    assertMemes(source, lues, 0.0);
+  }
+
+  @Test
+  void conversionParBlocsCommeEnMemoire() throws IOException {
+    final StringBuilder texte = new StringBuilder();
+    for (int i = 0; i < 1000; ++i) {
+      texte.append(1 + i % 13).append(',').append(0.25 * i).append(',').append(i % 5 - 2).append(",c").append(i % 4).append('\n');
+    }
+    final Path csv = this.dossier.resolve("donnees.csv");
+    Files.write(csv, texte.toString().getBytes(StandardCharsets.UTF_8));
+    final MatriceDonnees attendues = MatriceDonnees.normaliser(new LecteurCsv().lire(csv.toString()));
+
+    // blocks of a few rows
+    final String fichier = this.fichier("converti");
+    assertEquals(1000, DonneesBinaires.convertir(csv.toString(), fichier, false, (1 << 16) + 400));
+
+    final DonneesBinaires lues = new DonneesBinaires(fichier);
+    assertTrue(lues.isNormalisees());
+    assertMemes(attendues, lues, 0.0);
+  }
+
+  @Test
+  void refuseUnFichierTronque() throws IOException {
+    final String fichier = this.fichier("tronque");
+    DonneesBinaires.ecrire(SauvegardeTest.donnees(100, 4, 3L), fichier, false);
+    final byte[] octets = Files.readAllBytes(Path.of(fichier));
+    Files.write(Path.of(fichier), Arrays.copyOf(octets, octets.length / 2));
+
+    assertThrows(IOException.class, () -> new DonneesBinaires(fichier));
+  }
+
+  @Test
+  void refuseUnEnteteInvalide() throws IOException {
+    final String fichier = this.fichier("entete");
+    DonneesBinaires.ecrire(SauvegardeTest.donnees(10, 2, 4L), fichier, false);
+    final byte[] octets = Files.readAllBytes(Path.of(fichier));
+
+    // shorter than the header
+    for (final int longueur : new int[] {0, 31, 36, 39}) {
+      this.refuser(Arrays.copyOf(octets, longueur));
+    }
+    // another version, a zero dimension, negative counts
+    this.refuser(modifier(octets, 4, 1));
+    this.refuser(modifier(octets, 24, 0));
+    this.refuser(modifier(octets, 28, -1));
+    final byte[] lignes = octets.clone();
+    ByteBuffer.wrap(lignes).order(ByteOrder.LITTLE_ENDIAN).putLong(16, -1L);
+    this.refuser(lignes);
+    // a label index outside the dictionary
+    this.refuser(modifier(octets, 40 + 10 * 2 * Double.BYTES + 4 * 7, 3));
+  }
+
+  private void refuser(final byte[] octets) throws IOException {
+    final Path fichier = this.dossier.resolve("invalide" + DonneesBinaires.EXTENSION);
+    Files.write(fichier, octets);
+    assertThrows(IOException.class, () -> new DonneesBinaires(fichier.toString()));
+  }
+
+  /**
+   * Copy of a file with the int at the given position replaced.
+   */
+  private static byte[] modifier(final byte[] octets, final int position, final int valeur) {
+    final byte[] copie = octets.clone();
+    ByteBuffer.wrap(copie).order(ByteOrder.LITTLE_ENDIAN).putInt(position, valeur);
+    return copie;
+  }
+
+  private String fichier(final String nom) {
+    return this.dossier.resolve(nom + DonneesBinaires.EXTENSION).toString();
+  }
+
+  /**
+   * Checks that two data sets hold the same rows and labels.
+   */
+  private static void assertMemes(final Donnees attendues, final Donnees lues, final double tolerance) {
+    assertEquals(attendues.getLignes(), lues.getLignes());
+    assertEquals(attendues.getDimension(), lues.getDimension());
+    assertEquals(attendues.getDictionnaire(), lues.getDictionnaire());
+    final double[] attendue = new double[attendues.getDimension()];
+    final double[] lue = new double[lues.getDimension()];
+    for (int i = 0; i < attendues.getLignes(); ++i) {
+      attendues.copierLigne(i, attendue);
+      lues.copierLigne(i, lue);
+      assertArrayEquals(attendue, lue, tolerance);
+      assertEquals(attendues.getIndiceLabel(i), lues.getIndiceLabel(i));
+    }
+  }
+}
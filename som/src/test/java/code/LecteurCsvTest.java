@@ -0,0 +1,157 @@
+package code;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the CSV reader (code.LecteurCsv).
+ *
+ * @author Fab.16
+ */
+class LecteurCsvTest {
+
+  @TempDir
+  Path dossier;
+
+  @Test
+  void voieRapideCommeParseDouble() {
+    final SplittableRandom aleatoire = new SplittableRandom(9);
+    for (int k = 0; k < 200000; ++k) {
+      final int chiffres = 1 + aleatoire.nextInt(15);
+      final StringBuilder texte = new StringBuilder();
+      if (aleatoire.nextBoolean()) {
+        texte.append('-');
+      }
+      final int point = aleatoire.nextInt(chiffres + 1);
+      for (int i = 0; i < chiffres; ++i) {
+        if (i == point && i > 0) {
+          texte.append('.');
+        }
+        texte.append((char)('0' + aleatoire.nextInt(10)));
+      }
+      verifier(texte.toString());
+    }
+    for (final String texte : new String[] {"0", "-0", "+1.5", ".5", "5.", "007.250", "1e3", "-2.5E-7", "123456789012345678",
+        "0.1234567890123456789", "NaN", "Infinity", "1.7976931348623157e308", "4.9e-324", " 3.25 "}) {
+      verifier(texte);
+    }
+  }
+
+  @Test
+  void champsInvalides() {
+    for (final String texte : new String[] {"", " ", "-", ".", "1.2.3", "abc", "1,5", "12a"}) {
+      final byte[] octets = texte.getBytes(StandardCharsets.ISO_8859_1);
+      assertTrue(Double.isNaN(LecteurCsv.nombre(octets, 0, octets.length)), texte);
+    }
+  }
+
+  @Test
+  void finsDeLigneWindows() throws IOException {
+    final MatriceDonnees lues = lire(new LecteurCsv(), "1.5,2,a\r\n3,-4.25,b\r\n\r\n5,6,a\r\n");
+
+    assertEquals(3, lues.getLignes());
+    assertEquals(2, lues.getDimension());
+    assertEquals(List.of("a", "b"), lues.getDictionnaire());
+    assertEquals("b", lues.getLabel(1));
+    final double[] ligne = new double[2];
+    lues.copierLigne(1, ligne);
+    assertArrayEquals(new double[] {3, -4.25}, ligne);
+  }
+
+  @Test
+  void derniereLigneSansFin() throws IOException {
+    final MatriceDonnees lues = lire(new LecteurCsv(), "1,2,a\n3,4,b");
+
+    assertEquals(2, lues.getLignes());
+    assertEquals("b", lues.getLabel(1));
+  }
+
+  @Test
+  void enteteEtSeparateur() throws IOException {
+    final LecteurCsv lecteur = new LecteurCsv();
+    lecteur.setEntete(true);
+    lecteur.setSeparateur(';');
+    final MatriceDonnees lues = lire(lecteur, "x;y;classe\n1;2;a\n");
+
+    assertEquals(1, lues.getLignes());
+    assertEquals("a", lues.getLabel(0));
+  }
+
+  @Test
+  void erreurAvecLigneEtColonne() {
+    final IOException erreur = assertThrows(IOException.class, () -> lire(new LecteurCsv(), "1,2,a\n3,x4,b\n"));
+
+    assertEquals("ligne 2 : valeur invalide en colonne 2 : \"x4\"", erreur.getMessage());
+  }
+
+  @Test
+  void erreurDeNombreDeColonnes() {
+    final IOException erreur = assertThrows(IOException.class, () -> lire(new LecteurCsv(), "1,2,a\n3,4,b\n5,6\n"));
+
+    assertEquals("ligne 3 : 2 colonnes au lieu de 3", erreur.getMessage());
+  }
+
+  @Test
+  void erreursIgnorees() throws IOException {
+    final LecteurCsv lecteur = new LecteurCsv();
+    lecteur.setIgnorerErreurs(true);
+    final MatriceDonnees lues = lire(lecteur, "1,2,a\r\n3,?,b\r\n5,6,c\r\n");
+
+    assertEquals(2, lues.getLignes());
+    assertEquals("c", lues.getLabel(1));
+    assertEquals(List.of("ligne 2 : valeur invalide en colonne 2 : \"?\""), lecteur.getErreurs());
+  }
+
+  @Test
+  void fluxCommeLectureComplete() throws IOException {
+    final StringBuilder texte = new StringBuilder();
+    for (int i = 0; i < 1000; ++i) {
+      texte.append(i).append(',').append(i * 0.5).append(",c").append(i % 7).append(i % 2 == 0 ? "\n" : "\r\n");
+    }
+    final Path fichier = this.dossier.resolve("donnees.csv");
+    Files.write(fichier, texte.toString().getBytes(StandardCharsets.UTF_8));
+    final MatriceDonnees toutes = new LecteurCsv().lire(fichier.toString());
+
+    int lignes = 0;
+    final double[] attendue = new double[2];
+    final double[] lue = new double[2];
+    // blocks of a few rows
+    try (LecteurCsv.Flux flux = new LecteurCsv().ouvrir(fichier.toString(), (1 << 16) + 300, 0)) {
+      while (flux.lireBloc() > 0) {
+        final MatriceDonnees bloc = flux.getBloc();
+        assertTrue(bloc.getLignes() <= flux.getCapacite());
+        for (int i = 0; i < bloc.getLignes(); ++i, ++lignes) {
+          toutes.copierLigne(lignes, attendue);
+          bloc.copierLigne(i, lue);
+          assertArrayEquals(attendue, lue);
+          assertEquals(toutes.getLabel(lignes), bloc.getLabel(i));
+        }
+      }
+    }
+    assertEquals(1000, lignes);
+  }
+
+  /**
+   * Checks the decoding of a field against Double.parseDouble, bit for bit.
+   */
+  private static void verifier(final String texte) {
+    final byte[] octets = texte.getBytes(StandardCharsets.ISO_8859_1);
+    assertEquals(Double.doubleToRawLongBits(Double.parseDouble(texte)), Double.doubleToRawLongBits(LecteurCsv.nombre(octets, 0, octets.length)), texte);
+  }
+
+  private static MatriceDonnees lire(final LecteurCsv lecteur, final String texte) throws IOException {
+    return lecteur.lire(new ByteArrayInputStream(texte.getBytes(StandardCharsets.UTF_8)));
+  }
+}
@@ -0,0 +1,57 @@
+package code;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the metric kernels (code.Metrique): the Vector API kernels against the scalar loops.
+ *
+ * @author Fab.16
+ */
+class MetriqueTest {
+
+  @Test
+  void noyauxVectorielsCommeScalaires() {
+    // the tests run with --add-modules jdk.incubator.vector, see the surefire configuration
+    assertTrue(Metrique.isVectorise());
+    final Metrique.Noyau[] vectoriels = NoyauVectoriel.noyaux();
+    final Metrique.Noyau[] scalaires = {Metrique::euclidienne, Metrique::manhattan, Metrique::cosinus};
+    final SplittableRandom aleatoire = new SplittableRandom(11);
+    // every dimension up to several vectors, most of them not a multiple of the lane count
+    for (int n = 1; n <= 67; ++n) {
+      final double[] a = new double[n + 5];
+      final double[] b = new double[n + 3];
+      for (int i = 0; i < a.length; ++i) {
+        a[i] = aleatoire.nextDouble(-10.0, 10.0);
+      }
+      for (int i = 0; i < b.length; ++i) {
+        b[i] = aleatoire.nextDouble(-10.0, 10.0);
+      }
+      for (final Metrique metrique : Metrique.values()) {
+        // unaligned offsets, as for the rows of a codebook
+        final double attendu = scalaires[metrique.ordinal()].ecart(a, 5, b, 3, n);
+        assertEquals(attendu, vectoriels[metrique.ordinal()].ecart(a, 5, b, 3, n), 1e-12 * Math.max(1.0, Math.abs(attendu)), metrique + " en dimension " + n);
+        assertEquals(attendu, metrique.noyau().ecart(a, 5, b, 3, n), 1e-12 * Math.max(1.0, Math.abs(attendu)), metrique + " en dimension " + n);
+      }
+    }
+  }
+
+  @Test
+  void cosinusDUnVecteurNul() {
+    final double[] nul = new double[20];
+    final double[] b = new double[20];
+    b[3] = 2.0;
+    assertEquals(1.0, Metrique.COSINUS.noyau().ecart(nul, 0, b, 0, 20));
+    assertEquals(1.0, NoyauVectoriel.noyaux()[Metrique.COSINUS.ordinal()].ecart(nul, 0, b, 0, 20));
+  }
+
+  @Test
+  void distanceDepuisLEcart() {
+    assertEquals(3.0, Metrique.EUCLIDIENNE.distance(9.0));
+    assertEquals(9.0, Metrique.MANHATTAN.distance(9.0));
+    assertEquals(0.25, Metrique.COSINUS.distance(0.25));
+  }
+}
@@ -0,0 +1,183 @@
+package code;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the checkpoints (code.Sauvegarde) and of the resumption of a training from one.
+ *
+ * @author Fab.16
+ */
+class SauvegardeTest {
+
+  @TempDir
+  Path dossier;
+
+  /** Standard output, silenced while Traitement reports its progress. */
+  private PrintStream sortie;
+
+  @BeforeEach
+  void silence() {
+    this.sortie = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+  }
+
+  @AfterEach
+  void retablir() {
+    System.setOut(this.sortie);
+  }
+
+  @Test
+  void relitCeQuiEstEcrit() throws IOException {
+    final Codebook codebook = new Codebook(new Topologie(4, 6, Topologie.Maille.HEXAGONALE, true), 3, Metrique.MANHATTAN);
+    final SplittableRandom aleatoire = new SplittableRandom(1);
+    for (int i = 0; i < codebook.getPoids().length; ++i) {
+      codebook.getPoids()[i] = aleatoire.nextDouble();
+    }
+    final String[] etiquettes = new String[codebook.getTaille()];
+    for (int noeud = 0; noeud < etiquettes.length; ++noeud) {
+      etiquettes[noeud] = noeud % 5 == 0 ? "" : "classe-" + noeud % 3 + "-é";
+    }
+    final Planning planning = Planning.epoques(Planning.Type.EXPONENTIELLE, 0.4, 0.02, 30);
+    final Voisinage voisinage = new Voisinage(Voisinage.Forme.GAUSSIEN, Voisinage.Decroissance.EXPONENTIELLE, 3.0, 0.5);
+    final Path fichier = this.dossier.resolve("carte" + Sauvegarde.EXTENSION);
+    new Sauvegarde(fichier.toString()).ecrire(new Sauvegarde.Etat(codebook, 42L, -7L, 12, 3456L, 150, planning, voisinage, SelectionBmu.Egalite.ALEATOIRE, etiquettes));
+
+    final Sauvegarde.Etat etat = new Sauvegarde(fichier.toString()).lire();
+    assertArrayEquals(codebook.getPoids(), etat.getCodebook().getPoids());
+    assertEquals(codebook.getTopologie(), etat.getCodebook().getTopologie());
+    assertEquals(Metrique.MANHATTAN, etat.getCodebook().getMetrique());
+    assertEquals(42L, etat.getGraine());
+    assertEquals(-7L, etat.getGraineSession());
+    assertEquals(12, etat.getEpoque());
+    assertEquals(3456L, etat.getMiseAJour());
+    assertEquals(150, etat.getNbDonnees());
+    assertEquals(Planning.Type.EXPONENTIELLE, etat.getPlanning().getType());
+    assertEquals(0.4, etat.getPlanning().getAlphaInitial());
+    assertEquals(0.02, etat.getPlanning().getAlphaFinal());
+    assertEquals(30, etat.getPlanning().nbEpoques(150));
+    assertEquals(Voisinage.Forme.GAUSSIEN, etat.getVoisinage().getForme());
+    assertEquals(Voisinage.Decroissance.EXPONENTIELLE, etat.getVoisinage().getDecroissance());
+    assertEquals(3.0, etat.getVoisinage().getRayonInitial());
+    assertEquals(0.5, etat.getVoisinage().getRayonFinal());
+    assertEquals(SelectionBmu.Egalite.ALEATOIRE, etat.getEgalite());
+    assertTrue(etat.isEtiquetee());
+    for (int noeud = 0; noeud < etiquettes.length; ++noeud) {
+      assertEquals(etiquettes[noeud], etat.getEtiquette(noeud));
+    }
+    assertFalse(Files.exists(this.dossier.resolve("carte" + Sauvegarde.EXTENSION + ".tmp")));
+  }
+
+  @Test
+  void sansEtiquettesNeSeSertPas() throws IOException {
+    final Codebook codebook = new Codebook(Topologie.rectangulaire(2, 3), 2, Metrique.EUCLIDIENNE);
+    final Path fichier = this.dossier.resolve("entrainement" + Sauvegarde.EXTENSION);
+    new Sauvegarde(fichier.toString()).ecrire(new Sauvegarde.Etat(codebook, 1L, 2L, 3, 4L, 5, Planning.historique(), null, SelectionBmu.Egalite.PREMIER, null));
+
+    final Sauvegarde.Etat etat = new Sauvegarde(fichier.toString()).lire();
+    assertFalse(etat.isEtiquetee());
+    assertNull(etat.getVoisinage());
+    assertThrows(IOException.class, () -> Modele.charger(fichier.toString()));
+  }
+
+  @Test
+  void refuseUnFichierCorrompu() throws IOException {
+    final Codebook codebook = new Codebook(Topologie.rectangulaire(3, 3), 4, Metrique.EUCLIDIENNE);
+    final Path fichier = this.dossier.resolve("corrompu" + Sauvegarde.EXTENSION);
+    new Sauvegarde(fichier.toString()).ecrire(new Sauvegarde.Etat(codebook, 1L, 2L, 3, 4L, 5, Planning.historique(), null, SelectionBmu.Egalite.PREMIER, null));
+    final byte[] octets = Files.readAllBytes(fichier);
+    octets[octets.length / 2] ^= 1;
+    Files.write(fichier, octets);
+
+    final IOException erreur = assertThrows(IOException.class, () -> new Sauvegarde(fichier.toString()).lire());
+    assertTrue(erreur.getMessage().contains("corrompu"), erreur.getMessage());
+  }
+
+  @Test
+  void refuseUnAutreFichier() throws IOException {
+    final Path fichier = this.dossier.resolve("autre" + Sauvegarde.EXTENSION);
+    Files.write(fichier, new byte[200]);
+
+    assertThrows(IOException.class, () -> new Sauvegarde(fichier.toString()).lire());
+  }
+
+  @Test
+  void repriseIdentiqueAUnEntrainementSansArret() throws IOException {
+    final MatriceDonnees donnees = donnees(300, 4, 3L);
+    final Traitement complet = preparer(new Traitement(donnees));
+    complet.rapprochement(1);
+    final double[] sansArret = complet.getCodebook().getPoids();
+
+    // the process stops during epoch 7, after the checkpoint of epoch 6
+    final Path fichier = this.dossier.resolve("reprise" + Sauvegarde.EXTENSION);
+    final Traitement interrompu = preparer(new Traitement(donnees));
+    interrompu.setSauvegarde(fichier.toString(), 3);
+    interrompu.setSuivi(mesures -> {
+      if (mesures.getEpoque() == 7) {
+        throw new IllegalStateException("arrêt");
+      }
+    });
+    assertThrows(IllegalStateException.class, () -> interrompu.rapprochement(1));
+    assertFalse(new Sauvegarde(fichier.toString()).lire().isEtiquetee());
+
+    final Traitement repris = new Traitement(donnees);
+    repris.reprendre(fichier.toString());
+    assertEquals(SelectionBmu.Egalite.ALEATOIRE, repris.getEgalite());
+    assertEquals(6, new Sauvegarde(fichier.toString()).lire().getEpoque());
+    repris.setSauvegarde(fichier.toString(), 3);
+    repris.rapprochement(1);
+    assertArrayEquals(sansArret, repris.getCodebook().getPoids());
+
+    // the last checkpoint is labelled and can be served
+    final Modele modele = Modele.charger(fichier.toString());
+    for (int noeud = 0; noeud < modele.getTopologie().getTaille(); ++noeud) {
+      assertTrue(modele.getEtiquette(noeud).startsWith("classe-"));
+    }
+  }
+
+  /**
+   * Sets up the same map and schedule with a fixed seed.
+   */
+  private static Traitement preparer(final Traitement traitement) {
+    traitement.setGraine(5L);
+    traitement.setEgalite(SelectionBmu.Egalite.ALEATOIRE);
+    traitement.setTopologie(new Topologie(6, 8, Topologie.Maille.HEXAGONALE, true));
+    traitement.calculeVecteurMoyen();
+    traitement.creerIntervale(0.5, 0.5);
+    traitement.genereMatrice();
+    traitement.setPlanning(Planning.epoques(Planning.Type.EXPONENTIELLE, 0.5, 0.01, 10));
+    traitement.setVoisinage(new Voisinage(Voisinage.Forme.GAUSSIEN, Voisinage.Decroissance.EXPONENTIELLE, 3.0, 0.5));
+    return traitement;
+  }
+
+  /**
+   * Draws rows around three centres, labelled by their centre.
+   */
+  static MatriceDonnees donnees(final int nbLignes, final int dimension, final long graine) throws IOException {
+    final SplittableRandom aleatoire = new SplittableRandom(graine);
+    final MatriceDonnees donnees = new MatriceDonnees(dimension, nbLignes);
+    for (int i = 0; i < nbLignes; ++i) {
+      final int classe = i % 3;
+      final int offset = donnees.ajouterLigne(donnees.indiceLabel("classe-" + classe));
+      for (int j = 0; j < dimension; ++j) {
+        donnees.getValeurs()[offset + j] = 1.0 + 2.0 * ((classe + j) % 3) + aleatoire.nextDouble();
+      }
+    }
+    return donnees;
+  }
+}
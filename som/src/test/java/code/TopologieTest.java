@@ -0,0 +1,117 @@
+package code;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the shapes of the grid (code.Topologie).
+ *
+ * @author Fab.16
+ */
+class TopologieTest {
+
+  @Test
+  void distancesHexagonales() {
+    final Topologie topologie = new Topologie(9, 9, Topologie.Maille.HEXAGONALE, false);
+    for (int x = 0; x < 2; ++x) {
+      for (int dx = -4; dx <= 4; ++dx) {
+        for (int dy = -4; dy <= 4; ++dy) {
+          // centres of the cells: odd rows shifted by half a cell, rows sqrt(3)/2 apart
+          final double hauteur = dx * Math.sqrt(3.0) / 2.0;
+          final double largeur = dy + ((x + dx) & 1) / 2.0 - (x & 1) / 2.0;
+          assertEquals(hauteur * hauteur + largeur * largeur, topologie.distanceCarree(topologie.parite(x), dx, dy), 1e-12);
+        }
+      }
+    }
+  }
+
+  @Test
+  void sixVoisinsADistanceUn() {
+    final Topologie topologie = new Topologie(7, 8, Topologie.Maille.HEXAGONALE, false);
+    for (int x = 1; x < 6; ++x) {
+      for (int y = 1; y < 7; ++y) {
+        final int noeud = topologie.noeud(x, y);
+        assertEquals(6, topologie.getNbVoisins(noeud));
+        for (int i = 0; i < 6; ++i) {
+          final int voisin = topologie.getVoisin(noeud, i);
+          final int dx = voisin / 8 - x;
+          final int dy = voisin % 8 - y;
+          assertEquals(1.0, topologie.distanceCarree(topologie.parite(x), dx, dy), 1e-12);
+          assertEquals(1, topologie.pas(topologie.parite(x), dx, dy));
+        }
+      }
+    }
+    assertEquals(2, topologie.getNbVoisins(topologie.noeud(0, 0)));
+  }
+
+  @Test
+  void pasHexagonauxCommeUnParcours() {
+    final Topologie topologie = new Topologie(8, 9, Topologie.Maille.HEXAGONALE, false);
+    for (int depart = 0; depart < topologie.getTaille(); ++depart) {
+      final int[] pas = parcours(topologie, depart);
+      final int x = depart / 9;
+      for (int arrivee = 0; arrivee < topologie.getTaille(); ++arrivee) {
+        assertEquals(pas[arrivee], topologie.pas(topologie.parite(x), arrivee / 9 - x, arrivee % 9 - depart % 9));
+      }
+    }
+  }
+
+  @Test
+  void voisinsToriquesRectangulaires() {
+    final Topologie topologie = new Topologie(5, 7, Topologie.Maille.RECTANGULAIRE, true);
+    assertEquals(topologie.noeud(4, 6), topologie.noeud(-1, -1));
+    assertEquals(topologie.noeud(0, 0), topologie.noeud(5, 7));
+    for (int noeud = 0; noeud < topologie.getTaille(); ++noeud) {
+      assertEquals(8, topologie.getNbVoisins(noeud));
+    }
+    assertTrue(topologie.voisins(topologie.noeud(0, 0), topologie.noeud(4, 6)));
+    assertTrue(topologie.voisins(topologie.noeud(0, 3), topologie.noeud(4, 3)));
+    assertEquals(-1, Topologie.rectangulaire(5, 7).noeud(-1, 0));
+  }
+
+  @Test
+  void voisinsToriquesHexagonaux() {
+    final Topologie topologie = new Topologie(6, 8, Topologie.Maille.HEXAGONALE, true);
+    for (int noeud = 0; noeud < topologie.getTaille(); ++noeud) {
+      assertEquals(6, topologie.getNbVoisins(noeud));
+      for (int i = 0; i < 6; ++i) {
+        assertTrue(topologie.voisins(topologie.getVoisin(noeud, i), noeud));
+      }
+    }
+    // the first and last rows touch, with the shift of the odd rows
+    assertTrue(topologie.voisins(topologie.noeud(0, 0), topologie.noeud(5, 0)));
+    assertTrue(topologie.voisins(topologie.noeud(0, 0), topologie.noeud(5, 7)));
+  }
+
+  @Test
+  void hexagonaleToriqueImpaireRefusee() {
+    assertThrows(IllegalArgumentException.class, () -> new Topologie(5, 8, Topologie.Maille.HEXAGONALE, true));
+  }
+
+  /**
+   * Number of steps from a node to every node, following the neighbours.
+   */
+  private static int[] parcours(final Topologie topologie, final int depart) {
+    final int[] pas = new int[topologie.getTaille()];
+    Arrays.fill(pas, -1);
+    pas[depart] = 0;
+    final ArrayDeque<Integer> file = new ArrayDeque<Integer>();
+    file.add(depart);
+    while (!file.isEmpty()) {
+      final int noeud = file.poll();
+      for (int i = 0; i < topologie.getNbVoisins(noeud); ++i) {
+        final int voisin = topologie.getVoisin(noeud, i);
+        if (pas[voisin] < 0) {
+          pas[voisin] = pas[noeud] + 1;
+          file.add(voisin);
+        }
+      }
+    }
+    return pas;
+  }
+}